@@ -10,12 +10,8 @@ import javafx.stage.Stage;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
-import java.io.File;
+import java.util.List;
 import java.util.Optional;
-import view.UserList;
-import view.UserListHelper;
-import view.AlbumList;
-import view.AlbumListHelper;
 
 /**
  * Controller for the admin management screen.
@@ -25,16 +21,15 @@ public class AdminController {
     @FXML
     private ListView<String> userListView;
 
-    /** Holds the list of users for admin operations. */
-    private UserList userList;
+    /** The service making the user changes, on the JavaFX thread. */
+    private final PhotoLibraryService service = PhotoLibraryService.forJavaFx();
 
     /**
      * Initializes the admin controller by loading the current user list into the ListView.
      */
     @FXML
     private void initialize() {
-        userList = UserListHelper.load();
-        userListView.getItems().setAll(userList.getUsers());
+        service.listUsers().whenComplete(this::showUsers);
     }
 
     /**
@@ -47,24 +42,8 @@ public class AdminController {
         dialog.setHeaderText("Create New User");
         dialog.setContentText("Enter new username:");
         Optional<String> result = dialog.showAndWait();
-        if (result.isPresent()) {
-            String newUser = result.get().trim().toLowerCase();
-            if (newUser.isEmpty()) {
-                showAlert("Username cannot be empty.");
-            } else if (newUser.equals("admin") || newUser.equals("stock")) {
-                showAlert("Cannot use reserved username \"" + newUser + "\".");
-            } else if (userList.userExists(newUser)) {
-                showAlert("User \"" + newUser + "\" already exists.");
-            } else {
-                // Add user and save
-                userList.addUser(newUser);
-                UserListHelper.save(userList);
-                // Create an empty album list file for the new user
-                AlbumListHelper.save(newUser, new AlbumList());
-                // Update the UI list
-                userListView.getItems().add(newUser);
-            }
-        }
+        // The service checks the name and adds the user against the latest list, in case another instance changed it
+        result.ifPresent(newUser -> service.createUser(newUser).whenComplete(this::showUsers));
     }
 
     /**
@@ -77,10 +56,6 @@ public class AdminController {
             showAlert("No user selected.");
             return;
         }
-        if (selectedUser.equals("stock") || selectedUser.equals("admin")) {
-            showAlert("Cannot delete user \"" + selectedUser + "\".");
-            return;
-        }
         // Confirm deletion
         Alert confirm = new Alert(AlertType.CONFIRMATION);
         confirm.setTitle("Delete User");
@@ -88,16 +63,21 @@ public class AdminController {
         confirm.setContentText("Are you sure you want to delete user \"" + selectedUser + "\"?");
         Optional<ButtonType> result = confirm.showAndWait();
         if (result.isPresent() && result.get() == ButtonType.OK) {
-            // Remove user and save
-            userList.removeUser(selectedUser);
-            UserListHelper.save(userList);
-            // Delete the user's album data file
-            File dataFile = new File(selectedUser + "_albums.dat");
-            if (dataFile.exists()) {
-                dataFile.delete();
-            }
-            // Update UI list
-            userListView.getItems().remove(selectedUser);
+            // Delete the user and the user's album data files, unless another instance has the user logged in
+            service.deleteUser(selectedUser).whenComplete(this::showUsers);
+        }
+    }
+
+    /**
+     * Shows the user list after a user list operation, or the reason it failed.
+     * @param users the usernames, or null if the operation failed
+     * @param error the failure, or null if the operation succeeded
+     */
+    private void showUsers(List<String> users, Throwable error) {
+        if (error != null) {
+            showAlert(PhotoLibraryService.messageOf(error));
+        } else {
+            userListView.getItems().setAll(users);
         }
     }
 
@@ -112,7 +92,7 @@ public class AdminController {
             stage.setScene(new Scene(root, 400, 300));
             stage.show();
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("ui", e);
         }
     }
 
@@ -1,22 +1,34 @@
 package view;
 
 import java.io.Serializable;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Model class representing an album containing photos.
- * Stores the album name and list of photos.
+ * Stores the album name and list of photos, and keeps an AlbumSummary of them up to date as photos
+ * are added and removed. An album read from a snapshot starts out with only its name and stored
+ * summary; its photos are read from the snapshot the first time they are needed.
  */
 public class Album implements Serializable {
     private static final long serialVersionUID = 1L;
 
     /** The name of the album. */
     private String name;
-    /** The list of photos in the album. */
+    /** The list of photos in the album; null until the album is loaded. */
     private List<Photo> photos;
+    /** Read-only view of the photos handed out by getPhotos. */
+    private transient List<Photo> photosView;
+    /** The summary of the photos, or null if it has to be recomputed. */
+    private transient AlbumSummary summary;
+    /**
+     * The snapshot the photos are read from, or null once the album is loaded. Volatile so a thread
+     * that sees it cleared also sees the photos read in by another thread.
+     */
+    private transient volatile AlbumListCodec.Store store;
+    /** The position of the album's block in the snapshot. */
+    private transient int storeBlock;
 
     /**
      * Constructs an Album with a given name.
@@ -25,6 +37,46 @@ public class Album implements Serializable {
     public Album(String name) {
         this.name = name;
         this.photos = new ArrayList<>();
+        this.summary = AlbumSummary.EMPTY;
+    }
+
+    /**
+     * Constructs an album whose photos are still in a snapshot, from the summary stored with it.
+     * @param name the name of the album
+     * @param store the snapshot holding the album's photos
+     * @param storeBlock the position of the album's block in the snapshot
+     * @param summary the stored summary of the album's photos
+     */
+    public Album(String name, AlbumListCodec.Store store, int storeBlock, AlbumSummary summary) {
+        this.name = name;
+        this.store = store;
+        this.storeBlock = storeBlock;
+        this.summary = summary;
+    }
+
+    /**
+     * Checks whether the album's photos have been read in.
+     * @return true if the photos are in memory
+     */
+    public boolean isLoaded() {
+        return store == null;
+    }
+
+    /**
+     * Reads the album's photos from its snapshot if that has not happened yet. Albums are read by
+     * background searches and service threads as well as the JavaFX thread, so the first use is
+     * synchronized and the photos are read exactly once.
+     */
+    private void load() {
+        if (store != null) {
+            synchronized (this) {
+                AlbumListCodec.Store unread = store;
+                if (unread != null) {
+                    photos = unread.loadAlbum(storeBlock, summary.getCount());
+                    store = null;
+                }
+            }
+        }
     }
 
     /**
@@ -44,11 +96,52 @@ public class Album implements Serializable {
     }
 
     /**
-     * Returns the list of photos in the album.
-     * @return the list of Photo objects in this album
+     * Returns the list of photos in the album. Photos are added and removed through the album so
+     * that its summary stays current.
+     * @return an unmodifiable view of the Photo objects in this album
      */
     public List<Photo> getPhotos() {
-        return photos;
+        load();
+        if (photosView == null) {
+            photosView = Collections.unmodifiableList(photos);
+        }
+        return photosView;
+    }
+
+    /**
+     * Returns a copy of the photo list that does not change when the album does, for reading on another
+     * thread. Copying does not decode the photos of an album read from a snapshot.
+     * @return a new list of the album's photos
+     */
+    public List<Photo> copyPhotos() {
+        load();
+        return AlbumListCodec.copyOf(photos);
+    }
+
+    /**
+     * Finds a photo of the album by id, without reading in the album or decoding its other photos.
+     * @param id the photo id
+     * @return the photo, or null if the album does not hold a photo with that id
+     */
+    public Photo findPhoto(long id) {
+        AlbumListCodec.Store unread = store;
+        if (unread != null) {
+            return unread.albumPhoto(storeBlock, summary.getCount(), id);
+        }
+        return AlbumListCodec.findPhoto(photos, id);
+    }
+
+    /**
+     * Returns the summary of the album's photos: count and date range.
+     * @return the summary
+     */
+    public AlbumSummary getSummary() {
+        if (summary == null) {
+            // Set after removing a photo on the first or last date, or on an album deserialized from an old snapshot
+            load();
+            summary = AlbumSummary.of(photos);
+        }
+        return summary;
     }
 
     /**
@@ -56,7 +149,25 @@ public class Album implements Serializable {
      * @param photo the Photo to add
      */
     public void addPhoto(Photo photo) {
+        load();
         photos.add(photo);
+        if (summary != null) {
+            summary = summary.withPhoto(photo);
+        }
+    }
+
+    /**
+     * Adds several photos to the album at once, in order.
+     * @param newPhotos the Photos to add
+     */
+    public void addPhotos(List<Photo> newPhotos) {
+        load();
+        photos.addAll(newPhotos);
+        if (summary != null) {
+            for (Photo photo : newPhotos) {
+                summary = summary.withPhoto(photo);
+            }
+        }
     }
 
     /**
@@ -64,35 +175,15 @@ public class Album implements Serializable {
      * @param photo the Photo to remove
      */
     public void removePhoto(Photo photo) {
-        photos.remove(photo);
+        load();
+        if (photos.remove(photo) && summary != null) {
+            summary = summary.withoutPhoto(photo);
+        }
     }
 
     @Override
     public String toString() {
         // Album display includes name, number of photos, and date range of photos if any
-        int count = photos.size();
-        if (count == 0) {
-            return name + " (0 photos)";
-        }
-        // Determine earliest and latest photo dates
-        LocalDate earliest = null;
-        LocalDate latest = null;
-        for (Photo p : photos) {
-            LocalDate photoDate = p.getDate().toLocalDate();
-            if (earliest == null || photoDate.isBefore(earliest)) {
-                earliest = photoDate;
-            }
-            if (latest == null || photoDate.isAfter(latest)) {
-                latest = photoDate;
-            }
-        }
-        DateTimeFormatter df = DateTimeFormatter.ofPattern("MM/dd/yyyy");
-        String startDate = earliest != null ? earliest.format(df) : "";
-        String endDate = latest != null ? latest.format(df) : "";
-        if (earliest != null && latest != null && earliest.equals(latest)) {
-            // If only one date (all photos taken on the same day)
-            return name + " (" + count + " photos, " + startDate + ")";
-        }
-        return name + " (" + count + " photos, " + startDate + " - " + endDate + ")";
+        return getSummary().describe(name);
     }
 }
@@ -4,24 +4,27 @@ import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.stage.Stage;
 import javafx.scene.input.MouseEvent;
+import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Optional;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import view.Album;
 import view.Photo;
 import view.AlbumList;
-import view.AlbumListHelper;
 
 /**
  * Controller for the user's album list screen.
@@ -31,6 +34,10 @@ public class AlbumController {
     @FXML
     private ListView<Album> albumListView;
 
+    /** The service making the album changes and searches, on the JavaFX thread. */
+    private final PhotoLibraryService service = PhotoLibraryService.forJavaFx();
+    /** The session holding the current user's albums. */
+    private AlbumSession session;
     /** The list of albums for the current user. */
     private AlbumList albumList;
     /** The username of the current user. */
@@ -50,15 +57,25 @@ public class AlbumController {
                 }
             }
         });
+        // Albums are shown from their summary, so drawing a cell does not look at the photos
+        albumListView.setCellFactory(list -> new ListCell<Album>() {
+            @Override
+            protected void updateItem(Album album, boolean empty) {
+                super.updateItem(album, empty);
+                setText(empty || album == null ? null : album.getSummary().describe(album.getName()));
+            }
+        });
     }
 
     /**
-     * Starts the album list view for a given user by loading that user's albums from storage.
-     * @param username the username whose albums are to be loaded
+     * Starts the album list view for a given user, opening that user's session (which loads the
+     * albums from storage the first time).
+     * @param username the username whose albums are to be shown
      */
     public void start(String username) {
         this.username = username;
-        albumList = AlbumListHelper.load(username);
+        session = AlbumSession.open(username);
+        albumList = session.getAlbumList();
         albumListView.getItems().setAll(albumList.getAlbums());
     }
 
@@ -72,19 +89,13 @@ public class AlbumController {
         dialog.setHeaderText("Create New Album");
         dialog.setContentText("Enter album name:");
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(name -> {
-            name = name.trim();
-            if (name.isEmpty()) {
-                showAlert("Album name cannot be empty!");
-            } else if (albumList.albumExists(name)) {
-                showAlert("Album \"" + name + "\" already exists.");
+        result.ifPresent(name -> service.createAlbum(username, name).whenComplete((album, error) -> {
+            if (error != null) {
+                showAlert(PhotoLibraryService.messageOf(error));
             } else {
-                Album album = new Album(name);
-                albumList.addAlbum(album);
                 albumListView.getItems().add(album);
-                AlbumListHelper.save(username, albumList);
             }
-        });
+        }));
     }
 
     /**
@@ -95,14 +106,13 @@ public class AlbumController {
     private void handleDeleteAlbum() {
         Album selectedAlbum = albumListView.getSelectionModel().getSelectedItem();
         if (selectedAlbum != null) {
-            // Prevent deletion of stock album for stock user
-            if (username.equals("stock") && selectedAlbum.getName().equals("stock")) {
-                showAlert("Cannot delete the stock album.");
-                return;
-            }
-            albumList.removeAlbum(selectedAlbum);
-            albumListView.getItems().remove(selectedAlbum);
-            AlbumListHelper.save(username, albumList);
+            service.deleteAlbum(username, selectedAlbum.getName()).whenComplete((album, error) -> {
+                if (error != null) {
+                    showAlert(PhotoLibraryService.messageOf(error));
+                } else {
+                    albumListView.getItems().remove(album);
+                }
+            });
         }
     }
 
@@ -117,29 +127,18 @@ public class AlbumController {
             showAlert("No album selected.");
             return;
         }
-        // Prevent renaming of stock album for stock user
-        if (username.equals("stock") && selectedAlbum.getName().equals("stock")) {
-            showAlert("Cannot rename the stock album.");
-            return;
-        }
         TextInputDialog dialog = new TextInputDialog(selectedAlbum.getName());
         dialog.setTitle("Rename Album");
         dialog.setHeaderText("Rename Album \"" + selectedAlbum.getName() + "\"");
         dialog.setContentText("Enter new album name:");
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(newName -> {
-            newName = newName.trim();
-            if (newName.isEmpty()) {
-                showAlert("Album name cannot be empty!");
-            } else if (albumList.albumExists(newName) && !newName.equalsIgnoreCase(selectedAlbum.getName())) {
-                showAlert("Album \"" + newName + "\" already exists.");
+        result.ifPresent(newName -> service.renameAlbum(username, selectedAlbum.getName(), newName).whenComplete((album, error) -> {
+            if (error != null) {
+                showAlert(PhotoLibraryService.messageOf(error));
             } else {
-                // Perform rename
-                selectedAlbum.setName(newName);
-                AlbumListHelper.save(username, albumList);
                 albumListView.refresh();
             }
-        });
+        }));
     }
 
     /**
@@ -151,7 +150,7 @@ public class AlbumController {
         TextInputDialog dialog = new TextInputDialog();
         dialog.setTitle("Search Photos by Tag");
         dialog.setHeaderText("Search Photos by Tag");
-        dialog.setContentText("Enter tag search query (e.g., tag=value or tag1=value1 AND tag2=value2):");
+        dialog.setContentText("Enter tag search query (e.g., tag=value, tag1=value1 AND tag2=value2, (a=b OR a=c) AND NOT d=e):");
         Optional<String> result = dialog.showAndWait();
         if (!result.isPresent()) {
             return;
@@ -160,98 +159,14 @@ public class AlbumController {
         if (query.isEmpty()) {
             return;
         }
-        // Determine search type (AND, OR, or single)
-        boolean hasAnd = query.toLowerCase().contains(" and ");
-        boolean hasOr = query.toLowerCase().contains(" or ");
-        if (hasAnd && hasOr) {
-            showAlert("Invalid query. Use either AND or OR (not both).");
-            return;
-        }
-        // Parse query into tag name-value pairs
-        String name1, value1, name2 = null, value2 = null;
-        if (hasAnd || hasOr) {
-            String delimiter = hasAnd ? " and " : " or ";
-            String[] parts = query.split("(?i)" + delimiter);
-            if (parts.length != 2) {
-                showAlert("Invalid tag query format.");
-                return;
-            }
-            String part1 = parts[0].trim();
-            String part2 = parts[1].trim();
-            if (!part1.contains("=") || !part2.contains("=")) {
-                showAlert("Tag query must be in name=value format.");
-                return;
-            }
-            String[] kv1 = part1.split("=", 2);
-            String[] kv2 = part2.split("=", 2);
-            name1 = kv1[0].trim();
-            value1 = kv1.length > 1 ? kv1[1].trim() : "";
-            name2 = kv2[0].trim();
-            value2 = kv2.length > 1 ? kv2[1].trim() : "";
-            if (name1.isEmpty() || value1.isEmpty() || name2.isEmpty() || value2.isEmpty()) {
-                showAlert("Tag name and value cannot be empty.");
-                return;
-            }
-        } else {
-            if (!query.contains("=")) {
-                showAlert("Tag query must be in name=value format.");
-                return;
-            }
-            String[] kv = query.split("=", 2);
-            name1 = kv[0].trim();
-            value1 = kv.length > 1 ? kv[1].trim() : "";
-            if (name1.isEmpty() || value1.isEmpty()) {
-                showAlert("Tag name and value cannot be empty.");
-                return;
-            }
-        }
-        // Search across all albums for matching photos
-        List<Photo> resultPhotos = new ArrayList<>();
-        Set<String> seenFiles = new HashSet<>();
-        for (Album alb : albumList.getAlbums()) {
-            for (Photo photo : alb.getPhotos()) {
-                boolean match = false;
-                if (hasAnd) {
-                    // Conjunctive query
-                    if (photo.hasTag(name1, value1) && photo.hasTag(name2, value2)) {
-                        match = true;
-                    }
-                } else if (hasOr) {
-                    // Disjunctive query
-                    if (photo.hasTag(name1, value1) || photo.hasTag(name2, value2)) {
-                        match = true;
-                    }
-                } else {
-                    // Single tag query
-                    if (photo.hasTag(name1, value1)) {
-                        match = true;
-                    }
-                }
-                if (match) {
-                    String path = photo.getFilePath();
-                    if (!seenFiles.contains(path)) {
-                        seenFiles.add(path);
-                        resultPhotos.add(photo);
-                    }
-                }
+        // The query is run against the tag, date and caption indexes
+        service.search(username, query).whenComplete((resultPhotos, error) -> {
+            if (error != null) {
+                showAlert(PhotoLibraryService.messageOf(error));
+            } else {
+                showSearchResults(resultPhotos);
             }
-        }
-        // Display search results similar to album view
-        Album searchAlbum = new Album("Search Results");
-        for (Photo p : resultPhotos) {
-            searchAlbum.addPhoto(p);
-        }
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/photo.fxml"));
-            Parent root = loader.load();
-            PhotoController controller = loader.getController();
-            controller.start(searchAlbum, username, albumList);
-            Stage stage = (Stage) albumListView.getScene().getWindow();
-            stage.setScene(new Scene(root, 800, 600));
-            stage.show();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        });
     }
 
     /**
@@ -288,57 +203,165 @@ public class AlbumController {
             showAlert("Invalid date format. Please use MM/DD/YYYY.");
             return;
         }
-        if (endDate.isBefore(startDate)) {
-            showAlert("End date must be on or after start date.");
+        // Look up photos within the date range, already sorted by date taken
+        service.searchByDate(username, startDate, endDate).whenComplete((resultPhotos, error) -> {
+            if (error != null) {
+                showAlert(PhotoLibraryService.messageOf(error));
+            } else {
+                showSearchResults(resultPhotos);
+            }
+        });
+    }
+
+    /**
+     * Opens the photo view showing search results, as an album that is not in the user's list.
+     * @param resultPhotos the photos found
+     */
+    private void showSearchResults(List<Photo> resultPhotos) {
+        Album searchAlbum = new Album("Search Results");
+        searchAlbum.addPhotos(resultPhotos);
+        openPhotoView(searchAlbum);
+    }
+
+    /**
+     * Handles the duplicates report.
+     * Hashes any photos imported before content hashes were recorded (in the background, with a
+     * progress dialog), then lists every image that is stored more than once across the user's albums.
+     */
+    @FXML
+    private void handleFindDuplicates() {
+        List<Photo> unhashed = new ArrayList<>();
+        for (Photo photo : session.getAllPhotos()) {
+            if (photo.getContentHash() == null) {
+                unhashed.add(photo);
+            }
+        }
+        if (unhashed.isEmpty()) {
+            showDuplicates();
             return;
         }
-        // Search photos within date range
-        List<Photo> resultPhotos = new ArrayList<>();
-        Set<String> seenFiles = new HashSet<>();
-        for (Album alb : albumList.getAlbums()) {
-            for (Photo photo : alb.getPhotos()) {
-                LocalDate photoDate = photo.getDate().toLocalDate();
-                if ((photoDate.isEqual(startDate) || photoDate.isAfter(startDate)) &&
-                    (photoDate.isEqual(endDate) || photoDate.isBefore(endDate))) {
-                    String path = photo.getFilePath();
-                    if (!seenFiles.contains(path)) {
-                        seenFiles.add(path);
-                        resultPhotos.add(photo);
+        javafx.concurrent.Task<Map<Long, String>> hashing = new javafx.concurrent.Task<Map<Long, String>>() {
+            @Override
+            protected Map<Long, String> call() {
+                updateMessage("Hashing " + unhashed.size() + " photos...");
+                Map<Long, String> hashes = new ConcurrentHashMap<>();
+                AtomicInteger done = new AtomicInteger();
+                unhashed.parallelStream().forEach(photo -> {
+                    if (isCancelled()) {
+                        return;
                     }
+                    try {
+                        hashes.put(photo.getId(), ContentHasher.hash(java.nio.file.Paths.get(photo.getFilePath())));
+                    } catch (IOException e) {
+                        // Missing or unreadable files cannot be compared and are left out of the report
+                    }
+                    updateProgress(done.incrementAndGet(), unhashed.size());
+                });
+                return hashes;
+            }
+        };
+        javafx.scene.control.ProgressBar progressBar = new javafx.scene.control.ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(hashing.progressProperty());
+        javafx.scene.control.Label statusLabel = new javafx.scene.control.Label();
+        statusLabel.textProperty().bind(hashing.messageProperty());
+        Alert progress = new Alert(AlertType.NONE, null, javafx.scene.control.ButtonType.CANCEL);
+        progress.setTitle("Find Duplicates");
+        progress.setHeaderText(null);
+        progress.getDialogPane().setContent(new javafx.scene.layout.VBox(10, statusLabel, progressBar));
+        progress.setOnHidden(e -> hashing.cancel());
+        hashing.setOnSucceeded(e -> {
+            progress.setOnHidden(null);
+            progress.close();
+            // The user may have logged out while the photos were being hashed
+            if (session.isClosed()) {
+                return;
+            }
+            service.setContentHashes(username, hashing.getValue()).whenComplete((recorded, error) -> {
+                if (error != null) {
+                    showAlert(PhotoLibraryService.messageOf(error));
+                } else if (recorded) {
+                    showDuplicates();
                 }
+            });
+        });
+        hashing.setOnFailed(e -> {
+            progress.setOnHidden(null);
+            progress.close();
+            Metrics.error("hash", hashing.getException());
+        });
+        Thread thread = new Thread(hashing, "duplicate-hashing");
+        thread.setDaemon(true);
+        thread.start();
+        progress.show();
+    }
+
+    /**
+     * Shows the groups of photos that share the same content, with the albums each copy is in.
+     */
+    private void showDuplicates() {
+        List<List<Photo>> groups = session.getContentIndex().duplicates();
+        if (groups.isEmpty()) {
+            Alert alert = new Alert(AlertType.INFORMATION);
+            alert.setTitle("Find Duplicates");
+            alert.setHeaderText(null);
+            alert.setContentText("No duplicate photos found.");
+            alert.showAndWait();
+            return;
+        }
+        // Album names for each duplicated photo, gathered in one pass over the albums
+        Map<Photo, List<String>> albumsOf = new IdentityHashMap<>();
+        for (List<Photo> group : groups) {
+            for (Photo photo : group) {
+                albumsOf.put(photo, new ArrayList<>());
             }
         }
-        // Display search results
-        Album searchAlbum = new Album("Search Results");
-        for (Photo p : resultPhotos) {
-            searchAlbum.addPhoto(p);
+        for (Album album : albumList.getAlbums()) {
+            for (Photo photo : album.getPhotos()) {
+                List<String> names = albumsOf.get(photo);
+                if (names != null) {
+                    names.add(album.getName());
+                }
+            }
         }
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/photo.fxml"));
-            Parent root = loader.load();
-            PhotoController controller = loader.getController();
-            controller.start(searchAlbum, username, albumList);
-            Stage stage = (Stage) albumListView.getScene().getWindow();
-            stage.setScene(new Scene(root, 800, 600));
-            stage.show();
-        } catch (Exception e) {
-            e.printStackTrace();
+        StringBuilder report = new StringBuilder();
+        for (List<Photo> group : groups) {
+            report.append(group.size()).append(" copies:\n");
+            for (Photo photo : group) {
+                report.append("    ").append(photo.getFilePath())
+                        .append("  [").append(String.join(", ", albumsOf.get(photo))).append("]\n");
+            }
         }
+        javafx.scene.control.TextArea text = new javafx.scene.control.TextArea(report.toString());
+        text.setEditable(false);
+        text.setPrefSize(600, 400);
+        Alert alert = new Alert(AlertType.INFORMATION);
+        alert.setTitle("Find Duplicates");
+        alert.setHeaderText(groups.size() + " image(s) are stored more than once.");
+        alert.getDialogPane().setContent(text);
+        alert.showAndWait();
     }
 
     /**
-     * Handles logging out from a user session. Returns to the login screen without exiting the program.
+     * Handles logging out from a user session. Returns to the login screen without exiting the program,
+     * unless the user's albums could not be saved, in which case the user stays logged in.
      */
     @FXML
     private void handleLogout() {
-        try {
-            Stage stage = (Stage) albumListView.getScene().getWindow();
-            Parent root = FXMLLoader.load(getClass().getResource("/view/login.fxml"));
-            stage.setScene(new Scene(root, 400, 300));
-            stage.show();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        service.closeUser(username).whenComplete((done, error) -> {
+            if (error != null) {
+                showAlert(PhotoLibraryService.messageOf(error));
+                return;
+            }
+            try {
+                Stage stage = (Stage) albumListView.getScene().getWindow();
+                Parent root = FXMLLoader.load(getClass().getResource("/view/login.fxml"));
+                stage.setScene(new Scene(root, 400, 300));
+                stage.show();
+            } catch (Exception e) {
+                Metrics.error("ui", e);
+            }
+        });
     }
 
     /**
@@ -350,12 +373,12 @@ public class AlbumController {
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/photo.fxml"));
             Parent root = loader.load();
             PhotoController controller = loader.getController();
-            controller.start(album, username, albumList);
+            controller.start(album, session);
             Stage stage = (Stage) albumListView.getScene().getWindow();
             stage.setScene(new Scene(root, 800, 600));
             stage.show();
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("ui", e);
         }
     }
 
@@ -2,7 +2,9 @@ package view;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Model class representing a collection of albums for a user.
@@ -12,6 +14,19 @@ public class AlbumList implements Serializable {
     private static final long serialVersionUID = 1L;
     /** The list of albums belonging to the user. */
     private List<Album> albums;
+    /** The snapshot generation, incremented each time the album list is written out in full. */
+    private long generation;
+    /** The number of change log records applied on top of the last snapshot. */
+    private transient int journalLength;
+    /** The id the next new photo will get; ids are never reused. */
+    private long nextPhotoId;
+    /**
+     * Photos of the user's albums keyed by id, each photo once however many albums hold it; built
+     * lazily from the loaded albums, and completed with photos found in the albums by id.
+     */
+    private transient Map<Long, Photo> photoTable;
+    /** The snapshot the album list was read from, or null once it has been released. */
+    private transient AlbumListCodec.Store snapshot;
 
     /**
      * Constructs an AlbumList with no albums.
@@ -28,6 +43,177 @@ public class AlbumList implements Serializable {
         return albums;
     }
 
+    /**
+     * Returns the snapshot generation of this album list.
+     * @return the generation number
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Sets the snapshot generation of this album list.
+     * @param generation the new generation number
+     */
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Returns the number of change log records written since the last snapshot.
+     * @return the change log length
+     */
+    public int getJournalLength() {
+        return journalLength;
+    }
+
+    /**
+     * Sets the number of change log records written since the last snapshot.
+     * @param journalLength the change log length
+     */
+    public void setJournalLength(int journalLength) {
+        this.journalLength = journalLength;
+    }
+
+    /**
+     * Returns the id the next new photo will be given.
+     * @return the next photo id
+     */
+    public long getNextPhotoId() {
+        return Math.max(nextPhotoId, 1);
+    }
+
+    /**
+     * Sets the id the next new photo will be given, when restoring a stored album list.
+     * @param nextPhotoId the next photo id
+     */
+    public void setNextPhotoId(long nextPhotoId) {
+        this.nextPhotoId = nextPhotoId;
+    }
+
+    /**
+     * Sets the snapshot the album list was read from, so it can be released once it is replaced.
+     * @param snapshot the snapshot
+     */
+    public void setSnapshot(AlbumListCodec.Store snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Releases the snapshot the album list was read from, after the album list has been written out
+     * in full; the albums no longer need it and the file can be replaced.
+     */
+    public void releaseSnapshot() {
+        if (snapshot != null) {
+            snapshot.release();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Reads in every album that has not been loaded yet.
+     */
+    public void loadAll() {
+        for (Album album : albums) {
+            album.getPhotos();
+        }
+    }
+
+    /**
+     * Returns the photo with the given id. A photo not in the photo table yet is looked for in the
+     * albums by id, without decoding their other photos, and added to the table; a photo that no
+     * album holds any more is not found.
+     * @param id the photo id
+     * @return the photo, or null if no album holds a photo with that id
+     */
+    public Photo getPhoto(long id) {
+        Map<Long, Photo> table = photoTable();
+        Photo photo = table.get(id);
+        if (photo == null && id != 0) {
+            for (Album album : albums) {
+                photo = album.findPhoto(id);
+                if (photo != null) {
+                    table.put(id, photo);
+                    break;
+                }
+            }
+        }
+        return photo;
+    }
+
+    /**
+     * Checks whether a photo is one of the photos of this album list.
+     * @param photo the photo to check
+     * @return true if the photo has an id and is the photo known under it
+     */
+    public boolean isRegistered(Photo photo) {
+        return photo.getId() != 0 && getPhoto(photo.getId()) == photo;
+    }
+
+    /**
+     * Adds a photo to the photo table, assigning it a new id if it has none.
+     * @param photo the photo to register
+     */
+    public void registerPhoto(Photo photo) {
+        Map<Long, Photo> table = photoTable();
+        if (photo.getId() == 0) {
+            photo.setId(Math.max(nextPhotoId, 1));
+        }
+        nextPhotoId = Math.max(nextPhotoId, photo.getId() + 1);
+        table.put(photo.getId(), photo);
+    }
+
+    /**
+     * Removes a photo from the photo table, once no album holds it any more.
+     * @param photo the photo to unregister
+     */
+    public void unregisterPhoto(Photo photo) {
+        photoTable().remove(photo.getId(), photo);
+    }
+
+    /**
+     * Registers every photo in the loaded albums, assigning ids to photos that have none, such as
+     * photos loaded from data written before photos had ids. Albums still in the snapshot already have ids.
+     * @return true if any photo was given a new id
+     */
+    public boolean assignPhotoIds() {
+        boolean assigned = false;
+        for (Album album : albums) {
+            if (!album.isLoaded()) {
+                continue;
+            }
+            for (Photo photo : album.getPhotos()) {
+                if (photo.getId() == 0) {
+                    registerPhoto(photo);
+                    assigned = true;
+                }
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * Returns the photo table, building it from the loaded albums the first time it is needed.
+     * @return the photos keyed by id
+     */
+    private Map<Long, Photo> photoTable() {
+        if (photoTable == null) {
+            photoTable = new HashMap<>();
+            for (Album album : albums) {
+                if (!album.isLoaded()) {
+                    continue;
+                }
+                for (Photo photo : album.getPhotos()) {
+                    if (photo.getId() != 0) {
+                        photoTable.put(photo.getId(), photo);
+                        nextPhotoId = Math.max(nextPhotoId, photo.getId() + 1);
+                    }
+                }
+            }
+        }
+        return photoTable;
+    }
+
     /**
      * Adds an album to the collection.
      * @param album the Album to add
@@ -45,16 +231,25 @@ public class AlbumList implements Serializable {
     }
 
     /**
-     * Checks if an album with the given name exists (case-insensitive).
-     * @param name the album name to check
-     * @return true if an album with the name exists in this collection, false otherwise
+     * Returns the album with the given name (case-insensitive).
+     * @param name the album name to look for
+     * @return the album, or null if no album has that name
      */
-    public boolean albumExists(String name) {
+    public Album getAlbum(String name) {
         for (Album album : albums) {
             if (album.getName().equalsIgnoreCase(name)) {
-                return true;
+                return album;
             }
         }
-        return false;
+        return null;
+    }
+
+    /**
+     * Checks if an album with the given name exists (case-insensitive).
+     * @param name the album name to check
+     * @return true if an album with the name exists in this collection, false otherwise
+     */
+    public boolean albumExists(String name) {
+        return getAlbum(name) != null;
     }
 }
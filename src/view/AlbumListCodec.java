@@ -0,0 +1,984 @@
+package view;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+/**
+ * Compact binary format for album list snapshots, replacing Java serialization.
+ * Layout (integers are unsigned LEB128 varints unless noted, signed values are zigzag encoded):
+ * <pre>
+ *   header:
+ *     int magic "PHAL", format version, generation, next photo id
+ *     string, tag and photo counts, then the body offsets of the string, tag, photo index and photo sections
+ *     album count, then for each album: name as UTF-8 byte length and bytes, photo count,
+ *     earliest and latest photo dates (signed epoch days, only if the album has photos), body offset of its block
+ *   body:
+ *     strings: an int end offset per string, then the UTF-8 bytes of all strings
+ *     tags: a pair of int string indexes (name, value) per distinct tag
+ *     photo index: a long id and an int offset into the photo section per photo, in ascending id order
+ *     photos: for each photo: path index, date (signed local epoch millis), size, width, height,
+ *       orientation, description index, hash flag byte (+ 32 hash bytes), tag count, then a tag index per tag
+ *     album blocks: each photo id of the album as a signed delta from the previous one
+ * </pre>
+ * Every path, caption, tag name and tag value is stored once in the string table, every distinct tag
+ * once in the tag table, and each photo once however many albums hold it.
+ * The header holds each album's name and AlbumSummary, which is everything the album list screen
+ * shows, so reading a snapshot only decodes the header; the fixed width string, tag and photo index entries let a Store find any string, tag or
+ * photo directly. Opening an album reads only its photo ids, and each photo is decoded the first
+ * time it is used. Snapshots
+ * are read through a memory-mapped buffer so the parts that are never opened are never read from disk.
+ */
+public class AlbumListCodec {
+    /** Marker at the start of every file in this format. */
+    public static final int MAGIC = 0x5048414C;
+    /** The format version written by this class. */
+    public static final int VERSION = 2;
+    /** The first two bytes of a Java serialization stream, used to recognise old snapshot files. */
+    public static final int SERIALIZATION_HEADER = 0xACED;
+    /** The size of a photo index entry: a long id and an int offset. */
+    private static final int PHOTO_INDEX_ENTRY = 12;
+
+    /**
+     * Writes an album list in the binary format. Albums that have not been loaded are read in first.
+     * @param albumList the album list to write
+     * @param output the stream to write to; it is not closed
+     * @throws IOException if writing fails or two photos share an id
+     */
+    public static void write(AlbumList albumList, OutputStream output) throws IOException {
+        // Collect each photo once, ordered by id, and the strings and tags they use
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringList = new ArrayList<>();
+        Map<Tag, Integer> tags = new HashMap<>();
+        List<Tag> tagList = new ArrayList<>();
+        TreeMap<Long, Photo> photos = new TreeMap<>();
+        Map<Photo, Boolean> seen = new IdentityHashMap<>();
+        for (Album album : albumList.getAlbums()) {
+            for (Photo photo : album.getPhotos()) {
+                if (seen.put(photo, Boolean.TRUE) == null) {
+                    photos.put(photo.getId(), photo);
+                    intern(strings, stringList, photo.getFilePath());
+                    intern(strings, stringList, photo.getDescription());
+                    for (Tag tag : photo.getTags()) {
+                        if (!tags.containsKey(tag)) {
+                            tags.put(tag, tagList.size());
+                            tagList.add(tag);
+                            intern(strings, stringList, tag.getName());
+                            intern(strings, stringList, tag.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        if (photos.size() != seen.size()) {
+            throw new IOException("Photos without distinct ids cannot be written");
+        }
+
+        Writer body = new Writer(64 + photos.size() * 80);
+        int stringsOffset = body.length;
+        byte[][] encoded = new byte[stringList.size()][];
+        int end = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = stringList.get(i).getBytes(StandardCharsets.UTF_8);
+            end += encoded[i].length;
+            body.writeInt(end);
+        }
+        for (byte[] bytes : encoded) {
+            body.write(bytes);
+        }
+
+        int tagsOffset = body.length;
+        for (Tag tag : tagList) {
+            body.writeInt(strings.get(tag.getName()));
+            body.writeInt(strings.get(tag.getValue()));
+        }
+
+        // The index is filled in once the records are written and their offsets known
+        int photoIndexOffset = body.length;
+        body.skip(photos.size() * PHOTO_INDEX_ENTRY);
+        int photosOffset = body.length;
+        int entry = photoIndexOffset;
+        for (Photo photo : photos.values()) {
+            body.putLong(entry, photo.getId());
+            body.putInt(entry + 8, body.length - photosOffset);
+            entry += PHOTO_INDEX_ENTRY;
+            writePhoto(body, photo, strings, tags);
+        }
+
+        int[] blockOffsets = new int[albumList.getAlbums().size()];
+        for (int i = 0; i < blockOffsets.length; i++) {
+            blockOffsets[i] = body.length;
+            long previousId = 0;
+            for (Photo photo : albumList.getAlbums().get(i).getPhotos()) {
+                body.writeVar(zigzag(photo.getId() - previousId));
+                previousId = photo.getId();
+            }
+        }
+
+        Writer header = new Writer(64 + blockOffsets.length * 32);
+        header.writeInt(MAGIC);
+        header.writeVar(VERSION);
+        header.writeVar(albumList.getGeneration());
+        header.writeVar(albumList.getNextPhotoId());
+        header.writeVar(stringList.size());
+        header.writeVar(tagList.size());
+        header.writeVar(photos.size());
+        header.writeVar(stringsOffset);
+        header.writeVar(tagsOffset);
+        header.writeVar(photoIndexOffset);
+        header.writeVar(photosOffset);
+        header.writeVar(blockOffsets.length);
+        for (int i = 0; i < blockOffsets.length; i++) {
+            Album album = albumList.getAlbums().get(i);
+            byte[] name = album.getName().getBytes(StandardCharsets.UTF_8);
+            header.writeVar(name.length);
+            header.write(name);
+            AlbumSummary summary = album.getSummary();
+            header.writeVar(summary.getCount());
+            if (summary.getCount() > 0) {
+                header.writeVar(zigzag(summary.getEarliest().toEpochDay()));
+                header.writeVar(zigzag(summary.getLatest().toEpochDay()));
+            }
+            header.writeVar(blockOffsets[i]);
+        }
+        output.write(header.buffer, 0, header.length);
+        output.write(body.buffer, 0, body.length);
+        output.flush();
+    }
+
+    /**
+     * Encodes one photo record.
+     * @param out the writer to append to
+     * @param photo the photo
+     * @param strings the string table
+     * @param tags the tag table
+     */
+    private static void writePhoto(Writer out, Photo photo, Map<String, Integer> strings, Map<Tag, Integer> tags) {
+        out.writeVar(strings.get(photo.getFilePath()));
+        out.writeVar(zigzag(toMillis(photo.getDate())));
+        out.writeVar(photo.getSize());
+        out.writeVar(photo.getWidth());
+        out.writeVar(photo.getHeight());
+        out.writeVar(photo.getOrientation());
+        out.writeVar(strings.get(photo.getDescription()));
+        String hash = photo.getContentHash();
+        if (hash != null && hash.length() == 64) {
+            out.writeByte(1);
+            for (int i = 0; i < 64; i += 2) {
+                out.writeByte(Character.digit(hash.charAt(i), 16) << 4 | Character.digit(hash.charAt(i + 1), 16));
+            }
+        } else {
+            out.writeByte(0);
+        }
+        List<Tag> photoTags = photo.getTags();
+        out.writeVar(photoTags.size());
+        for (Tag tag : photoTags) {
+            out.writeVar(tags.get(tag));
+        }
+    }
+
+    /**
+     * Reads an album list from a stream.
+     * @param input the stream to read from, positioned at the magic number; it is read to the end but not closed
+     * @return the album list
+     * @throws IOException if the data is not in a supported version of the format or is damaged
+     */
+    public static AlbumList read(InputStream input) throws IOException {
+        return read(ByteBuffer.wrap(input.readAllBytes()));
+    }
+
+    /**
+     * Reads an album list from the contents of a snapshot file, such as a memory-mapped file. For the
+     * current format only the header is decoded; the buffer is kept and each album's photos are read
+     * from it when the album is first used.
+     * @param buffer the file contents, starting at index 0; it must not change while albums are being loaded
+     * @return the album list
+     * @throws IOException if the data is not in a supported version of the format or is damaged
+     */
+    public static AlbumList read(ByteBuffer buffer) throws IOException {
+        Reader in = new Reader(buffer, 0);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an album list file");
+        }
+        long version = in.readVar();
+        if (version != VERSION) {
+            throw new IOException("Unsupported album list format version " + version);
+        }
+        AlbumList albumList = new AlbumList();
+        albumList.setGeneration(in.readVar());
+        albumList.setNextPhotoId(in.readVar());
+        Store store = new Store(buffer, in.readCount(), in.readCount(), in.readCount());
+        long stringsOffset = in.readVar();
+        long tagsOffset = in.readVar();
+        long photoIndexOffset = in.readVar();
+        long photosOffset = in.readVar();
+        int albumCount = in.readCount();
+        String[] names = new String[albumCount];
+        AlbumSummary[] summaries = new AlbumSummary[albumCount];
+        long[] blocks = new long[albumCount];
+        for (int i = 0; i < albumCount; i++) {
+            names[i] = in.readString(in.readCount());
+            int count = in.readCount();
+            summaries[i] = AlbumSummary.EMPTY;
+            if (count > 0) {
+                summaries[i] = new AlbumSummary(count, LocalDate.ofEpochDay(unzigzag(in.readVar())), LocalDate.ofEpochDay(unzigzag(in.readVar())));
+            }
+            blocks[i] = in.readVar();
+        }
+        // Offsets are relative to the end of the header; check the sections fit before trusting them
+        int base = in.position;
+        store.stringsOffset = section(buffer, base, stringsOffset, 4L * store.strings.length);
+        store.stringDataOffset = store.stringsOffset + 4 * store.strings.length;
+        store.tagsOffset = section(buffer, base, tagsOffset, 8L * store.tags.length);
+        store.photoIndexOffset = section(buffer, base, photoIndexOffset, (long) PHOTO_INDEX_ENTRY * store.photoCount);
+        store.photosOffset = section(buffer, base, photosOffset, 0);
+        if (store.stringDataOffset > store.tagsOffset) {
+            throw new IOException("Malformed string table");
+        }
+        for (int i = 0; i < albumCount; i++) {
+            albumList.addAlbum(new Album(names[i], store, section(buffer, base, blocks[i], summaries[i].getCount()), summaries[i]));
+        }
+        albumList.setSnapshot(store);
+        return albumList;
+    }
+
+    /**
+     * Converts a body offset read from the header into a buffer index, checking that a section of
+     * at least the given size starting there fits in the buffer.
+     * @param buffer the file contents
+     * @param base the buffer index of the start of the body
+     * @param offset the offset from the start of the body
+     * @param minimumLength the smallest number of bytes the section can take
+     * @return the buffer index of the section
+     * @throws IOException if the section does not fit
+     */
+    private static int section(ByteBuffer buffer, int base, long offset, long minimumLength) throws IOException {
+        if (offset < 0 || base + offset + minimumLength > buffer.limit()) {
+            throw new IOException("Album list file is truncated");
+        }
+        return (int) (base + offset);
+    }
+
+    /**
+     * A snapshot in the current format whose albums are read on demand. Strings, tags and photos are
+     * decoded the first time they are used and kept, so a photo held by several albums is the same
+     * instance in all of them and edits made through one album are seen when another is loaded.
+     */
+    public static class Store {
+        /** The snapshot contents, or null once the store has been released. */
+        private ByteBuffer buffer;
+        /** Decoded strings, null until first used. */
+        private String[] strings;
+        /** Decoded tags, null until first used. */
+        private Tag[] tags;
+        /** The number of photos in the snapshot. */
+        private final int photoCount;
+        /** Decoded photos by id. */
+        private final Map<Long, Photo> photos = new HashMap<>();
+        /** Buffer index of the string end offsets. */
+        private int stringsOffset;
+        /** Buffer index of the string bytes. */
+        private int stringDataOffset;
+        /** Buffer index of the tag table. */
+        private int tagsOffset;
+        /** Buffer index of the photo index. */
+        private int photoIndexOffset;
+        /** Buffer index of the photo records. */
+        private int photosOffset;
+
+        /**
+         * Creates a store over a snapshot's contents.
+         * @param buffer the snapshot contents
+         * @param stringCount the number of strings
+         * @param tagCount the number of tags
+         * @param photoCount the number of photos
+         */
+        private Store(ByteBuffer buffer, int stringCount, int tagCount, int photoCount) {
+            this.buffer = buffer;
+            this.strings = new String[stringCount];
+            this.tags = new Tag[tagCount];
+            this.photoCount = photoCount;
+        }
+
+        /**
+         * Reads the photo ids of an album. The photos themselves are decoded as the returned list's
+         * elements are first used, so showing part of a large album only decodes that part.
+         * @param block the buffer index of the album's block
+         * @param count the number of photos in the album
+         * @return a new modifiable list of the album's photos, in album order
+         * @throws IllegalStateException if the snapshot is damaged
+         */
+        public synchronized List<Photo> loadAlbum(int block, int count) {
+            long[] ids = new long[count];
+            try {
+                checkOpen();
+                Reader in = new Reader(buffer, block);
+                long id = 0;
+                for (int i = 0; i < count; i++) {
+                    id += unzigzag(in.readVar());
+                    if (photos.get(id) == null && find(id) < 0) {
+                        throw new IOException("Album refers to unknown photo " + id);
+                    }
+                    ids[i] = id;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return new StoredPhotoList(this, ids);
+        }
+
+        /**
+         * Returns a photo of an album that has not been loaded, reading only the album's photo ids.
+         * @param block the buffer index of the album's block
+         * @param count the number of photos in the album
+         * @param id the photo id
+         * @return the photo, or null if the album does not hold a photo with that id
+         * @throws IllegalStateException if the snapshot is damaged
+         */
+        public synchronized Photo albumPhoto(int block, int count, long id) {
+            try {
+                checkOpen();
+                Reader in = new Reader(buffer, block);
+                long next = 0;
+                for (int i = 0; i < count; i++) {
+                    next += unzigzag(in.readVar());
+                    if (next == id) {
+                        return photo(id);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }
+
+        /**
+         * Returns the photo with the given id, decoding it if this is the first time it is asked for.
+         * @param id the photo id
+         * @return the photo, or null if the snapshot has no photo with that id
+         * @throws IllegalStateException if the snapshot is damaged
+         */
+        public synchronized Photo photo(long id) {
+            Photo photo = photos.get(id);
+            if (photo != null) {
+                return photo;
+            }
+            try {
+                checkOpen();
+                int entry = find(id);
+                if (entry < 0) {
+                    return null;
+                }
+                photo = readPhoto(new Reader(buffer, photosOffset + buffer.getInt(entry + 8)), id);
+            } catch (IOException | IndexOutOfBoundsException e) {
+                throw new IllegalStateException(e);
+            }
+            photos.put(id, photo);
+            return photo;
+        }
+
+        /**
+         * Releases the snapshot contents, such as when the album list has been written out in full and
+         * the snapshot is about to be replaced. Photos not decoded yet are decoded first, so lists
+         * still holding their ids can be read; a damaged record is skipped, since it could not be read
+         * later either. A mapped snapshot is unmapped straight away, so the file can be replaced even
+         * where a mapped file cannot (as on Windows); this is safe because every read of the mapping
+         * holds the store's lock.
+         */
+        public synchronized void release() {
+            if (buffer == null) {
+                return;
+            }
+            for (int i = 0; i < photoCount; i++) {
+                try {
+                    photo(buffer.getLong(photoIndexOffset + i * PHOTO_INDEX_ENTRY));
+                } catch (IllegalStateException e) {
+                    Metrics.error("albums.load", e);
+                }
+            }
+            ByteBuffer contents = buffer;
+            buffer = null;
+            if (contents.isDirect()) {
+                unmap(contents);
+            }
+        }
+
+        /**
+         * Checks that the snapshot contents have not been released.
+         * @throws IOException if they have
+         */
+        private void checkOpen() throws IOException {
+            if (buffer == null) {
+                throw new IOException("The snapshot has been released");
+            }
+        }
+
+        /**
+         * Finds a photo's entry in the photo index by binary search; the index is sorted by id.
+         * @param id the photo id
+         * @return the buffer index of the entry, or -1 if the snapshot has no photo with that id
+         */
+        private int find(long id) {
+            int low = 0;
+            int high = photoCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int entry = photoIndexOffset + mid * PHOTO_INDEX_ENTRY;
+                long entryId = buffer.getLong(entry);
+                if (entryId < id) {
+                    low = mid + 1;
+                } else if (entryId > id) {
+                    high = mid - 1;
+                } else {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Decodes one photo record.
+         * @param in the reader, positioned at the record
+         * @param id the id of the photo
+         * @return the photo
+         * @throws IOException if the record is damaged
+         */
+        private Photo readPhoto(Reader in, long id) throws IOException {
+            String path = string(in.readIndex(strings.length));
+            LocalDateTime date = fromMillis(unzigzag(in.readVar()));
+            long size = in.readVar();
+            int width = (int) in.readVar();
+            int height = (int) in.readVar();
+            int orientation = (int) in.readVar();
+            Photo photo = new Photo(path, date, size, width, height, orientation);
+            photo.setId(id);
+            photo.setDescription(string(in.readIndex(strings.length)));
+            if (in.readByte() != 0) {
+                char[] hex = new char[64];
+                for (int b = 0; b < 32; b++) {
+                    int value = in.readByte();
+                    hex[b * 2] = Character.forDigit(value >> 4, 16);
+                    hex[b * 2 + 1] = Character.forDigit(value & 0xF, 16);
+                }
+                photo.setContentHash(new String(hex));
+            }
+            int tagCount = in.readCount();
+            if (tagCount > 0) {
+                Tag[] photoTags = new Tag[tagCount];
+                for (int t = 0; t < tagCount; t++) {
+                    photoTags[t] = tag(in.readIndex(tags.length));
+                }
+                photo.restoreTags(Arrays.asList(photoTags));
+            }
+            return photo;
+        }
+
+        /**
+         * Returns a string of the string table, decoding it if needed.
+         * @param index the string index, already checked to be in range
+         * @return the string
+         * @throws IOException if the string table is damaged
+         */
+        private String string(int index) throws IOException {
+            String s = strings[index];
+            if (s == null) {
+                int start = index == 0 ? 0 : buffer.getInt(stringsOffset + 4 * (index - 1));
+                int end = buffer.getInt(stringsOffset + 4 * index);
+                if (start < 0 || end < start || stringDataOffset + end > tagsOffset) {
+                    throw new IOException("Malformed string table");
+                }
+                s = new Reader(buffer, stringDataOffset + start).readString(end - start);
+                strings[index] = s;
+            }
+            return s;
+        }
+
+        /**
+         * Returns a tag of the tag table, decoding it if needed.
+         * @param index the tag index, already checked to be in range
+         * @return the tag
+         * @throws IOException if the tag table is damaged
+         */
+        private Tag tag(int index) throws IOException {
+            Tag tag = tags[index];
+            if (tag == null) {
+                int name = buffer.getInt(tagsOffset + 8 * index);
+                int value = buffer.getInt(tagsOffset + 8 * index + 4);
+                if (name < 0 || name >= strings.length || value < 0 || value >= strings.length) {
+                    throw new IOException("Malformed tag table");
+                }
+                tag = Tag.of(string(name), string(value));
+                tags[index] = tag;
+            }
+            return tag;
+        }
+    }
+
+    /**
+     * Unmaps a memory-mapped buffer without waiting for it to be garbage collected. The buffer must
+     * not be used afterwards. Where the runtime does not allow it, the mapping is left to the collector.
+     * @param buffer the mapped buffer
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not supported by this runtime
+        }
+    }
+
+    /**
+     * Adds a string to the string table if it is not there yet.
+     * @param strings the string table being built, mapping each string to its index
+     * @param stringList the strings of the table in index order
+     * @param s the string to add
+     */
+    private static void intern(Map<String, Integer> strings, List<String> stringList, String s) {
+        if (strings.putIfAbsent(s, stringList.size()) == null) {
+            stringList.add(s);
+        }
+    }
+
+    /**
+     * Converts a date to milliseconds since the epoch in local time, so that the value does not
+     * depend on the time zone of the computer reading it back.
+     * @param date the date
+     * @return the local epoch milliseconds
+     */
+    private static long toMillis(LocalDateTime date) {
+        return date.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * Converts local epoch milliseconds back to a date.
+     * @param millis the local epoch milliseconds
+     * @return the date
+     */
+    private static LocalDateTime fromMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    /**
+     * Maps a signed value to an unsigned one so small negative numbers stay short as varints.
+     * @param value the signed value
+     * @return the zigzag encoded value
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverses zigzag encoding.
+     * @param value the zigzag encoded value
+     * @return the signed value
+     */
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Copies a photo list. A list loaded from a Store is copied without decoding its photos; the copy
+     * decodes them through the store, which may be used from several threads.
+     * @param photos the list to copy
+     * @return a new list with the same photos
+     */
+    public static List<Photo> copyOf(List<Photo> photos) {
+        if (photos instanceof StoredPhotoList) {
+            StoredPhotoList stored = (StoredPhotoList) photos;
+            return new StoredPhotoList(stored.store, Arrays.copyOf(stored.ids, stored.size), Arrays.copyOf(stored.photos, stored.size));
+        }
+        return new ArrayList<>(photos);
+    }
+
+    /**
+     * Finds a photo in a list by id. Photos of a list loaded from a Store are compared by their
+     * stored id, so only the photo found is decoded.
+     * @param photos the list to search
+     * @param id the photo id
+     * @return the photo, or null if the list holds no photo with that id
+     */
+    public static Photo findPhoto(List<Photo> photos, long id) {
+        if (photos instanceof StoredPhotoList) {
+            StoredPhotoList stored = (StoredPhotoList) photos;
+            for (int i = 0; i < stored.size; i++) {
+                if (stored.ids[i] == id) {
+                    return stored.get(i);
+                }
+            }
+            return null;
+        }
+        for (Photo photo : photos) {
+            if (photo.getId() == id) {
+                return photo;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The photo list of an album loaded from a Store: photo ids, with each photo decoded and kept the
+     * first time its position is read. Photos are compared by identity, as in an ArrayList of photos
+     * (Photo does not override equals), but looking a photo up only decodes photos with its id.
+     */
+    private static class StoredPhotoList extends AbstractList<Photo> implements RandomAccess {
+        /** The snapshot the photos are decoded from. */
+        private final Store store;
+        /** The id of the photo at each position. */
+        private long[] ids;
+        /** The photo at each position, or null if it has not been decoded yet. */
+        private Photo[] photos;
+        /** The number of photos in the list. */
+        private int size;
+
+        /**
+         * Creates a list of stored photos.
+         * @param store the snapshot holding the photos
+         * @param ids the photo ids, in list order
+         */
+        StoredPhotoList(Store store, long[] ids) {
+            this(store, ids, new Photo[ids.length]);
+        }
+
+        /**
+         * Creates a list of stored photos, some of which are already decoded.
+         * @param store the snapshot holding the photos
+         * @param ids the photo ids, in list order
+         * @param photos the decoded photos, with null where a photo has not been decoded
+         */
+        StoredPhotoList(Store store, long[] ids, Photo[] photos) {
+            this.store = store;
+            this.ids = ids;
+            this.photos = photos;
+            this.size = ids.length;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Photo get(int index) {
+            Objects.checkIndex(index, size);
+            Photo photo = photos[index];
+            if (photo == null) {
+                photo = store.photo(ids[index]);
+                photos[index] = photo;
+            }
+            return photo;
+        }
+
+        @Override
+        public Photo set(int index, Photo photo) {
+            Photo old = get(index);
+            ids[index] = photo.getId();
+            photos[index] = photo;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Photo photo) {
+            Objects.checkIndex(index, size + 1);
+            if (size == ids.length) {
+                int capacity = Math.max(16, size + (size >> 1));
+                ids = Arrays.copyOf(ids, capacity);
+                photos = Arrays.copyOf(photos, capacity);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(photos, index, photos, index + 1, size - index);
+            ids[index] = photo.getId();
+            photos[index] = photo;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Photo remove(int index) {
+            Photo old = get(index);
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(photos, index + 1, photos, index, size - index - 1);
+            size--;
+            photos[size] = null;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            int index = indexOf(o);
+            if (index < 0) {
+                return false;
+            }
+            remove(index);
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            for (int i = 0; i < size; i++) {
+                if (matches(i, o)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (matches(i, o)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Checks whether the photo at a position is the given object, decoding it only if the ids match.
+         * @param index the position
+         * @param o the object to compare with
+         * @return true if the photo at the position is o
+         */
+        private boolean matches(int index, Object o) {
+            if (photos[index] != null) {
+                return photos[index] == o;
+            }
+            return o instanceof Photo && ((Photo) o).getId() == ids[index] && get(index) == o;
+        }
+    }
+
+    /**
+     * Growable byte array the file is encoded into.
+     */
+    private static class Writer {
+        /** The encoded bytes; only the first length bytes are used. */
+        private byte[] buffer;
+        /** The number of bytes written. */
+        private int length;
+
+        /**
+         * Creates a writer with an initial capacity.
+         * @param capacity the expected size of the output
+         */
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        /**
+         * Makes room for more bytes.
+         * @param extra the number of bytes about to be written
+         */
+        private void ensure(int extra) {
+            if (length + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+
+        /**
+         * Writes one byte.
+         * @param b the byte, in the low eight bits
+         */
+        void writeByte(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        /**
+         * Writes a big-endian 32-bit integer.
+         * @param value the value
+         */
+        void writeInt(int value) {
+            ensure(4);
+            buffer[length++] = (byte) (value >>> 24);
+            buffer[length++] = (byte) (value >>> 16);
+            buffer[length++] = (byte) (value >>> 8);
+            buffer[length++] = (byte) value;
+        }
+
+        /**
+         * Reserves space to be filled in later with the put methods.
+         * @param count the number of bytes to reserve
+         */
+        void skip(int count) {
+            ensure(count);
+            length += count;
+        }
+
+        /**
+         * Overwrites a big-endian 32-bit integer in reserved space.
+         * @param index the position to write at
+         * @param value the value
+         */
+        void putInt(int index, int value) {
+            buffer[index] = (byte) (value >>> 24);
+            buffer[index + 1] = (byte) (value >>> 16);
+            buffer[index + 2] = (byte) (value >>> 8);
+            buffer[index + 3] = (byte) value;
+        }
+
+        /**
+         * Overwrites a big-endian 64-bit integer in reserved space.
+         * @param index the position to write at
+         * @param value the value
+         */
+        void putLong(int index, long value) {
+            putInt(index, (int) (value >>> 32));
+            putInt(index + 4, (int) value);
+        }
+
+        /**
+         * Writes bytes as they are.
+         * @param bytes the bytes
+         */
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        /**
+         * Writes an unsigned value as a LEB128 varint: seven bits per byte, high bit set on all but the last.
+         * @param value the value, treated as unsigned
+         */
+        void writeVar(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+    }
+
+    /**
+     * Cursor over the bytes of a file being decoded.
+     */
+    private static class Reader {
+        /** The file contents. */
+        private final ByteBuffer buffer;
+        /** The position of the next byte to read. */
+        private int position;
+
+        /**
+         * Creates a reader over a file's contents.
+         * @param buffer the bytes to decode
+         * @param position the position to start reading at
+         */
+        Reader(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        /**
+         * Reads one byte.
+         * @return the byte as an unsigned value
+         * @throws EOFException if the data ends early
+         */
+        int readByte() throws EOFException {
+            if (position >= buffer.limit()) {
+                throw new EOFException("Album list file is truncated");
+            }
+            return buffer.get(position++) & 0xFF;
+        }
+
+        /**
+         * Reads a big-endian 32-bit integer.
+         * @return the value
+         * @throws EOFException if the data ends early
+         */
+        int readInt() throws EOFException {
+            return readByte() << 24 | readByte() << 16 | readByte() << 8 | readByte();
+        }
+
+        /**
+         * Reads a UTF-8 string of a known length.
+         * @param byteLength the length of the string in bytes
+         * @return the string
+         * @throws EOFException if the data ends early
+         */
+        String readString(int byteLength) throws EOFException {
+            if (byteLength > buffer.limit() - position) {
+                throw new EOFException("Album list file is truncated");
+            }
+            String s;
+            if (buffer.hasArray()) {
+                s = new String(buffer.array(), buffer.arrayOffset() + position, byteLength, StandardCharsets.UTF_8);
+            } else {
+                byte[] bytes = new byte[byteLength];
+                buffer.get(position, bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            position += byteLength;
+            return s;
+        }
+
+        /**
+         * Reads a LEB128 varint.
+         * @return the value
+         * @throws IOException if the data ends early or the varint is longer than ten bytes
+         */
+        long readVar() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * Reads a varint used as a count, rejecting values larger than the rest of the file could hold.
+         * @return the value
+         * @throws IOException if the data ends early or the value is out of range
+         */
+        int readCount() throws IOException {
+            long value = readVar();
+            if (value < 0 || value > buffer.limit() - position) {
+                throw new IOException("Malformed count " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads a varint used as an index into a table.
+         * @param size the size of the table
+         * @return the index
+         * @throws IOException if the data ends early or the index is out of range
+         */
+        int readIndex(int size) throws IOException {
+            long value = readVar();
+            if (value < 0 || value >= size) {
+                throw new IOException("Malformed index " + value);
+            }
+            return (int) value;
+        }
+    }
+}
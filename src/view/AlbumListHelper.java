@@ -1,40 +1,136 @@
 package view;
 
+import java.io.BufferedInputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Utility class for saving and loading AlbumList objects to and from disk.
- * Data is stored as serialized object files named <username>_albums.dat.
+ * Data is stored as a snapshot named <username>_albums.dat in the AlbumListCodec binary format, plus
+ * an append-only change log (see AlbumListJournal) holding the edits made since that snapshot was
+ * written. Snapshots are memory-mapped and only their album summaries are decoded on load; each
+ * album's photos are read from the mapping when the album is first used, so logging in does not
+ * depend on the size of the library. Snapshots written with Java serialization by older versions are
+ * still read, and are rewritten in the binary format the first time they are loaded.
+ * Writes are handed to the PersistenceQueue and performed in the background.
+ * Saves and loads are timed as albums.save and albums.load (see Metrics).
  */
 public class AlbumListHelper {
+    /** Times encoding and queuing a snapshot. */
+    private static final Metrics.Timer saveTimer = Metrics.timer("albums.save");
+    /** Times reading an album list, including replaying its change log. */
+    private static final Metrics.Timer loadTimer = Metrics.timer("albums.load");
 
     /**
-     * Saves the given AlbumList for the specified user to disk.
+     * Saves the given AlbumList for the specified user as a new snapshot, and starts an empty
+     * change log for it. Albums not loaded yet are read in first, since a snapshot holds the whole
+     * library. The album list is encoded immediately; the files are written in the background.
      * @param username the username whose album list is to be saved
      * @param albumList the AlbumList object to save
      */
     public static void save(String username, AlbumList albumList) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(username + "_albums.dat"))) {
-            oos.writeObject(albumList);
+        LibraryEvents.Save event = new LibraryEvents.Save();
+        event.username = username;
+        Metrics.Sample sample = saveTimer.start(event);
+        albumList.loadAll();
+        albumList.assignPhotoIds();
+        albumList.setGeneration(albumList.getGeneration() + 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            AlbumListCodec.write(albumList, bytes);
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("albums.save", e);
+            return;
         }
+        // Every photo has been read from the old snapshot now; unmap it so the file can be replaced
+        albumList.releaseSnapshot();
+        PersistenceQueue.replace(dataFileFor(username), bytes.toByteArray());
+        AlbumListJournal.reset(username, albumList.getGeneration());
+        albumList.setJournalLength(0);
+        event.bytes = bytes.size();
+        sample.stop();
     }
 
     /**
-     * Loads the AlbumList for the specified user from disk.
+     * Loads the AlbumList for the specified user from disk, replaying any edits logged since
+     * the last snapshot. A snapshot that exists but cannot be read is left as it is, along with its
+     * change log, so that nothing is overwritten; the caller refuses to open the user instead.
      * @param username the username whose album list to load
-     * @return the AlbumList for the user, or a new AlbumList if none was found
+     * @return the AlbumList for the user, or a new AlbumList if the user has no snapshot
+     * @throws IllegalStateException if the snapshot is damaged or in an unsupported format
      */
     public static AlbumList load(String username) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(username + "_albums.dat"))) {
-            return (AlbumList) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            return new AlbumList();
+        PersistenceQueue.flush();
+        LibraryEvents.Load event = new LibraryEvents.Load();
+        event.username = username;
+        Metrics.Sample sample = loadTimer.start(event);
+        AlbumList albumList;
+        boolean serialized = false;
+        try (FileChannel channel = FileChannel.open(dataFileFor(username).toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() >= 2 && (buffer.getShort(0) & 0xFFFF) == AlbumListCodec.SERIALIZATION_HEADER) {
+                albumList = (AlbumList) new ObjectInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024)).readObject();
+                serialized = true;
+            } else {
+                albumList = AlbumListCodec.read(buffer);
+            }
+        } catch (NoSuchFileException e) {
+            albumList = new AlbumList();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            Metrics.error("albums.load", e);
+            throw new IllegalStateException("The album data of user \"" + username + "\" cannot be read.", e);
         }
+        AlbumListJournal.replay(username, albumList);
+        // Data from before photos had ids gets them now, and old snapshots are converted; write the
+        // result out so the log can refer to the ids
+        if (albumList.assignPhotoIds() || serialized) {
+            save(username, albumList);
+        }
+        event.albums = albumList.getAlbums().size();
+        sample.stop();
+        return albumList;
+    }
+
+    /**
+     * Checks whether writes to a user's album data are still queued, such as after they failed.
+     * @param username the user whose files to check
+     * @return true if the snapshot or the change log has writes that have not been performed
+     */
+    public static boolean isPending(String username) {
+        return PersistenceQueue.isPending(dataFileFor(username)) || PersistenceQueue.isPending(AlbumListJournal.fileFor(username));
+    }
+
+    /**
+     * Deletes all stored album data for the specified user.
+     * @param username the username whose album data to delete
+     */
+    public static void delete(String username) {
+        File dataFile = dataFileFor(username);
+        File logFile = AlbumListJournal.fileFor(username);
+        PersistenceQueue.cancel(dataFile);
+        PersistenceQueue.cancel(logFile);
+        if (dataFile.exists()) {
+            dataFile.delete();
+        }
+        if (logFile.exists()) {
+            logFile.delete();
+        }
+    }
+
+    /**
+     * Returns the snapshot file for the given user.
+     * @param username the user whose snapshot to locate
+     * @return the snapshot file
+     */
+    public static File dataFileFor(String username) {
+        return new File(username + "_albums.dat");
     }
 }
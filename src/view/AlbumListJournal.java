@@ -0,0 +1,436 @@
+package view;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only change log of album edits, stored next to the album snapshot as <username>_albums.log.
+ * Each edit is encoded as one small record and appended instead of rewriting the whole AlbumList,
+ * so the cost of a change does not grow with the size of the library. The log starts with the generation number of
+ * the snapshot it applies to; AlbumListHelper replays it on load and resets it whenever a new
+ * snapshot is written (compaction).
+ * Records refer to existing photos by their id in the AlbumList photo table. Strings are written as
+ * a length and their UTF-8 bytes, and numbers in binary.
+ */
+public class AlbumListJournal {
+    /** Marker written at the start of every log file. */
+    private static final int MAGIC = 0x50484A33;
+    /** Number of records after which the log is folded into a new snapshot. */
+    private static final int COMPACTION_THRESHOLD = 500;
+    /** Upper bound on a single record's size, used to reject garbage lengths in a torn tail. */
+    private static final int MAX_RECORD_LENGTH = 1 << 26;
+
+    private static final byte ADD_ALBUM = 1;
+    private static final byte REMOVE_ALBUM = 2;
+    private static final byte RENAME_ALBUM = 3;
+    private static final byte ADD_PHOTO = 4;
+    private static final byte COPY_PHOTO = 5;
+    private static final byte REMOVE_PHOTO = 6;
+    private static final byte SET_DESCRIPTION = 7;
+    private static final byte ADD_TAG = 8;
+    private static final byte REMOVE_TAG = 9;
+    private static final byte SET_CONTENT_HASH = 10;
+
+    /**
+     * Returns the log file for the given user.
+     * @param username the user whose log to locate
+     * @return the log file
+     */
+    public static File fileFor(String username) {
+        return new File(username + "_albums.log");
+    }
+
+    /**
+     * Encodes the creation of an album.
+     * @param album the album that was added
+     * @return the encoded record
+     */
+    public static byte[] addAlbum(Album album) {
+        return record(ADD_ALBUM, album.getName());
+    }
+
+    /**
+     * Encodes the deletion of an album.
+     * @param album the album that was removed
+     * @return the encoded record
+     */
+    public static byte[] removeAlbum(Album album) {
+        return record(REMOVE_ALBUM, album.getName());
+    }
+
+    /**
+     * Encodes the renaming of an album.
+     * @param oldName the previous album name
+     * @param newName the new album name
+     * @return the encoded record
+     */
+    public static byte[] renameAlbum(String oldName, String newName) {
+        return record(RENAME_ALBUM, oldName, newName);
+    }
+
+    /**
+     * Encodes a newly imported photo being added to an album.
+     * @param album the album the photo was added to
+     * @param photo the new photo
+     * @return the encoded record
+     */
+    public static byte[] addPhoto(Album album, Photo photo) {
+        long millis = photo.getDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return record(ADD_PHOTO, album.getName(), photo.getId(), photo.getFilePath(), millis,
+                photo.getSize(), photo.getWidth(), photo.getHeight(),
+                photo.getOrientation(), photo.getContentHash() == null ? "" : photo.getContentHash());
+    }
+
+    /**
+     * Encodes an existing photo being added to another album, sharing the same Photo instance.
+     * @param albumList the album list that was changed
+     * @param target the album the photo was copied to
+     * @param photo the copied photo
+     * @return the encoded record, or null if the photo is not in the photo table
+     */
+    public static byte[] copyPhoto(AlbumList albumList, Album target, Photo photo) {
+        return albumList.isRegistered(photo) ? record(COPY_PHOTO, photo.getId(), target.getName()) : null;
+    }
+
+    /**
+     * Encodes a photo being removed from an album.
+     * @param album the album the photo was removed from
+     * @param photo the removed photo
+     * @return the encoded record
+     */
+    public static byte[] removePhoto(Album album, Photo photo) {
+        return record(REMOVE_PHOTO, album.getName(), photo.getId());
+    }
+
+    /**
+     * Encodes a change to a photo's description.
+     * @param albumList the album list that was changed
+     * @param photo the photo whose description was set
+     * @return the encoded record, or null if the photo is in no album
+     */
+    public static byte[] setDescription(AlbumList albumList, Photo photo) {
+        return albumList.isRegistered(photo) ? record(SET_DESCRIPTION, photo.getId(), photo.getDescription()) : null;
+    }
+
+    /**
+     * Encodes the content hash of a photo being recorded.
+     * @param albumList the album list that was changed
+     * @param photo the photo whose hash was set
+     * @return the encoded record, or null if the photo is in no album
+     */
+    public static byte[] setContentHash(AlbumList albumList, Photo photo) {
+        return albumList.isRegistered(photo) ? record(SET_CONTENT_HASH, photo.getId(), photo.getContentHash()) : null;
+    }
+
+    /**
+     * Encodes a tag being added to a photo.
+     * @param albumList the album list that was changed
+     * @param photo the tagged photo
+     * @param tagName the tag name
+     * @param tagValue the tag value
+     * @return the encoded record, or null if the photo is in no album
+     */
+    public static byte[] addTag(AlbumList albumList, Photo photo, String tagName, String tagValue) {
+        return albumList.isRegistered(photo) ? record(ADD_TAG, photo.getId(), tagName, tagValue) : null;
+    }
+
+    /**
+     * Encodes a tag being removed from a photo.
+     * @param albumList the album list that was changed
+     * @param photo the photo the tag was removed from
+     * @param tagName the tag name
+     * @param tagValue the tag value
+     * @return the encoded record, or null if the photo is in no album
+     */
+    public static byte[] removeTag(AlbumList albumList, Photo photo, String tagName, String tagValue) {
+        return albumList.isRegistered(photo) ? record(REMOVE_TAG, photo.getId(), tagName, tagValue) : null;
+    }
+
+    /**
+     * Starts a new, empty log for the snapshot with the given generation.
+     * @param username the user whose log to reset
+     * @param generation the generation of the snapshot just written
+     */
+    public static void reset(String username, long generation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+        } catch (IOException e) {
+            Metrics.error("albums.journal", e);
+            return;
+        }
+        PersistenceQueue.replace(fileFor(username), bytes.toByteArray(), AlbumListHelper.dataFileFor(username));
+    }
+
+    /**
+     * Applies the user's logged edits to a freshly loaded snapshot. The log is ignored if it belongs
+     * to a different snapshot generation, and a torn record left by a crash ends the replay and is
+     * cut off so later appends stay readable. Queued writes must have been flushed beforehand; the
+     * log is cut through the PersistenceQueue, so edits appended afterwards are written after it.
+     * @param username the user whose log to replay
+     * @param albumList the snapshot to apply the edits to
+     */
+    public static void replay(String username, AlbumList albumList) {
+        File file = fileFor(username);
+        if (!file.exists()) {
+            return;
+        }
+        long validLength = 12;
+        int applied = 0;
+        boolean current = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readLong() != albumList.getGeneration()) {
+                return;
+            }
+            current = true;
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                long checksum = in.readInt() & 0xFFFFFFFFL;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+                apply(albumList, new DataInputStream(new ByteArrayInputStream(payload)));
+                applied++;
+                validLength += 8 + length;
+            }
+        } catch (IOException | RuntimeException e) {
+            // Torn or corrupt tail; everything before validLength has been applied
+        } finally {
+            if (!current) {
+                // A log left over from an older snapshot is already contained in it
+                reset(username, albumList.getGeneration());
+            }
+        }
+        albumList.setJournalLength(applied);
+        if (file.length() > validLength) {
+            try {
+                byte[] valid = Arrays.copyOf(Files.readAllBytes(file.toPath()), (int) validLength);
+                PersistenceQueue.replace(file, valid, AlbumListHelper.dataFileFor(username));
+            } catch (IOException e) {
+                Metrics.error("albums.journal", e);
+            }
+        }
+    }
+
+    /**
+     * Queues a batch of records to be appended to the user's log in a single write, folding the log into a new
+     * snapshot once it grows past the compaction threshold.
+     * @param username the owner of the album list
+     * @param albumList the album list that was changed
+     * @param records the encoded records, in the order the edits were made
+     */
+    public static void append(String username, AlbumList albumList, List<byte[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        File file = fileFor(username);
+        // Checked in this order: once nothing is queued or being written, the file is as it will stay
+        if (!PersistenceQueue.isPending(file) && !file.exists()) {
+            reset(username, albumList.getGeneration());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (byte[] payload : records) {
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                out.writeInt(payload.length);
+                out.writeInt((int) crc.getValue());
+                out.write(payload);
+            }
+        } catch (IOException e) {
+            Metrics.error("albums.journal", e);
+            return;
+        }
+        PersistenceQueue.append(file, bytes.toByteArray(), AlbumListHelper.dataFileFor(username));
+        albumList.setJournalLength(albumList.getJournalLength() + records.size());
+        if (albumList.getJournalLength() >= COMPACTION_THRESHOLD) {
+            AlbumListHelper.save(username, albumList);
+        }
+    }
+
+    /**
+     * Encodes an operation code followed by its arguments: strings as a length and their UTF-8
+     * bytes, and numbers in binary.
+     * @param op the operation code
+     * @param args the operation arguments, each a String, a Long or an Integer
+     * @return the encoded record payload
+     */
+    private static byte[] record(byte op, Object... args) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(op);
+            for (Object arg : args) {
+                if (arg instanceof Long) {
+                    out.writeLong((Long) arg);
+                } else if (arg instanceof Integer) {
+                    out.writeInt((Integer) arg);
+                } else {
+                    byte[] utf8 = ((String) arg).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Applies one decoded record to the album list.
+     * @param albumList the album list being rebuilt
+     * @param in the record
+     * @throws IOException if the record cannot be decoded
+     */
+    private static void apply(AlbumList albumList, DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case ADD_ALBUM:
+                albumList.addAlbum(new Album(readString(in)));
+                break;
+            case REMOVE_ALBUM: {
+                Album album = findAlbum(albumList, readString(in));
+                if (album != null) {
+                    albumList.removeAlbum(album);
+                }
+                break;
+            }
+            case RENAME_ALBUM: {
+                Album album = findAlbum(albumList, readString(in));
+                String newName = readString(in);
+                if (album != null) {
+                    album.setName(newName);
+                }
+                break;
+            }
+            case ADD_PHOTO: {
+                Album album = findAlbum(albumList, readString(in));
+                long id = in.readLong();
+                String path = readString(in);
+                LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneId.systemDefault());
+                long size = in.readLong();
+                int width = in.readInt();
+                int height = in.readInt();
+                int orientation = in.readInt();
+                String contentHash = readString(in);
+                if (album != null) {
+                    Photo photo = new Photo(path, date, size, width, height, orientation);
+                    if (!contentHash.isEmpty()) {
+                        photo.setContentHash(contentHash);
+                    }
+                    album.addPhoto(photo);
+                    photo.setId(id);
+                    albumList.registerPhoto(photo);
+                }
+                break;
+            }
+            case COPY_PHOTO: {
+                Photo photo = albumList.getPhoto(in.readLong());
+                Album target = findAlbum(albumList, readString(in));
+                if (photo != null && target != null) {
+                    target.addPhoto(photo);
+                }
+                break;
+            }
+            case REMOVE_PHOTO: {
+                Album album = findAlbum(albumList, readString(in));
+                Photo photo = albumList.getPhoto(in.readLong());
+                if (album != null && photo != null) {
+                    album.removePhoto(photo);
+                }
+                break;
+            }
+            case SET_DESCRIPTION: {
+                Photo photo = albumList.getPhoto(in.readLong());
+                String description = readString(in);
+                if (photo != null) {
+                    photo.setDescription(description);
+                }
+                break;
+            }
+            case SET_CONTENT_HASH: {
+                Photo photo = albumList.getPhoto(in.readLong());
+                String contentHash = readString(in);
+                if (photo != null) {
+                    photo.setContentHash(contentHash);
+                }
+                break;
+            }
+            case ADD_TAG:
+            case REMOVE_TAG: {
+                Photo photo = albumList.getPhoto(in.readLong());
+                String tagName = readString(in);
+                String tagValue = readString(in);
+                if (photo != null) {
+                    if (op == ADD_TAG) {
+                        photo.addTag(tagName, tagValue);
+                    } else {
+                        photo.removeTag(tagName, tagValue);
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal operation " + op);
+        }
+    }
+
+    /**
+     * Finds an album by exact name.
+     * @param albumList the album list to search
+     * @param name the album name
+     * @return the album, or null if none has that name
+     */
+    private static Album findAlbum(AlbumList albumList, String name) {
+        for (Album album : albumList.getAlbums()) {
+            if (album.getName().equals(name)) {
+                return album;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a string written as a length and its UTF-8 bytes.
+     * @param in the record being decoded
+     * @return the string
+     * @throws IOException if the record ends early or the length is invalid
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
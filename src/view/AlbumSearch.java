@@ -0,0 +1,143 @@
+package view;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * Background search of one album for photos with a tag name or value containing some text, as
+ * typed into the photo screen's search field.
+ * The names and values containing the text are looked up once in the TagDictionary trigram index;
+ * each photo is then matched by comparing its tag ids against that set, without converting any
+ * text. The search works on a copy of the album's photo list, so creating it on the JavaFX thread
+ * neither walks the tags nor decodes photos still in a snapshot; that happens on the search thread,
+ * which can read tags safely since a photo replaces its tag array rather than changing it. Matches
+ * are handed to the JavaFX thread in batches as the scan proceeds, so the first results appear
+ * before a large album has been searched through. A cancelled search delivers
+ * nothing more, including batches that were already on their way.
+ */
+public class AlbumSearch extends Task<Integer> {
+    /** The number of photos scanned between deliveries of the matches found so far. */
+    private static final int BATCH_SIZE = 4096;
+    /** The single thread searches run on; starting a new search cancels the previous one first. */
+    private static final ExecutorService searcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "photo-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The photos searched, as they were when the search was created. */
+    private final List<Photo> photos;
+    /** The text to look for. */
+    private final String query;
+    /** Receives each batch of matches on the JavaFX thread: the positions and how many are used. */
+    private final BiConsumer<int[], Integer> onMatches;
+    /** Ids of the tag names and values containing the query; set when the search starts. */
+    private volatile BitSet matchingIds;
+
+    /**
+     * Creates a search. Must be called on the JavaFX thread.
+     * @param photos a copy of the album's photos that is not changed while the search runs, as
+     *               returned by Album.copyPhotos
+     * @param query the text to look for
+     * @param onMatches called on the JavaFX thread with each batch of matching positions in photos, in ascending order
+     */
+    public AlbumSearch(List<Photo> photos, String query, BiConsumer<int[], Integer> onMatches) {
+        this.photos = photos;
+        this.query = query;
+        this.onMatches = onMatches;
+    }
+
+    /**
+     * Starts the search on the search thread.
+     */
+    public void start() {
+        searcher.execute(this);
+    }
+
+    /**
+     * Checks whether a photo matches this search, for photos added to the album after it started.
+     * @param photo the photo to check
+     * @return true if one of its tag names or values contains the query
+     */
+    public boolean matches(Photo photo) {
+        BitSet ids = matchingIds;
+        if (ids == null) {
+            ids = TagDictionary.idsContaining(query);
+        }
+        return matches(photo, ids);
+    }
+
+    /**
+     * Scans the photos and delivers the matches in batches.
+     * @return the number of matching photos
+     */
+    @Override
+    protected Integer call() {
+        BitSet ids = TagDictionary.idsContaining(query);
+        matchingIds = ids;
+        int found = 0;
+        if (ids.isEmpty()) {
+            return found;
+        }
+        int[] batch = new int[64];
+        int size = 0;
+        int photoCount = photos.size();
+        for (int i = 0; i < photoCount; i++) {
+            if (matches(photos.get(i), ids)) {
+                if (size == batch.length) {
+                    batch = Arrays.copyOf(batch, size * 2);
+                }
+                batch[size++] = i;
+                found++;
+            }
+            if ((i + 1) % BATCH_SIZE == 0) {
+                if (isCancelled()) {
+                    return found;
+                }
+                if (size > 0) {
+                    deliver(batch, size);
+                    batch = new int[64];
+                    size = 0;
+                }
+            }
+        }
+        if (size > 0) {
+            deliver(batch, size);
+        }
+        return found;
+    }
+
+    /**
+     * Hands a batch of matches to the JavaFX thread, unless the search is cancelled by the time it gets there.
+     * @param batch the matching positions
+     * @param size the number of positions used
+     */
+    private void deliver(int[] batch, int size) {
+        Platform.runLater(() -> {
+            if (!isCancelled()) {
+                onMatches.accept(batch, size);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a photo has a tag whose name or value is in a set of dictionary ids.
+     * @param photo the photo to check
+     * @param ids the dictionary ids to look for
+     * @return true if the photo has such a tag
+     */
+    private static boolean matches(Photo photo, BitSet ids) {
+        for (Tag tag : photo.getTags()) {
+            if (ids.get(tag.getNameId()) || ids.get(tag.getValueId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,599 @@
+package view;
+
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory repository owning the authoritative AlbumList of a logged-in user.
+ * Controllers make all album and photo changes through a session; each change is applied to the
+ * model right away and recorded as a pending change log entry.
+ * Calling flush() writes all pending entries in a single append, so a handler that makes several
+ * changes (such as moving a photo) costs one small write and the library is never reloaded from disk.
+ * The session also maintains the search indexes over the user's photos as changes are made. An album
+ * is only indexed once it is changed or a search needs it, so opening a session does not read in
+ * albums the user never opens; the first search indexes the rest of the library.
+ * Sessions of different users can be used from different threads at the same time. Opening,
+ * closing and deleting a user's session is serialized by the user's UserLocks lock, and an open
+ * session holds the user's lock file, so another process cannot open the same user and overwrite
+ * its changes. The session methods are synchronized on the session; a caller reading albums or
+ * indexes while other threads may change the same session holds the session's monitor. Once a
+ * session is closed it refuses further changes, so a thread still holding it cannot make changes
+ * that would be lost; it opens the user's session again instead.
+ */
+public class AlbumSession {
+    /** Open sessions, keyed by username. */
+    private static final Map<String, AlbumSession> sessions = new ConcurrentHashMap<>();
+
+    /** The username of the session owner. */
+    private final String username;
+    /** The user's album list. */
+    private final AlbumList albumList;
+    /** The channel holding the user's lock file while the session is open. */
+    private final FileChannel fileLock;
+    /** Whether the session has been closed; a closed session refuses changes, since they would not be saved. */
+    private boolean closed;
+    /** Change log records not yet written to disk, in the order the changes were made. */
+    private final List<byte[]> pending = new ArrayList<>();
+    /** Albums whose photos are counted in albumCounts and the indexes. */
+    private final Set<Album> indexedAlbums = Collections.newSetFromMap(new IdentityHashMap<>());
+    /** The number of indexed albums each photo belongs to; a photo is indexed while this is positive. */
+    private final Map<Photo, Integer> albumCounts = new IdentityHashMap<>();
+    /** Index of the user's photos by tag. */
+    private final TagIndex tagIndex = new TagIndex();
+    /** Index of the user's photos by date taken. */
+    private final DateIndex dateIndex = new DateIndex();
+    /** Index of the user's photos by caption words. */
+    private final CaptionIndex captionIndex = new CaptionIndex();
+    /** Index of the user's photos by content hash. */
+    private final ContentIndex contentIndex = new ContentIndex();
+
+    /**
+     * Constructs a session over an already loaded album list.
+     * @param username the username of the session owner
+     * @param albumList the user's album list
+     * @param fileLock the channel holding the user's lock file
+     */
+    private AlbumSession(String username, AlbumList albumList, FileChannel fileLock) {
+        this.username = username;
+        this.albumList = albumList;
+        this.fileLock = fileLock;
+        for (Album album : albumList.getAlbums()) {
+            if (album.isLoaded()) {
+                index(album);
+            }
+        }
+    }
+
+    /**
+     * Returns the open session for a user, loading the user's albums from disk if no session is open.
+     * @param username the username whose session to open
+     * @return the user's session
+     * @throws IllegalStateException if another process has the user's session open
+     */
+    public static AlbumSession open(String username) {
+        AlbumSession session = sessions.get(username);
+        if (session != null) {
+            return session;
+        }
+        ReentrantLock lock = UserLocks.lockFor(username);
+        lock.lock();
+        try {
+            session = sessions.get(username);
+            if (session == null) {
+                FileChannel fileLock = UserLocks.tryLockFile(lockNameFor(username));
+                if (fileLock == null) {
+                    throw new IllegalStateException("User \"" + username + "\" is in use by another instance.");
+                }
+                try {
+                    session = new AlbumSession(username, AlbumListHelper.load(username), fileLock);
+                } catch (RuntimeException | Error e) {
+                    // Leave the user to other processes, which may be able to read the data
+                    UserLocks.release(fileLock);
+                    throw e;
+                }
+                sessions.put(username, session);
+            }
+            return session;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the open session of a user without opening one.
+     * @param username the username whose session to find
+     * @return the user's session, or null if it is not open
+     */
+    public static AlbumSession find(String username) {
+        return sessions.get(username);
+    }
+
+    /**
+     * Flushes and closes the session of a user, if one is open. The user's files are on disk
+     * before the lock file is released to other processes. If they cannot be written, the session
+     * stays open and keeps the lock file, so no other process reads the outdated files; the writes
+     * are retried in the background and closing can be tried again.
+     * @param username the username whose session to close
+     * @throws IllegalStateException if the user's files could not be written
+     */
+    public static void close(String username) {
+        ReentrantLock lock = UserLocks.lockFor(username);
+        lock.lock();
+        try {
+            AlbumSession session = sessions.remove(username);
+            if (session != null) {
+                session.shutDown(true);
+                if (!PersistenceQueue.flush() && AlbumListHelper.isPending(username)) {
+                    session.reopen();
+                    sessions.put(username, session);
+                    throw new IllegalStateException("The albums of user \"" + username + "\" could not be saved.");
+                }
+                UserLocks.release(session.fileLock);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes an empty album list for a new user. The user's lock and lock file are held meanwhile,
+     * as when the user's session is open, so the files are not written while another thread or
+     * process has the user open. The album list is on disk when this returns.
+     * @param username the new user
+     * @return true if the album list was written, false if the user's session is open here or in another process
+     * @throws IllegalStateException if the album list could not be written
+     */
+    public static boolean create(String username) {
+        ReentrantLock lock = UserLocks.lockFor(username);
+        lock.lock();
+        try {
+            if (sessions.containsKey(username)) {
+                return false;
+            }
+            FileChannel fileLock = UserLocks.tryLockFile(lockNameFor(username));
+            if (fileLock == null) {
+                return false;
+            }
+            try {
+                AlbumListHelper.save(username, new AlbumList());
+                if (!PersistenceQueue.flush() && AlbumListHelper.isPending(username)) {
+                    AlbumListHelper.delete(username);
+                    throw new IllegalStateException("The albums of user \"" + username + "\" could not be saved.");
+                }
+            } finally {
+                UserLocks.release(fileLock);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes a user's session without writing its pending changes and deletes the user's album
+     * data, used when the user is deleted.
+     * @param username the username whose session and data to delete
+     * @return true if the data was deleted, false if another process has the user's session open
+     */
+    public static boolean delete(String username) {
+        ReentrantLock lock = UserLocks.lockFor(username);
+        lock.lock();
+        try {
+            AlbumSession session = sessions.remove(username);
+            FileChannel fileLock;
+            if (session != null) {
+                session.shutDown(false);
+                fileLock = session.fileLock;
+            } else {
+                fileLock = UserLocks.tryLockFile(lockNameFor(username));
+                if (fileLock == null) {
+                    return false;
+                }
+            }
+            AlbumListHelper.delete(username);
+            UserLocks.release(fileLock);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes and closes every open session. A session whose files cannot be written stays open
+     * (see close); the others are still closed.
+     * @throws IllegalStateException if some user's files could not be written
+     */
+    public static void closeAll() {
+        IllegalStateException failure = null;
+        for (String username : sessions.keySet()) {
+            try {
+                close(username);
+            } catch (IllegalStateException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Marks the session closed, after writing its pending changes if asked to.
+     * @param write whether to write the pending changes
+     */
+    private synchronized void shutDown(boolean write) {
+        if (write) {
+            flush();
+        }
+        pending.clear();
+        closed = true;
+    }
+
+    /**
+     * Opens a session again after closing it failed, so it can still be changed and closed later.
+     */
+    private synchronized void reopen() {
+        closed = false;
+    }
+
+    /**
+     * Checks that the session can still be changed.
+     * @throws IllegalStateException if the session has been closed
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The session of user \"" + username + "\" is closed.");
+        }
+    }
+
+    /**
+     * Returns the name of the lock file guarding a user's album data.
+     * @param username the user
+     * @return the lock name, as used by UserLocks
+     */
+    private static String lockNameFor(String username) {
+        String dataFile = AlbumListHelper.dataFileFor(username).getName();
+        return dataFile.substring(0, dataFile.lastIndexOf('.'));
+    }
+
+    /**
+     * Returns the username of the session owner.
+     * @return the username
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Checks whether the session has been closed. A closed session refuses changes; the user's
+     * session has to be opened again.
+     * @return true if the session is closed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the user's album list. Changes must be made through the session methods so they are persisted.
+     * @return the album list
+     */
+    public AlbumList getAlbumList() {
+        return albumList;
+    }
+
+    /**
+     * Returns the tag index over all photos in the user's albums.
+     * @return the tag index
+     */
+    public synchronized TagIndex getTagIndex() {
+        indexAll();
+        return tagIndex;
+    }
+
+    /**
+     * Returns the date index over all photos in the user's albums.
+     * @return the date index
+     */
+    public synchronized DateIndex getDateIndex() {
+        indexAll();
+        return dateIndex;
+    }
+
+    /**
+     * Returns the caption index over all photos in the user's albums.
+     * @return the caption index
+     */
+    public synchronized CaptionIndex getCaptionIndex() {
+        indexAll();
+        return captionIndex;
+    }
+
+    /**
+     * Returns the content hash index over all photos in the user's albums.
+     * @return the content index
+     */
+    public synchronized ContentIndex getContentIndex() {
+        indexAll();
+        return contentIndex;
+    }
+
+    /**
+     * Returns every photo in the user's albums, each listed once.
+     * @return an unmodifiable view of the user's photos
+     */
+    public synchronized Set<Photo> getAllPhotos() {
+        indexAll();
+        return Collections.unmodifiableSet(albumCounts.keySet());
+    }
+
+    /**
+     * Checks whether the session has changes that have not been written yet.
+     * @return true if a flush would write anything
+     */
+    public synchronized boolean isDirty() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Creates a new, empty album.
+     * @param name the album name
+     * @return the new album
+     */
+    public synchronized Album createAlbum(String name) {
+        checkOpen();
+        Album album = new Album(name);
+        albumList.addAlbum(album);
+        indexedAlbums.add(album);
+        record(AlbumListJournal.addAlbum(album));
+        return album;
+    }
+
+    /**
+     * Deletes an album.
+     * @param album the album to delete
+     */
+    public synchronized void deleteAlbum(Album album) {
+        checkOpen();
+        albumList.removeAlbum(album);
+        if (indexedAlbums.remove(album)) {
+            for (Photo photo : album.getPhotos()) {
+                release(photo);
+            }
+        }
+        record(AlbumListJournal.removeAlbum(album));
+    }
+
+    /**
+     * Renames an album.
+     * @param album the album to rename
+     * @param newName the new album name
+     */
+    public synchronized void renameAlbum(Album album, String newName) {
+        checkOpen();
+        String oldName = album.getName();
+        album.setName(newName);
+        record(AlbumListJournal.renameAlbum(oldName, newName));
+    }
+
+    /**
+     * Adds a newly imported photo to an album.
+     * @param album the album to add to
+     * @param photo the new photo
+     */
+    public synchronized void addPhoto(Album album, Photo photo) {
+        checkOpen();
+        index(album);
+        album.addPhoto(photo);
+        reference(photo);
+        record(AlbumListJournal.addPhoto(album, photo));
+    }
+
+    /**
+     * Adds a batch of newly imported photos to an album. The changes are recorded like
+     * individual additions but reach disk in a single append on the next flush.
+     * @param album the album to add to
+     * @param photos the new photos, in the order they should appear
+     */
+    public synchronized void addPhotos(Album album, List<Photo> photos) {
+        checkOpen();
+        index(album);
+        album.addPhotos(photos);
+        for (Photo photo : photos) {
+            reference(photo);
+            record(AlbumListJournal.addPhoto(album, photo));
+        }
+    }
+
+    /**
+     * Removes a photo from an album.
+     * @param album the album to remove from
+     * @param photo the photo to remove
+     */
+    public synchronized void removePhoto(Album album, Photo photo) {
+        checkOpen();
+        index(album);
+        album.removePhoto(photo);
+        release(photo);
+        record(AlbumListJournal.removePhoto(album, photo));
+    }
+
+    /**
+     * Adds an existing photo to another album, sharing the same Photo instance.
+     * @param target the album to copy into
+     * @param photo the photo to copy
+     */
+    public synchronized void copyPhoto(Album target, Photo photo) {
+        checkOpen();
+        index(target);
+        target.addPhoto(photo);
+        reference(photo);
+        record(AlbumListJournal.copyPhoto(albumList, target, photo));
+    }
+
+    /**
+     * Moves a photo from one album to another.
+     * @param source the album the photo is currently in
+     * @param target the album to move the photo to
+     * @param photo the photo to move
+     */
+    public synchronized void movePhoto(Album source, Album target, Photo photo) {
+        copyPhoto(target, photo);
+        removePhoto(source, photo);
+    }
+
+    /**
+     * Sets the description (caption) of a photo.
+     * @param photo the photo to update
+     * @param description the new description
+     */
+    public synchronized void setDescription(Photo photo, String description) {
+        checkOpen();
+        boolean indexed = albumCounts.containsKey(photo);
+        if (indexed) {
+            captionIndex.removePhoto(photo);
+        }
+        photo.setDescription(description);
+        if (indexed) {
+            captionIndex.addPhoto(photo);
+        }
+        record(AlbumListJournal.setDescription(albumList, photo));
+    }
+
+    /**
+     * Records the content hash of a photo, for photos imported before hashes were computed.
+     * @param photo the photo to update
+     * @param contentHash the content hash, as computed by ContentHasher
+     */
+    public synchronized void setContentHash(Photo photo, String contentHash) {
+        checkOpen();
+        boolean indexed = albumCounts.containsKey(photo);
+        if (indexed) {
+            contentIndex.removePhoto(photo);
+        }
+        photo.setContentHash(contentHash);
+        if (indexed) {
+            contentIndex.addPhoto(photo);
+        }
+        record(AlbumListJournal.setContentHash(albumList, photo));
+    }
+
+    /**
+     * Adds a tag to a photo, following the rules of Photo.addTag.
+     * @param photo the photo to tag
+     * @param tagName the tag name
+     * @param tagValue the tag value
+     * @return true if the tag was added, false if it was rejected
+     */
+    public synchronized boolean addTag(Photo photo, String tagName, String tagValue) {
+        checkOpen();
+        if (!photo.addTag(tagName, tagValue)) {
+            return false;
+        }
+        if (albumCounts.containsKey(photo)) {
+            tagIndex.addTag(photo, Tag.of(tagName, tagValue));
+        }
+        record(AlbumListJournal.addTag(albumList, photo, tagName, tagValue));
+        return true;
+    }
+
+    /**
+     * Removes a tag from a photo.
+     * @param photo the photo to update
+     * @param tagName the tag name
+     * @param tagValue the tag value
+     */
+    public synchronized void removeTag(Photo photo, String tagName, String tagValue) {
+        checkOpen();
+        if (!photo.hasTag(tagName, tagValue)) {
+            return;
+        }
+        photo.removeTag(tagName, tagValue);
+        tagIndex.removeTag(photo, Tag.of(tagName, tagValue));
+        record(AlbumListJournal.removeTag(albumList, photo, tagName, tagValue));
+    }
+
+    /**
+     * Writes all pending changes to the user's change log in a single append.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        AlbumListJournal.append(username, albumList, pending);
+        pending.clear();
+    }
+
+    /**
+     * Adds the photos of an album to the indexes if the album has not been indexed yet, reading the
+     * album in if needed.
+     * @param album the album to index
+     */
+    private void index(Album album) {
+        if (indexedAlbums.add(album)) {
+            for (Photo photo : album.getPhotos()) {
+                reference(photo);
+            }
+        }
+    }
+
+    /**
+     * Indexes every album, so that the indexes cover the whole library.
+     */
+    private void indexAll() {
+        for (Album album : albumList.getAlbums()) {
+            index(album);
+        }
+    }
+
+    /**
+     * Counts one more album holding a photo, indexing the photo when it first appears.
+     * @param photo the photo that was added to an album
+     */
+    private void reference(Photo photo) {
+        if (albumCounts.merge(photo, 1, Integer::sum) == 1) {
+            albumList.registerPhoto(photo);
+            tagIndex.addPhoto(photo);
+            dateIndex.addPhoto(photo);
+            captionIndex.addPhoto(photo);
+            contentIndex.addPhoto(photo);
+        }
+    }
+
+    /**
+     * Counts one less album holding a photo, dropping it from the indexes when no album holds it.
+     * @param photo the photo that was removed from an album
+     */
+    private void release(Photo photo) {
+        Integer count = albumCounts.get(photo);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            albumCounts.remove(photo);
+            albumList.unregisterPhoto(photo);
+            tagIndex.removePhoto(photo);
+            dateIndex.removePhoto(photo);
+            captionIndex.removePhoto(photo);
+            contentIndex.removePhoto(photo);
+        } else {
+            albumCounts.put(photo, count - 1);
+        }
+    }
+
+    /**
+     * Queues a change log record.
+     * @param record the encoded change, or null if there is nothing to persist
+     */
+    private void record(byte[] record) {
+        if (record != null) {
+            pending.add(record);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package view;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Immutable summary of an album as shown in the album list: its photo count and the range of dates
+ * its photos were taken on. Albums keep their summary up to date as photos are added and removed,
+ * and snapshots store it in their header, so showing an album never needs to look at its photos.
+ */
+public class AlbumSummary {
+    /** The summary of an album without photos. */
+    public static final AlbumSummary EMPTY = new AlbumSummary(0, null, null);
+    /** Format of the dates in the album list. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+    /** The number of photos in the album. */
+    private final int count;
+    /** The earliest date a photo was taken on, or null if the album is empty. */
+    private final LocalDate earliest;
+    /** The latest date a photo was taken on, or null if the album is empty. */
+    private final LocalDate latest;
+
+    /**
+     * Constructs a summary.
+     * @param count the number of photos
+     * @param earliest the earliest photo date, or null if there are no photos
+     * @param latest the latest photo date, or null if there are no photos
+     */
+    public AlbumSummary(int count, LocalDate earliest, LocalDate latest) {
+        this.count = count;
+        this.earliest = earliest;
+        this.latest = latest;
+    }
+
+    /**
+     * Computes the summary of a list of photos.
+     * @param photos the photos
+     * @return the summary
+     */
+    public static AlbumSummary of(List<Photo> photos) {
+        AlbumSummary summary = EMPTY;
+        for (Photo photo : photos) {
+            summary = summary.withPhoto(photo);
+        }
+        return summary;
+    }
+
+    /**
+     * Returns the number of photos.
+     * @return the photo count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the earliest date a photo was taken on.
+     * @return the earliest date, or null if there are no photos
+     */
+    public LocalDate getEarliest() {
+        return earliest;
+    }
+
+    /**
+     * Returns the latest date a photo was taken on.
+     * @return the latest date, or null if there are no photos
+     */
+    public LocalDate getLatest() {
+        return latest;
+    }
+
+    /**
+     * Returns the summary after a photo is added.
+     * @param photo the added photo
+     * @return the new summary
+     */
+    public AlbumSummary withPhoto(Photo photo) {
+        LocalDate date = photo.getDate().toLocalDate();
+        return new AlbumSummary(count + 1,
+                earliest == null || date.isBefore(earliest) ? date : earliest,
+                latest == null || date.isAfter(latest) ? date : latest);
+    }
+
+    /**
+     * Returns the summary after a photo is removed, if it can be worked out without the other photos.
+     * @param photo the removed photo
+     * @return the new summary, or null if the photo was on the earliest or latest date and the
+     *         range has to be recomputed from the remaining photos
+     */
+    public AlbumSummary withoutPhoto(Photo photo) {
+        if (count <= 1) {
+            return EMPTY;
+        }
+        LocalDate date = photo.getDate().toLocalDate();
+        if (date.equals(earliest) || date.equals(latest)) {
+            return null;
+        }
+        return new AlbumSummary(count - 1, earliest, latest);
+    }
+
+    /**
+     * Formats the album list entry of an album with this summary.
+     * @param name the album name
+     * @return the display text: name, number of photos, and date range of photos if any
+     */
+    public String describe(String name) {
+        if (count == 0) {
+            return name + " (0 photos)";
+        }
+        String startDate = earliest.format(DATE_FORMAT);
+        if (earliest.equals(latest)) {
+            // If only one date (all photos taken on the same day)
+            return name + " (" + count + " photos, " + startDate + ")";
+        }
+        return name + " (" + count + " photos, " + startDate + " - " + latest.format(DATE_FORMAT) + ")";
+    }
+}
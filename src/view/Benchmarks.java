@@ -0,0 +1,289 @@
+package view;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Microbenchmarks for the model, search and persistence hot paths, run from the command line so
+ * that performance changes can be measured and regressions caught:
+ * <pre>
+ * java -cp classes view.Benchmarks [-w WARMUP] [-i ITERATIONS] [-t MILLIS] [-s SIZE,SIZE...] [NAME...]
+ * </pre>
+ * Each benchmark runs WARMUP untimed and ITERATIONS timed iterations of MILLIS milliseconds each,
+ * repeating its operation as often as fits, and reports the mean time per operation with the fastest
+ * and slowest iteration. Results are fed to a sink the JIT compiler cannot see through, so the work
+ * is not optimized away. Library benchmarks run once per SIZE (1000, 10000 and 100000 photos by
+ * default) on a library made by a LibraryGenerator with a fixed seed. Names given on the command
+ * line select the benchmarks whose names contain any of them.
+ * <p>
+ * The persistence and search benchmarks write and delete bench-SIZE_albums.dat in the working
+ * directory, so run them from a scratch directory.
+ */
+public class Benchmarks {
+    /** Seed of the generated libraries, fixed so runs can be compared. */
+    private static final long SEED = 42;
+
+    /** Receives every result so the work producing it cannot be removed. */
+    private static volatile int sink;
+
+    /** Untimed iterations before measuring. */
+    private int warmupIterations = 3;
+    /** Timed iterations. */
+    private int iterations = 5;
+    /** Length of each iteration in nanoseconds. */
+    private long iterationNanos = 1_000_000_000L;
+    /** Library sizes to run the library benchmarks at. */
+    private int[] sizes = {1_000, 10_000, 100_000};
+    /** Name parts selecting the benchmarks to run; empty to run all. */
+    private final List<String> filters = new ArrayList<>();
+
+    /**
+     * An operation being measured.
+     */
+    private interface Operation {
+        /**
+         * Runs the operation once.
+         * @return a result depending on the work done
+         * @throws Exception if the operation fails
+         */
+        Object run() throws Exception;
+    }
+
+    /**
+     * Runs the benchmarks selected on the command line.
+     * @param args the options and benchmark names
+     */
+    public static void main(String[] args) {
+        Benchmarks benchmarks = new Benchmarks();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if (arg.equals("-w") && hasValue) {
+                benchmarks.warmupIterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-i") && hasValue) {
+                benchmarks.iterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (arg.equals("-t") && hasValue) {
+                benchmarks.iterationNanos = Long.parseLong(args[++i]) * 1_000_000L;
+            } else if (arg.equals("-s") && hasValue) {
+                benchmarks.sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else {
+                benchmarks.filters.add(arg);
+            }
+        }
+        benchmarks.runAll();
+        PersistenceQueue.flush();
+    }
+
+    /**
+     * Runs every selected benchmark.
+     */
+    private void runAll() {
+        System.out.println(String.format(Locale.ROOT, "%-36s %14s %14s %14s", "benchmark", "ns/op", "min", "max"));
+        runModelBenchmarks();
+        for (int size : sizes) {
+            runLibraryBenchmarks(size);
+        }
+    }
+
+    /**
+     * Runs the benchmarks of single photos and tags.
+     */
+    private void runModelBenchmarks() {
+        LibraryGenerator generator = new LibraryGenerator(SEED);
+        LocalDateTime date = LocalDateTime.of(2020, 6, 1, 12, 0);
+        Tag[] tags = new Tag[1024];
+        Tag[] equalTags = new Tag[tags.length];
+        for (int i = 0; i < tags.length; i++) {
+            String name = i % 3 == 0 ? "location" : "person";
+            String value = name.equals("location") ? LibraryGenerator.placeName(i) : LibraryGenerator.personName(i);
+            tags[i] = Tag.of(name, value);
+            equalTags[i] = Tag.of(name.toUpperCase(Locale.ROOT), value);
+        }
+        Photo tagged = generator.generatePhoto(date, "Paris", "Vacation");
+        for (int i = 0; i < 8; i++) {
+            tagged.addTag("person", LibraryGenerator.personName(i));
+        }
+
+        run("photo.addTag", () -> {
+            Photo photo = new Photo("/photos/IMG_000001.jpg", date);
+            int added = 0;
+            for (int i = 0; i < 8; i++) {
+                added += photo.addTag(tags[i].getName(), tags[i].getValue()) ? 1 : 0;
+            }
+            // Duplicates are checked for and refused
+            added += photo.addTag(tags[0].getName(), tags[0].getValue()) ? 1 : 0;
+            return added;
+        });
+        run("photo.hasTag", () -> {
+            int found = 0;
+            for (int i = 0; i < 16; i++) {
+                found += tagged.hasTag("person", LibraryGenerator.personName(i)) ? 1 : 0;
+            }
+            return found;
+        });
+        run("tag.hashCode", () -> {
+            int hash = 0;
+            for (Tag tag : tags) {
+                hash += tag.hashCode();
+            }
+            return hash;
+        });
+        run("tag.equals", () -> {
+            int equal = 0;
+            for (int i = 0; i < tags.length; i++) {
+                equal += tags[i].equals(equalTags[i]) ? 1 : 0;
+                equal += tags[i].equals(tags[(i + 1) & (tags.length - 1)]) ? 1 : 0;
+            }
+            return equal;
+        });
+    }
+
+    /**
+     * Runs the benchmarks of a whole library: album display, searches, and saving and loading.
+     * @param size the number of photos in the library
+     */
+    private void runLibraryBenchmarks(int size) {
+        String suffix = "." + size;
+        if (!selected("album.toString" + suffix, "album.summary" + suffix, "search.tag.index" + suffix,
+                "search.tag.scan" + suffix, "search.date.index" + suffix, "search.date.scan" + suffix,
+                "persistence.save" + suffix, "persistence.load" + suffix, "persistence.loadAll" + suffix)) {
+            return;
+        }
+        AlbumList library = new LibraryGenerator(SEED).generate(size);
+        Album everything = new Album("Everything");
+        for (Album album : library.getAlbums()) {
+            everything.addPhotos(album.getPhotos());
+        }
+        run("album.toString" + suffix, everything::toString);
+        // What toString cost before albums kept their summary
+        run("album.summary" + suffix, () -> AlbumSummary.of(everything.getPhotos()));
+
+        String username = "bench-" + size;
+        AlbumListHelper.save(username, library);
+        PersistenceQueue.flush();
+        try {
+            runSearchBenchmarks(size, AlbumSession.open(username));
+            AlbumSession.close(username);
+            run("persistence.save" + suffix, () -> {
+                AlbumListHelper.save(username, library);
+                PersistenceQueue.flush();
+                return library.getGeneration();
+            });
+            run("persistence.load" + suffix, () -> AlbumListHelper.load(username).getAlbums().size());
+            run("persistence.loadAll" + suffix, () -> {
+                AlbumList loaded = AlbumListHelper.load(username);
+                loaded.loadAll();
+                return loaded.getNextPhotoId();
+            });
+        } finally {
+            AlbumSession.delete(username);
+            String dataFile = AlbumListHelper.dataFileFor(username).getName();
+            UserLocks.lockFileFor(dataFile.substring(0, dataFile.lastIndexOf('.'))).delete();
+        }
+    }
+
+    /**
+     * Runs the tag and date searches, through the session's indexes and by scanning every photo as
+     * the album screen used to.
+     * @param size the number of photos in the library
+     * @param session the session of the library's user
+     */
+    private void runSearchBenchmarks(int size, AlbumSession session) {
+        String suffix = "." + size;
+        String text = "person=" + LibraryGenerator.personName(3) + " AND location=" + LibraryGenerator.placeName(0);
+        TagQuery query = TagQuery.parse(text);
+        LocalDate from = LocalDate.of(2015, 1, 1);
+        LocalDate to = LocalDate.of(2015, 12, 31);
+        run("search.tag.index" + suffix, () -> query.execute(session).size());
+        run("search.tag.scan" + suffix, () -> {
+            int found = 0;
+            synchronized (session) {
+                for (Photo photo : session.getAllPhotos()) {
+                    found += query.matches(photo) ? 1 : 0;
+                }
+            }
+            return found;
+        });
+        run("search.date.index" + suffix, () -> session.getDateIndex().range(from, to).size());
+        run("search.date.scan" + suffix, () -> {
+            int found = 0;
+            synchronized (session) {
+                for (Photo photo : session.getAllPhotos()) {
+                    LocalDate day = photo.getDate().toLocalDate();
+                    found += !day.isBefore(from) && !day.isAfter(to) ? 1 : 0;
+                }
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Checks whether any of the named benchmarks was selected.
+     * @param names the benchmark names
+     * @return true if at least one of them should run
+     */
+    private boolean selected(String... names) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (String name : names) {
+            for (String filter : filters) {
+                if (name.contains(filter)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Measures an operation and prints the result, if the benchmark was selected.
+     * @param name the benchmark name
+     * @param operation the operation to measure
+     */
+    private void run(String name, Operation operation) {
+        if (!selected(name)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                iterate(operation);
+            }
+            double[] results = new double[iterations];
+            double total = 0;
+            for (int i = 0; i < iterations; i++) {
+                results[i] = iterate(operation);
+                total += results[i];
+            }
+            Arrays.sort(results);
+            System.out.println(String.format(Locale.ROOT, "%-36s %14.1f %14.1f %14.1f",
+                    name, total / iterations, results[0], results[iterations - 1]));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Repeats an operation for one iteration.
+     * @param operation the operation to repeat
+     * @return the mean time per operation in nanoseconds
+     * @throws Exception if the operation fails
+     */
+    private double iterate(Operation operation) throws Exception {
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        int result = 0;
+        do {
+            result += System.identityHashCode(operation.run());
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += result;
+        return (double) elapsed / operations;
+    }
+}
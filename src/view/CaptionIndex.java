@@ -0,0 +1,74 @@
+package view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from the words of photo captions to the photos using them.
+ * Words are lower-cased runs of letters and digits; the index is kept sorted so that
+ * word-prefix queries are a range lookup. Maintained by AlbumSession.
+ */
+public class CaptionIndex {
+    /** Posting sets keyed by lower-case caption word. */
+    private final TreeMap<String, Set<Photo>> postings = new TreeMap<>();
+
+    /**
+     * Splits a caption into its distinct lower-case words.
+     * @param text the caption text
+     * @return the words in the text
+     */
+    public static Set<String> words(String text) {
+        Set<String> words = new HashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Indexes the caption of a photo.
+     * @param photo the photo to index
+     */
+    public void addPhoto(Photo photo) {
+        for (String word : words(photo.getDescription())) {
+            postings.computeIfAbsent(word, k -> new HashSet<>()).add(photo);
+        }
+    }
+
+    /**
+     * Removes the caption of a photo from the index. Must be called before the caption changes.
+     * @param photo the photo to remove
+     */
+    public void removePhoto(Photo photo) {
+        for (String word : words(photo.getDescription())) {
+            Set<Photo> photos = postings.get(word);
+            if (photos != null && photos.remove(photo) && photos.isEmpty()) {
+                postings.remove(word);
+            }
+        }
+    }
+
+    /**
+     * Returns the posting sets of all words matching a lower-case word, which may end in '*' to match
+     * every word with that prefix.
+     * @param word the word or word prefix to look up
+     * @return the matching posting sets
+     */
+    public List<Set<Photo>> postingsFor(String word) {
+        if (word.endsWith("*")) {
+            String prefix = word.substring(0, word.length() - 1);
+            Map<String, Set<Photo>> range = prefix.isEmpty() ? postings : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+            return new ArrayList<>(range.values());
+        }
+        Set<Photo> photos = postings.get(word);
+        return photos == null ? Collections.<Set<Photo>>emptyList() : Collections.singletonList(photos);
+    }
+}
@@ -0,0 +1,87 @@
+package view;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes the content hash that identifies a photo independently of where its file is stored.
+ * The file is streamed through SHA-256 in fixed-size chunks, so memory use does not depend on the
+ * size of the photo. Hashes are cached by path, size and modification time, so hashing an unchanged
+ * file again reads nothing.
+ * Safe to call from several threads at once; the importer hashes files on its worker pool.
+ */
+public class ContentHasher {
+    /** The maximum number of file hashes kept in the cache. */
+    private static final int MAX_ENTRIES = 20000;
+    /** The size of the chunks files are read in. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Digits used to format a hash. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Hashes already computed, in least-recently-used order, keyed by path, size and modification time. */
+    private static final Map<String, String> cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the content hash of a file, from the cache when the file has not changed.
+     * @param file the file to hash
+     * @param attrs the file's attributes, used for the cache key
+     * @return the hash as 64 lower-case hexadecimal digits
+     * @throws IOException if the file could not be read
+     */
+    public static String hash(Path file, BasicFileAttributes attrs) throws IOException {
+        String key = file.toAbsolutePath() + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+        synchronized (cache) {
+            String cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        byte[] bytes = digest.digest();
+        char[] text = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            text[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            text[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        String hash = new String(text);
+        synchronized (cache) {
+            cache.put(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the content hash of a file, reading its attributes first.
+     * @param file the file to hash
+     * @return the hash as 64 lower-case hexadecimal digits
+     * @throws IOException if the file could not be read
+     */
+    public static String hash(Path file) throws IOException {
+        return hash(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+}
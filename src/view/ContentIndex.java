@@ -0,0 +1,70 @@
+package view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index from content hash to the photos with that content.
+ * Kept up to date by AlbumSession alongside the other indexes, so checking whether an image is
+ * already in the library is a single map lookup, and the duplicates report is a pass over the
+ * hashes shared by more than one photo. Photos whose hash has not been computed yet are not indexed.
+ */
+public class ContentIndex {
+    /** Photos keyed by content hash. */
+    private final Map<String, Set<Photo>> photosByHash = new HashMap<>();
+
+    /**
+     * Adds a photo to the index, if its hash is known.
+     * @param photo the photo to add
+     */
+    public void addPhoto(Photo photo) {
+        String hash = photo.getContentHash();
+        if (hash != null) {
+            photosByHash.computeIfAbsent(hash, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(photo);
+        }
+    }
+
+    /**
+     * Removes a photo from the index. Must be called before the photo's hash changes.
+     * @param photo the photo to remove
+     */
+    public void removePhoto(Photo photo) {
+        String hash = photo.getContentHash();
+        if (hash == null) {
+            return;
+        }
+        Set<Photo> photos = photosByHash.get(hash);
+        if (photos != null && photos.remove(photo) && photos.isEmpty()) {
+            photosByHash.remove(hash);
+        }
+    }
+
+    /**
+     * Returns the photos with the given content.
+     * @param hash the content hash
+     * @return an unmodifiable view of the matching photos, empty if there are none
+     */
+    public Set<Photo> lookup(String hash) {
+        Set<Photo> photos = hash == null ? null : photosByHash.get(hash);
+        return photos == null ? Collections.<Photo>emptySet() : Collections.unmodifiableSet(photos);
+    }
+
+    /**
+     * Returns every group of two or more photos sharing the same content.
+     * @return a new list holding one list of photos per duplicated hash
+     */
+    public List<List<Photo>> duplicates() {
+        List<List<Photo>> groups = new ArrayList<>();
+        for (Set<Photo> photos : photosByHash.values()) {
+            if (photos.size() > 1) {
+                groups.add(new ArrayList<>(photos));
+            }
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,69 @@
+package view;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Sorted index of photos by the date and time they were taken.
+ * Kept up to date by AlbumSession alongside the TagIndex, so a date range query is two
+ * navigations of the tree plus a walk over the matching slice, and its results come back
+ * already in chronological order.
+ */
+public class DateIndex {
+    /** Photos keyed by date taken; photos sharing a timestamp are kept in insertion order. */
+    private final TreeMap<LocalDateTime, List<Photo>> photosByDate = new TreeMap<>();
+
+    /**
+     * Adds a photo to the index.
+     * @param photo the photo to add
+     */
+    public void addPhoto(Photo photo) {
+        photosByDate.computeIfAbsent(photo.getDate(), k -> new ArrayList<>(1)).add(photo);
+    }
+
+    /**
+     * Removes a photo from the index.
+     * @param photo the photo to remove
+     */
+    public void removePhoto(Photo photo) {
+        List<Photo> photos = photosByDate.get(photo.getDate());
+        if (photos != null && photos.remove(photo) && photos.isEmpty()) {
+            photosByDate.remove(photo.getDate());
+        }
+    }
+
+    /**
+     * Returns the photos taken between two dates, inclusive, sorted by date taken.
+     * @param start the first day of the range
+     * @param end the last day of the range
+     * @return a new list holding the matching photos
+     */
+    public List<Photo> range(LocalDate start, LocalDate end) {
+        return between(start.atStartOfDay(), end.plusDays(1).atStartOfDay());
+    }
+
+    /**
+     * Returns the photos taken in a half-open interval, sorted by date taken.
+     * @param from the earliest date and time to include, or null for no lower bound
+     * @param to the date and time to stop before, or null for no upper bound
+     * @return a new list holding the matching photos
+     */
+    public List<Photo> between(LocalDateTime from, LocalDateTime to) {
+        NavigableMap<LocalDateTime, List<Photo>> slice = photosByDate;
+        if (from != null) {
+            slice = slice.tailMap(from, true);
+        }
+        if (to != null) {
+            slice = slice.headMap(to, false);
+        }
+        List<Photo> result = new ArrayList<>();
+        for (List<Photo> photos : slice.values()) {
+            result.addAll(photos);
+        }
+        return result;
+    }
+}
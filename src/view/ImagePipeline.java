@@ -0,0 +1,242 @@
+package view;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Loads full-size photos for the photo viewer.
+ * Images are decoded on background threads directly at display resolution, so a large original
+ * never has to be held in memory at full size, and they are kept in an LRU cache bounded by the
+ * number of bytes the decoded pixels take. The viewer asks for the photos around the one it shows
+ * to be prefetched, so stepping to the previous or next photo is normally answered from the cache.
+ * Cache hits and misses, decode times and the memory the cached images take are published through
+ * Metrics under image.*.
+ * All public methods must be called on the JavaFX application thread.
+ */
+public class ImagePipeline {
+    /** The maximum width (in pixels) images are decoded at; matches the viewer's ImageView. */
+    public static final int DISPLAY_WIDTH = 600;
+    /** The maximum height (in pixels) images are decoded at; matches the viewer's ImageView. */
+    public static final int DISPLAY_HEIGHT = 400;
+    /** How many photos on each side of the current one are prefetched. */
+    public static final int PREFETCH_DISTANCE = 3;
+    /** The maximum number of bytes of decoded pixels kept in memory. */
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    /** The number of background threads decoding images. */
+    private static final int DECODER_THREADS = 2;
+
+    /** Decoded images in least-recently-used order, keyed by keyFor. */
+    private static final LinkedHashMap<String, Image> cache = new LinkedHashMap<>(16, 0.75f, true);
+    /** The total size in bytes of the images in the cache; written on the JavaFX thread only. */
+    private static volatile long cachedBytes;
+    /** The number of images in the cache, for reading from other threads. */
+    private static volatile int cachedCount;
+    /** Counts requests answered from the cache. */
+    private static final Metrics.Counter hits = Metrics.counter("image.cache.hits");
+    /** Counts requests that had to wait for a decode. */
+    private static final Metrics.Counter misses = Metrics.counter("image.cache.misses");
+    /** Times decoding an image at display size, published as image.decode. */
+    private static final Metrics.Timer decodeTimer = Metrics.timer("image.decode");
+    /** Callbacks waiting on a decode that is already queued or running, keyed like the cache. */
+    private static final Map<String, List<Consumer<Image>>> pending = new HashMap<>();
+    /** Keys the viewer still wants; queued decodes for anything else are skipped. */
+    private static final Set<String> wanted = ConcurrentHashMap.newKeySet();
+    /** The worker pool that decodes images off the JavaFX thread. */
+    private static final ExecutorService decoder = Executors.newFixedThreadPool(DECODER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "image-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Metrics.gauge("image.cache.bytes", () -> cachedBytes);
+        Metrics.gauge("image.cache.entries", () -> cachedCount);
+    }
+
+    /**
+     * Returns the display-size image for a photo if it is already cached, otherwise schedules
+     * a background decode and returns null. The callback is invoked on the JavaFX thread once the
+     * decode finishes.
+     * @param photo the photo to load
+     * @param callback receives the decoded image, or null if the file could not be decoded
+     * @return the cached image, or null if it is not yet available
+     */
+    public static Image request(Photo photo, Consumer<Image> callback) {
+        String key = keyFor(photo);
+        wanted.add(key);
+        Image image = cache.get(key);
+        if (image != null) {
+            hits.increment();
+            return image;
+        }
+        misses.increment();
+        schedule(new File(photo.getFilePath()), key).add(callback);
+        return null;
+    }
+
+    /**
+     * Focuses the pipeline on a window of photos around the one being viewed: decodes of the
+     * photos in the window that are not cached yet are scheduled, and queued decodes of photos
+     * outside it are dropped.
+     * @param photos the photos being browsed, in viewing order
+     * @param index the index of the photo being shown
+     */
+    public static void prefetch(List<Photo> photos, int index) {
+        List<Photo> window = new ArrayList<>();
+        window.add(photos.get(index));
+        // Nearest photos first, next before previous, so the likely next step is decoded first
+        for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+            if (index + distance < photos.size()) {
+                window.add(photos.get(index + distance));
+            }
+            if (index - distance >= 0) {
+                window.add(photos.get(index - distance));
+            }
+        }
+        Set<String> keys = new HashSet<>();
+        for (Photo photo : window) {
+            keys.add(keyFor(photo));
+        }
+        wanted.retainAll(keys);
+        wanted.addAll(keys);
+        for (Photo photo : window) {
+            String key = keyFor(photo);
+            if (!cache.containsKey(key)) {
+                schedule(new File(photo.getFilePath()), key);
+            }
+        }
+    }
+
+    /**
+     * Drops every queued decode, for when the viewer is closed. Cached images are kept.
+     */
+    public static void cancelAll() {
+        wanted.clear();
+    }
+
+    /**
+     * Returns the cache key for a photo, combining its path with the size and content hash recorded
+     * for it, without reading the file.
+     * @param photo the photo
+     * @return the cache key
+     */
+    private static String keyFor(Photo photo) {
+        return photo.getFilePath() + "|" + photo.getSize() + "|" + photo.getContentHash();
+    }
+
+    /**
+     * Returns the list of callbacks for a key, queuing a decode if none is in progress.
+     * @param file the image file to decode
+     * @param key the cache key of the file
+     * @return the callbacks waiting on the decode
+     */
+    private static List<Consumer<Image>> schedule(File file, String key) {
+        List<Consumer<Image>> waiting = pending.get(key);
+        if (waiting != null) {
+            return waiting;
+        }
+        waiting = new ArrayList<>();
+        pending.put(key, waiting);
+        decoder.execute(() -> {
+            if (!wanted.contains(key)) {
+                Platform.runLater(() -> skipped(file, key));
+                return;
+            }
+            Image result = decode(file);
+            Platform.runLater(() -> complete(key, result));
+        });
+        return waiting;
+    }
+
+    /**
+     * Handles a decode that was skipped because the viewer had moved away from the photo. If the photo
+     * was asked for again in the meantime the decode is queued again, otherwise its callbacks are dropped.
+     * @param file the image file that was not decoded
+     * @param key the cache key of the file
+     */
+    private static void skipped(File file, String key) {
+        List<Consumer<Image>> waiting = pending.remove(key);
+        if (wanted.contains(key)) {
+            schedule(file, key).addAll(waiting);
+        }
+    }
+
+    /**
+     * Decodes an image file scaled down to fit the display size, preserving its aspect ratio.
+     * @param file the image file
+     * @return the decoded image, or null if the file is missing or could not be decoded
+     */
+    private static Image decode(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        LibraryEvents.Decode event = new LibraryEvents.Decode();
+        event.path = file.getPath();
+        event.size = DISPLAY_WIDTH;
+        Metrics.Sample sample = decodeTimer.start(event);
+        try {
+            Image image = new Image(file.toURI().toString(), DISPLAY_WIDTH, DISPLAY_HEIGHT, true, true, false);
+            event.succeeded = !image.isError();
+            return image.isError() ? null : image;
+        } catch (Exception e) {
+            Metrics.error("image.decode", e);
+            return null;
+        } finally {
+            sample.stop();
+        }
+    }
+
+    /**
+     * Stores a finished decode in the cache, evicting the least recently used images until the
+     * cache fits its byte budget, and notifies everyone waiting on it.
+     * @param key the cache key of the decoded file
+     * @param image the decoded image, or null if decoding failed
+     */
+    private static void complete(String key, Image image) {
+        if (image != null) {
+            Image previous = cache.put(key, image);
+            if (previous != null) {
+                cachedBytes -= sizeOf(previous);
+            }
+            cachedBytes += sizeOf(image);
+            Iterator<Map.Entry<String, Image>> eldest = cache.entrySet().iterator();
+            while (cachedBytes > MAX_BYTES && cache.size() > 1 && eldest.hasNext()) {
+                Map.Entry<String, Image> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                cachedBytes -= sizeOf(entry.getValue());
+                eldest.remove();
+            }
+            cachedCount = cache.size();
+        }
+        List<Consumer<Image>> waiting = pending.remove(key);
+        if (waiting != null) {
+            for (Consumer<Image> callback : waiting) {
+                callback.accept(image);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes the pixels of a decoded image take.
+     * @param image the image
+     * @return its size in bytes, at four bytes per pixel
+     */
+    public static long sizeOf(Image image) {
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+}
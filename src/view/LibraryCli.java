@@ -0,0 +1,380 @@
+package view;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Command-line front end to the PhotoLibraryService, for scripted workloads without the GUI.
+ * Each argument is a script file, run by its own thread so that scripts for different users run
+ * in parallel; with no arguments, one script is read from standard input. A script has one command
+ * per line; arguments are separated by spaces and may be quoted with double quotes, and lines
+ * starting with # are ignored. The commands are:
+ * <pre>
+ * users
+ * user add|delete USER
+ * albums USER
+ * album add|delete USER ALBUM
+ * album rename USER ALBUM NEW_NAME
+ * photos USER ALBUM
+ * photo add USER ALBUM FILE
+ * photo remove USER ALBUM PHOTO_ID
+ * photo copy USER PHOTO_ID TARGET_ALBUM
+ * photo move USER ALBUM PHOTO_ID TARGET_ALBUM
+ * caption USER PHOTO_ID TEXT
+ * tag add|remove USER PHOTO_ID NAME VALUE
+ * search USER QUERY...
+ * dates USER MM/DD/YYYY MM/DD/YYYY
+ * close USER
+ * </pre>
+ * Results are printed to standard output and failures to standard error, and each script ends with
+ * a line giving its command count, failures, elapsed time and throughput.
+ */
+public class LibraryCli {
+    /** Format of the dates in the dates command. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+    /** The service the commands run on. */
+    private final PhotoLibraryService service;
+    /** Where results are printed. */
+    private final PrintStream out;
+
+    /**
+     * Creates a command runner.
+     * @param service the service to run commands on
+     * @param out where to print results
+     */
+    public LibraryCli(PhotoLibraryService service, PrintStream out) {
+        this.service = service;
+        this.out = out;
+    }
+
+    /**
+     * Runs the scripts named on the command line, or standard input, then writes out every session.
+     * @param args the script files
+     */
+    public static void main(String[] args) {
+        Metrics.install();
+        LibraryCli cli = new LibraryCli(new PhotoLibraryService(), System.out);
+        if (args.length == 0) {
+            cli.runScript("stdin", new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        } else {
+            List<Thread> threads = new ArrayList<>();
+            for (String script : args) {
+                Thread thread = new Thread(() -> {
+                    try (BufferedReader reader = Files.newBufferedReader(Paths.get(script), StandardCharsets.UTF_8)) {
+                        cli.runScript(script, reader);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }, "script-" + script);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        AlbumSession.closeAll();
+        PersistenceQueue.flush();
+    }
+
+    /**
+     * Runs the commands of a script in order, each after the previous one has finished.
+     * @param name the script name, for the summary line
+     * @param reader the script
+     */
+    public void runScript(String name, BufferedReader reader) {
+        int commands = 0;
+        int failures = 0;
+        long start = System.nanoTime();
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                List<String> words = split(line);
+                if (words.isEmpty() || words.get(0).startsWith("#")) {
+                    continue;
+                }
+                commands++;
+                try {
+                    String result = run(words);
+                    if (result != null && !result.isEmpty()) {
+                        synchronized (out) {
+                            out.println(result);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    failures++;
+                    System.err.println(name + ":" + lineNumber + ": " + PhotoLibraryService.messageOf(e));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format(Locale.ROOT, "%s: %d commands, %d failed, %.1f ms, %.0f commands/s",
+                name, commands, failures, seconds * 1000, seconds > 0 ? commands / seconds : 0));
+    }
+
+    /**
+     * Runs one command and waits for it.
+     * @param words the command and its arguments
+     * @return the text to print, or null
+     * @throws IllegalArgumentException if the command is unknown or its arguments are wrong
+     */
+    public String run(List<String> words) {
+        String command = words.get(0);
+        String action = words.size() > 1 ? words.get(1) : "";
+        switch (command) {
+            case "users":
+                return String.join("\n", join(service.listUsers()));
+            case "user":
+                arguments(words, 3);
+                if (action.equals("add")) {
+                    join(service.createUser(words.get(2)));
+                } else if (action.equals("delete")) {
+                    join(service.deleteUser(words.get(2)));
+                } else {
+                    throw unknown(words);
+                }
+                return null;
+            case "albums": {
+                arguments(words, 2);
+                String username = words.get(1);
+                List<Album> albums = join(service.listAlbums(username));
+                return format(username, () -> {
+                    StringBuilder text = new StringBuilder();
+                    for (Album album : albums) {
+                        appendLine(text, album.getSummary().describe(album.getName()));
+                    }
+                    return text.toString();
+                });
+            }
+            case "album":
+                if (action.equals("add")) {
+                    arguments(words, 4);
+                    join(service.createAlbum(words.get(2), words.get(3)));
+                } else if (action.equals("delete")) {
+                    arguments(words, 4);
+                    join(service.deleteAlbum(words.get(2), words.get(3)));
+                } else if (action.equals("rename")) {
+                    arguments(words, 5);
+                    join(service.renameAlbum(words.get(2), words.get(3), words.get(4)));
+                } else {
+                    throw unknown(words);
+                }
+                return null;
+            case "photos":
+                arguments(words, 3);
+                return formatPhotos(words.get(1), join(service.listPhotos(words.get(1), words.get(2))));
+            case "photo":
+                return runPhoto(words, action);
+            case "caption":
+                arguments(words, 4);
+                join(service.setCaption(words.get(1), photoId(words.get(2)), words.get(3)));
+                return null;
+            case "tag":
+                arguments(words, 6);
+                if (action.equals("add")) {
+                    join(service.addTag(words.get(2), photoId(words.get(3)), words.get(4), words.get(5)));
+                } else if (action.equals("remove")) {
+                    join(service.removeTag(words.get(2), photoId(words.get(3)), words.get(4), words.get(5)));
+                } else {
+                    throw unknown(words);
+                }
+                return null;
+            case "search":
+                if (words.size() < 3) {
+                    throw unknown(words);
+                }
+                return formatPhotos(words.get(1), join(service.search(words.get(1), String.join(" ", words.subList(2, words.size())))));
+            case "dates":
+                arguments(words, 4);
+                try {
+                    LocalDate from = LocalDate.parse(words.get(2), DATE_FORMAT);
+                    LocalDate to = LocalDate.parse(words.get(3), DATE_FORMAT);
+                    return formatPhotos(words.get(1), join(service.searchByDate(words.get(1), from, to)));
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Invalid date format. Please use MM/DD/YYYY.");
+                }
+            case "close":
+                arguments(words, 2);
+                join(service.closeUser(words.get(1)));
+                return null;
+            default:
+                throw unknown(words);
+        }
+    }
+
+    /**
+     * Runs a photo command.
+     * @param words the command and its arguments
+     * @param action the photo action
+     * @return the text to print, or null
+     */
+    private String runPhoto(List<String> words, String action) {
+        switch (action) {
+            case "add": {
+                arguments(words, 5);
+                Photo photo = join(service.addPhoto(words.get(2), words.get(3), Paths.get(words.get(4))));
+                return "added " + photo.getId();
+            }
+            case "remove":
+                arguments(words, 5);
+                join(service.removePhoto(words.get(2), words.get(3), photoId(words.get(4))));
+                return null;
+            case "copy":
+                arguments(words, 5);
+                join(service.copyPhoto(words.get(2), photoId(words.get(3)), words.get(4)));
+                return null;
+            case "move":
+                arguments(words, 6);
+                join(service.movePhoto(words.get(2), words.get(3), photoId(words.get(4)), words.get(5)));
+                return null;
+            default:
+                throw unknown(words);
+        }
+    }
+
+    /**
+     * Formats photos one per line as their id and description.
+     * @param username the photo owner
+     * @param photos the photos
+     * @return the text
+     */
+    private String formatPhotos(String username, List<Photo> photos) {
+        return format(username, () -> {
+            StringBuilder text = new StringBuilder();
+            for (Photo photo : photos) {
+                appendLine(text, photo.getId() + " " + photo);
+            }
+            return text.toString();
+        });
+    }
+
+    /**
+     * Formats model objects of a user while holding the user's session monitor, so that commands
+     * of other scripts do not change them meanwhile.
+     * @param username the owner of the objects
+     * @param formatter produces the text
+     * @return the text
+     */
+    private static String format(String username, Supplier<String> formatter) {
+        synchronized (AlbumSession.open(username)) {
+            return formatter.get();
+        }
+    }
+
+    /**
+     * Appends a line to a result, separating it from the previous one.
+     * @param text the result so far
+     * @param line the line to add
+     */
+    private static void appendLine(StringBuilder text, String line) {
+        if (text.length() > 0) {
+            text.append('\n');
+        }
+        text.append(line);
+    }
+
+    /**
+     * Waits for an operation and returns its result.
+     * @param future the operation
+     * @return its result
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a photo id.
+     * @param text the id as typed
+     * @return the id
+     */
+    private static long photoId(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid photo id \"" + text + "\".");
+        }
+    }
+
+    /**
+     * Checks the number of words of a command.
+     * @param words the command and its arguments
+     * @param count the number of words the command takes
+     */
+    private static void arguments(List<String> words, int count) {
+        if (words.size() != count) {
+            throw unknown(words);
+        }
+    }
+
+    /**
+     * Returns the exception for a command that is not understood.
+     * @param words the command and its arguments
+     * @return the exception to throw
+     */
+    private static IllegalArgumentException unknown(List<String> words) {
+        return new IllegalArgumentException("Unknown command or wrong arguments: " + String.join(" ", words));
+    }
+
+    /**
+     * Splits a script line into words. Double quotes group words containing spaces.
+     * @param line the line
+     * @return the words
+     */
+    private static List<String> split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
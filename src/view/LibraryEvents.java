@@ -0,0 +1,88 @@
+package view;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the slow operations of the application, so a recording shows
+ * them next to garbage collection, I/O and thread activity. The events are only recorded while a
+ * recording that enables them is running, for example one started with
+ * -XX:StartFlightRecording; otherwise committing them costs almost nothing. Each event is begun
+ * and committed by the Metrics timer of the same operation.
+ */
+public class LibraryEvents {
+    /**
+     * A user's album list being encoded and queued for writing by AlbumListHelper.save.
+     */
+    @Name("view.AlbumSave")
+    @Label("Album Save")
+    @Category("Photos")
+    @Description("A user's album list encoded for writing")
+    public static class Save extends Event {
+        /** The owner of the album list. */
+        @Label("User")
+        public String username;
+        /** The size of the encoded album list. */
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * A user's album list being read by AlbumListHelper.load.
+     */
+    @Name("view.AlbumLoad")
+    @Label("Album Load")
+    @Category("Photos")
+    @Description("A user's album list read from disk")
+    public static class Load extends Event {
+        /** The owner of the album list. */
+        @Label("User")
+        public String username;
+        /** The number of albums read. */
+        @Label("Albums")
+        public int albums;
+    }
+
+    /**
+     * A search of a user's photos by tags or by date.
+     */
+    @Name("view.Search")
+    @Label("Search")
+    @Category("Photos")
+    @Description("A search of a user's photos by tags or date")
+    public static class Search extends Event {
+        /** The owner of the photos. */
+        @Label("User")
+        public String username;
+        /** The tag query, or the date range. */
+        @Label("Query")
+        public String query;
+        /** The number of photos found. */
+        @Label("Results")
+        public int results;
+    }
+
+    /**
+     * An image being decoded for a thumbnail or for the photo viewer.
+     */
+    @Name("view.ImageDecode")
+    @Label("Image Decode")
+    @Category("Photos")
+    @Description("An image decoded for a thumbnail or the photo viewer")
+    public static class Decode extends Event {
+        /** The image file. */
+        @Label("File")
+        public String path;
+        /** The size the image was decoded to fit, in pixels. */
+        @Label("Size")
+        public int size;
+        /** Whether the image was decoded. */
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+}
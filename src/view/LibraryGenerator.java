@@ -0,0 +1,315 @@
+package view;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic photo libraries for benchmarks and load tests. The same seed always gives the
+ * same library. Photos come in albums of varying size, each covering a few shooting sessions, so
+ * dates arrive in bursts as they do from a camera. Tag values follow a Zipf distribution: a few
+ * people and places are on many photos and most are on only a few. Some photos are also in a second
+ * album, as copies are.
+ * <p>
+ * Run from the command line, it writes a set of users and their libraries to the working
+ * directory, replacing any data those users had, with an optional placeholder image for each photo:
+ * <pre>
+ * java -cp classes view.LibraryGenerator [-seed N] [-users N] [-photos N] [-images DIR]
+ * </pre>
+ * -photos is the average number of photos per user; library sizes vary around it as they do
+ * between real users. The application should not be running meanwhile.
+ */
+public class LibraryGenerator {
+    /** Places used for location tags, most common first. */
+    private static final String[] PLACES = {
+        "Home", "New York", "Office", "Park", "Beach", "Paris", "Tokyo", "London", "Boston", "Chicago",
+        "Lake", "Mountains", "Rome", "Berlin", "Toronto", "Seattle", "Barcelona", "Sydney", "Lisbon", "Kyoto",
+        "Vienna", "Prague", "Dublin", "Austin", "Denver", "Montreal", "Oslo", "Athens", "Cairo", "Lima"
+    };
+    /** Events used for event tags and album names, most common first. */
+    private static final String[] EVENTS = {
+        "Birthday", "Vacation", "Wedding", "Graduation", "Holiday", "Hike", "Concert", "Game", "Reunion", "Party"
+    };
+    /** Number of distinct people that appear in person tags. */
+    private static final int PEOPLE = 500;
+    /** Average number of photos per album. */
+    private static final int ALBUM_SIZE = 200;
+    /** Earliest year a photo is taken in. */
+    private static final int FIRST_YEAR = 2010;
+    /** Number of years photos are spread over. */
+    private static final int YEARS = 15;
+
+    /** Source of every random choice, seeded so libraries can be reproduced. */
+    private final Random random;
+    /** Distribution of person tag values. */
+    private final double[] people = zipf(PEOPLE, 1.1);
+    /** Distribution of location tag values. */
+    private final double[] places = zipf(PLACES.length, 1.0);
+    /** Distribution of event tag values. */
+    private final double[] events = zipf(EVENTS.length, 0.8);
+    /** Number of photos made so far, used for file names. */
+    private int photoCount;
+    /** Directory placeholder images are written to, or null to make photos without files. */
+    private Path imageDirectory;
+
+    /**
+     * Creates a generator.
+     * @param seed the seed; the same seed gives the same libraries
+     */
+    public LibraryGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Writes users and their libraries to the working directory.
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        long seed = 1;
+        int users = 200;
+        int photos = 500;
+        Path images = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "-users":
+                    users = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-photos":
+                    photos = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-images":
+                    images = Paths.get(args[i + 1]).toAbsolutePath();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        LibraryGenerator generator = new LibraryGenerator(seed);
+        generator.setImageDirectory(images);
+        long start = System.nanoTime();
+        List<String> usernames = generator.writeLibraries(users, photos);
+        System.out.println("Wrote " + usernames.size() + " users and " + generator.photoCount + " photos in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
+
+    /**
+     * Sets where placeholder images for the photos are written. Each photo then gets a small image
+     * file of its own colour, and its path and content hash are those of that file.
+     * @param imageDirectory the directory, or null to make photos without files
+     */
+    public void setImageDirectory(Path imageDirectory) {
+        this.imageDirectory = imageDirectory;
+    }
+
+    /**
+     * Generates users with libraries of varying size, saves each library, and adds the users to the
+     * user list. Users are named user001, user002 and so on.
+     * @param users the number of users
+     * @param averagePhotos the average number of photos per user
+     * @return the usernames
+     */
+    public List<String> writeLibraries(int users, int averagePhotos) {
+        List<String> usernames = new ArrayList<>();
+        String format = "user%0" + Math.max(3, String.valueOf(users).length()) + "d";
+        for (int i = 1; i <= users; i++) {
+            String username = String.format(format, i);
+            int photos = 1 + (int) (-Math.log(1 - random.nextDouble()) * averagePhotos);
+            AlbumListHelper.save(username, generate(photos));
+            usernames.add(username);
+        }
+        UserListHelper.update(userList -> {
+            for (String username : usernames) {
+                if (!userList.userExists(username)) {
+                    userList.addUser(username);
+                }
+            }
+        });
+        return usernames;
+    }
+
+    /**
+     * Returns the value of a person tag.
+     * @param rank the popularity of the person, 0 being the most common
+     * @return the person's name
+     */
+    public static String personName(int rank) {
+        return "person" + rank;
+    }
+
+    /**
+     * Returns the value of a location tag.
+     * @param rank the popularity of the place, 0 being the most common
+     * @return the place name
+     */
+    public static String placeName(int rank) {
+        return PLACES[rank % PLACES.length];
+    }
+
+    /**
+     * Creates a library with about the given number of photos. Every photo has an id.
+     * @param photos the number of distinct photos to create
+     * @return the new library
+     */
+    public AlbumList generate(int photos) {
+        AlbumList albumList = new AlbumList();
+        List<Album> albums = new ArrayList<>();
+        int remaining = photos;
+        while (remaining > 0) {
+            // Album sizes vary from a handful of photos to a few times the average
+            int size = Math.min(remaining, 1 + (int) (-Math.log(1 - random.nextDouble()) * ALBUM_SIZE));
+            Album album = generateAlbum(albums.size(), size);
+            albums.add(album);
+            albumList.addAlbum(album);
+            remaining -= size;
+        }
+        // About one photo in twenty is copied into another album
+        if (albums.size() > 1) {
+            for (int i = 0, n = albums.size(); i < n; i++) {
+                Album album = albums.get(i);
+                List<Photo> copies = new ArrayList<>();
+                for (Photo photo : album.getPhotos()) {
+                    if (random.nextInt(20) == 0) {
+                        copies.add(photo);
+                    }
+                }
+                int target = (i + 1 + random.nextInt(n - 1)) % n;
+                albums.get(target).addPhotos(copies);
+            }
+        }
+        albumList.assignPhotoIds();
+        return albumList;
+    }
+
+    /**
+     * Creates an album of photos from a few shooting sessions.
+     * @param index the position of the album, to keep album names distinct
+     * @param size the number of photos
+     * @return the new album
+     */
+    private Album generateAlbum(int index, int size) {
+        String event = EVENTS[sample(events)];
+        String place = placeName(sample(places));
+        LocalDateTime start = LocalDateTime.of(FIRST_YEAR + random.nextInt(YEARS), 1 + random.nextInt(12),
+                1 + random.nextInt(28), 8 + random.nextInt(10), random.nextInt(60));
+        Album album = new Album(event + " " + place + " " + start.getYear() + " #" + (index + 1));
+        List<Photo> photos = new ArrayList<>(size);
+        LocalDateTime date = start;
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(40) == 0) {
+                // A new session a few days later
+                date = date.plusDays(1 + random.nextInt(5)).withHour(8 + random.nextInt(10));
+            } else {
+                date = date.plusSeconds(5 + random.nextInt(300));
+            }
+            photos.add(generatePhoto(date, place, event));
+        }
+        album.addPhotos(photos);
+        return album;
+    }
+
+    /**
+     * Creates one photo with tags and, sometimes, a caption.
+     * @param date when the photo was taken
+     * @param place where the photo's album was taken
+     * @param event what the photo's album is about
+     * @return the new photo
+     */
+    public Photo generatePhoto(LocalDateTime date, String place, String event) {
+        int number = ++photoCount;
+        String name = String.format("%d/%02d/IMG_%06d", date.getYear(), date.getMonthValue(), number);
+        Photo photo = imageDirectory != null ? placeholderPhoto(imageDirectory.resolve(name + ".gif"), date, number) : null;
+        if (photo == null) {
+            photo = new Photo("/photos/" + name + ".jpg", date, 1_500_000 + random.nextInt(4_000_000), 4032, 3024, 1);
+            StringBuilder hash = new StringBuilder(64);
+            for (int i = 0; i < 64; i++) {
+                hash.append(Character.forDigit(random.nextInt(16), 16));
+            }
+            photo.setContentHash(hash.toString());
+        }
+        // Most photos keep their album's place; a few were tagged somewhere else
+        photo.addTag("location", random.nextInt(10) == 0 ? placeName(sample(places)) : place);
+        int persons = random.nextInt(4);
+        for (int i = 0; i < persons; i++) {
+            photo.addTag("person", personName(sample(people)));
+        }
+        if (random.nextInt(4) == 0) {
+            photo.addTag("event", event);
+        }
+        if (random.nextInt(5) == 0) {
+            photo.setDescription(event + " with " + personName(sample(people)));
+        }
+        return photo;
+    }
+
+    /**
+     * Writes a one-pixel GIF image for a photo and creates the photo for it.
+     * @param file where to write the image
+     * @param date when the photo was taken
+     * @param number the photo number, which picks the pixel colour so every image is different
+     * @return the photo, or null if the image could not be written
+     */
+    private static Photo placeholderPhoto(Path file, LocalDateTime date, int number) {
+        byte[] gif = {
+            'G', 'I', 'F', '8', '9', 'a', 1, 0, 1, 0, (byte) 0x80, 0, 0,
+            (byte) (number >> 16), (byte) (number >> 8), (byte) number, 0, 0, 0,
+            0x2C, 0, 0, 0, 0, 1, 0, 1, 0, 0, 2, 2, 0x44, 1, 0, 0x3B
+        };
+        try {
+            Files.createDirectories(file.getParent());
+            Files.write(file, gif);
+            Photo photo = new Photo(file.toString(), date, gif.length, 1, 1, 1);
+            photo.setContentHash(ContentHasher.hash(file));
+            return photo;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Draws a rank from a distribution.
+     * @param cumulative the cumulative probabilities of each rank
+     * @return the rank drawn
+     */
+    private int sample(double[] cumulative) {
+        double draw = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] < draw) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the cumulative probabilities of a Zipf distribution.
+     * @param ranks the number of ranks
+     * @param exponent how quickly the probability falls with rank
+     * @return the probability of drawing each rank or a lower one
+     */
+    private static double[] zipf(int ranks, double exponent) {
+        double[] cumulative = new double[ranks];
+        double total = 0;
+        for (int i = 0; i < ranks; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < ranks; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,364 @@
+package view;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Replays a mixed workload against the users in the working directory, as written by
+ * LibraryGenerator, through the PhotoLibraryService, and reports throughput and latency
+ * percentiles for each kind of operation:
+ * <pre>
+ * java -cp classes view.LoadDriver [-seed N] [-threads N] [-operations N] [-warmup N]
+ * </pre>
+ * Each of the threads runs its share of the operations one after the other, against users picked at
+ * random, after running warmup operations that are not counted. Operations the service refuses, such
+ * as adding a tag a photo already has, are counted as rejected; their time is still recorded.
+ * The same seed replays the same sequence of operations on each thread.
+ */
+public class LoadDriver {
+    /** The kinds of operation and how often each is picked, out of 100. */
+    private enum Kind {
+        TAG_SEARCH(35), DATE_SEARCH(15), TAG_ADD(15), TAG_REMOVE(10), CAPTION(10), COPY(10), MOVE(5);
+
+        /** How often the operation is picked, out of 100. */
+        private final int weight;
+
+        /**
+         * Creates a kind of operation.
+         * @param weight how often it is picked, out of 100
+         */
+        Kind(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * What the driver knows of a user's library: its album names and photo ids as they were at the
+     * start. Photos are never removed by the workload, so the ids stay valid.
+     */
+    private static class Library {
+        /** The owner. */
+        private final String username;
+        /** The album names. */
+        private final String[] albums;
+        /** The ids of every photo. */
+        private final long[] photoIds;
+
+        /**
+         * Reads what the driver needs of a user's library.
+         * @param username the owner
+         */
+        Library(String username) {
+            this.username = username;
+            AlbumSession session = AlbumSession.open(username);
+            synchronized (session) {
+                List<Album> list = session.getAlbumList().getAlbums();
+                albums = new String[list.size()];
+                for (int i = 0; i < albums.length; i++) {
+                    albums[i] = list.get(i).getName();
+                }
+                photoIds = session.getAllPhotos().stream().mapToLong(Photo::getId).sorted().toArray();
+            }
+        }
+    }
+
+    /**
+     * Latencies recorded by one thread.
+     */
+    private static class Recorder {
+        /** Latencies in nanoseconds, by kind of operation. */
+        private final long[][] latencies = new long[Kind.values().length][16];
+        /** Number of latencies recorded, by kind of operation. */
+        private final int[] counts = new int[Kind.values().length];
+        /** Number of rejected operations, by kind of operation. */
+        private final int[] rejected = new int[Kind.values().length];
+        /** Number of failed operations, by kind of operation. */
+        private final int[] failed = new int[Kind.values().length];
+
+        /**
+         * Records the time an operation took.
+         * @param kind the kind of operation
+         * @param nanos how long it took
+         */
+        void record(Kind kind, long nanos) {
+            int k = kind.ordinal();
+            if (counts[k] == latencies[k].length) {
+                latencies[k] = Arrays.copyOf(latencies[k], counts[k] * 2);
+            }
+            latencies[k][counts[k]++] = nanos;
+        }
+    }
+
+    /** The service the operations are run on. */
+    private final PhotoLibraryService service;
+    /** The libraries operations are run against. */
+    private final List<Library> libraries;
+    /** When every thread had finished its warmup and measuring started, from System.nanoTime. */
+    private volatile long measureStart;
+
+    /**
+     * Creates a driver.
+     * @param service the service to run operations on
+     * @param libraries the libraries to run operations against
+     */
+    private LoadDriver(PhotoLibraryService service, List<Library> libraries) {
+        this.service = service;
+        this.libraries = libraries;
+    }
+
+    /**
+     * Runs the workload and prints the report.
+     * @param args the options
+     */
+    public static void main(String[] args) {
+        long seed = 1;
+        int threads = 8;
+        int operations = 100_000;
+        int warmup = 1_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-operations":
+                    operations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        Metrics.install();
+        List<Library> libraries = new ArrayList<>();
+        for (String username : UserListHelper.load().getUsers()) {
+            try {
+                Library library = new Library(username);
+                if (library.albums.length > 1 && library.photoIds.length > 0) {
+                    libraries.add(library);
+                }
+            } catch (IllegalStateException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        if (libraries.isEmpty()) {
+            System.err.println("No users with photos in two or more albums; run LibraryGenerator first.");
+            return;
+        }
+        LoadDriver driver = new LoadDriver(new PhotoLibraryService(threads), libraries);
+        driver.run(seed, threads, operations, warmup);
+        AlbumSession.closeAll();
+        PersistenceQueue.flush();
+    }
+
+    /**
+     * Runs the workload on several threads and prints the report.
+     * @param seed the seed of the operation sequences
+     * @param threads the number of threads
+     * @param operations the total number of operations to measure
+     * @param warmup the number of unmeasured operations each thread runs first
+     */
+    private void run(long seed, int threads, int operations, int warmup) {
+        Recorder[] recorders = new Recorder[threads];
+        Thread[] workers = new Thread[threads];
+        // Measuring starts once the last thread has warmed up
+        CyclicBarrier warmedUp = new CyclicBarrier(threads, () -> measureStart = System.nanoTime());
+        for (int t = 0; t < threads; t++) {
+            Recorder recorder = new Recorder();
+            Random random = new Random(seed + t);
+            int share = operations / threads + (t < operations % threads ? 1 : 0);
+            recorders[t] = recorder;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < warmup; i++) {
+                    runOne(random, null);
+                }
+                try {
+                    warmedUp.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < share; i++) {
+                    runOne(random, recorder);
+                }
+            }, "load-driver-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        report(recorders, seconds);
+    }
+
+    /**
+     * Picks an operation and runs it.
+     * @param random the source of choices
+     * @param recorder where to record the result, or null for a warmup operation
+     */
+    private void runOne(Random random, Recorder recorder) {
+        Kind kind = pick(random);
+        Library library = libraries.get(random.nextInt(libraries.size()));
+        String username = library.username;
+        long photoId = library.photoIds[random.nextInt(library.photoIds.length)];
+        String album = library.albums[random.nextInt(library.albums.length)];
+        CompletableFuture<?> future;
+        long start = System.nanoTime();
+        switch (kind) {
+            case TAG_SEARCH: {
+                String query = "person=" + LibraryGenerator.personName(random.nextInt(50));
+                if (random.nextBoolean()) {
+                    query += (random.nextBoolean() ? " AND " : " OR ") + "location=" + LibraryGenerator.placeName(random.nextInt(10));
+                }
+                future = service.search(username, query);
+                break;
+            }
+            case DATE_SEARCH: {
+                LocalDate from = LocalDate.of(2010 + random.nextInt(15), 1 + random.nextInt(12), 1);
+                future = service.searchByDate(username, from, from.plusMonths(1).minusDays(1));
+                break;
+            }
+            case TAG_ADD:
+                future = service.addTag(username, photoId, "person", LibraryGenerator.personName(random.nextInt(500)));
+                break;
+            case TAG_REMOVE:
+                future = service.removeTag(username, photoId, "person", LibraryGenerator.personName(random.nextInt(500)));
+                break;
+            case CAPTION:
+                future = service.setCaption(username, photoId, "Edited " + random.nextInt(1000));
+                break;
+            case COPY:
+                future = service.copyPhoto(username, photoId, album);
+                break;
+            default: {
+                // Moving needs a photo that is in the source album, so look one up first, untimed
+                List<Photo> photos = service.listPhotos(username, album).join();
+                String target = library.albums[random.nextInt(library.albums.length)];
+                long moved;
+                synchronized (AlbumSession.open(username)) {
+                    moved = photos.isEmpty() ? photoId : photos.get(random.nextInt(photos.size())).getId();
+                }
+                start = System.nanoTime();
+                future = service.movePhoto(username, album, moved, target);
+                break;
+            }
+        }
+        boolean rejected = false;
+        boolean failed = false;
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            rejected = e.getCause() instanceof IllegalArgumentException;
+            failed = !rejected;
+            if (failed && recorder != null) {
+                e.printStackTrace();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (recorder != null) {
+            recorder.record(kind, nanos);
+            recorder.rejected[kind.ordinal()] += rejected ? 1 : 0;
+            recorder.failed[kind.ordinal()] += failed ? 1 : 0;
+        }
+    }
+
+    /**
+     * Picks a kind of operation according to the weights.
+     * @param random the source of choices
+     * @return the kind of operation
+     */
+    private static Kind pick(Random random) {
+        int draw = random.nextInt(100);
+        for (Kind kind : Kind.values()) {
+            draw -= kind.weight;
+            if (draw < 0) {
+                return kind;
+            }
+        }
+        return Kind.TAG_SEARCH;
+    }
+
+    /**
+     * Prints throughput and latency percentiles for each kind of operation and for all of them.
+     * @param recorders the latencies recorded by each thread
+     * @param seconds how long the workload ran
+     */
+    private void report(Recorder[] recorders, double seconds) {
+        System.out.println(String.format(Locale.ROOT, "%d users, %d photos",
+                libraries.size(), libraries.stream().mapToLong(library -> library.photoIds.length).sum()));
+        System.out.println(String.format(Locale.ROOT, "%-12s %9s %9s %7s %9s %9s %9s %9s %9s %9s",
+                "operation", "count", "rejected", "failed", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        List<long[]> all = new ArrayList<>();
+        int allRejected = 0;
+        int allFailed = 0;
+        for (Kind kind : Kind.values()) {
+            int k = kind.ordinal();
+            long[] merged = new long[0];
+            int rejected = 0;
+            int failed = 0;
+            for (Recorder recorder : recorders) {
+                int from = merged.length;
+                merged = Arrays.copyOf(merged, from + recorder.counts[k]);
+                System.arraycopy(recorder.latencies[k], 0, merged, from, recorder.counts[k]);
+                rejected += recorder.rejected[k];
+                failed += recorder.failed[k];
+            }
+            all.add(merged);
+            allRejected += rejected;
+            allFailed += failed;
+            printLine(kind.name().toLowerCase(Locale.ROOT), merged, rejected, failed, seconds);
+        }
+        long[] total = all.stream().flatMapToLong(Arrays::stream).toArray();
+        printLine("all", total, allRejected, allFailed, seconds);
+        System.out.println(String.format(Locale.ROOT, "%.1f s; %d background writes averaging %.2f ms",
+                seconds, PersistenceQueue.getWriteCount(), PersistenceQueue.getAverageWriteMillis()));
+        System.out.print(Metrics.snapshot());
+    }
+
+    /**
+     * Prints the report line of one kind of operation.
+     * @param name the name of the operation
+     * @param latencies the latencies in nanoseconds, in any order; sorted by this method
+     * @param rejected how many operations were rejected
+     * @param failed how many operations failed
+     * @param seconds how long the workload ran
+     */
+    private static void printLine(String name, long[] latencies, int rejected, int failed, double seconds) {
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.ROOT, "%-12s %9d %9d %7d %9.0f %9.3f %9.3f %9.3f %9.3f %9.3f",
+                name, latencies.length, rejected, failed, latencies.length / seconds,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 99.9), percentile(latencies, 100)));
+    }
+
+    /**
+     * Returns a percentile of sorted latencies, by the nearest-rank method.
+     * @param sorted the latencies in nanoseconds, in ascending order
+     * @param percent the percentile
+     * @return the latency in milliseconds, or 0 if there are none
+     */
+    private static double percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
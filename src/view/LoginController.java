@@ -60,13 +60,23 @@ public class LoginController {
                 FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/album.fxml"));
                 root = loader.load();
                 AlbumController controller = loader.getController();
-                controller.start(username);
+                try {
+                    controller.start(username);
+                } catch (IllegalStateException e) {
+                    // The user is logged in on another instance of the program
+                    Alert alert = new Alert(AlertType.ERROR);
+                    alert.setTitle("Login Error");
+                    alert.setHeaderText(null);
+                    alert.setContentText(e.getMessage());
+                    alert.showAndWait();
+                    return;
+                }
                 Scene scene = new Scene(root, 600, 400);
                 stage.setScene(scene);
                 stage.show();
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("ui", e);
         }
     }
 }
@@ -0,0 +1,474 @@
+package view;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import jdk.jfr.Event;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the application's timers, counters and gauges, for seeing where time goes.
+ * Metrics are created on first use by name and live for the life of the process. Recording is
+ * cheap enough for hot paths: a timer adds to a few striped or atomic counters and a histogram of
+ * logarithmic buckets, from which percentiles are estimated to within about a fifth.
+ * <p>
+ * install() publishes every metric as an attribute of the JMX bean view:type=Metrics, and, when
+ * the system property photos.metrics.file names a file, rewrites that file with a snapshot every
+ * photos.metrics.period seconds (60 by default) and once more when the process exits.
+ * <p>
+ * Timed operations can also be recorded as Java Flight Recorder events; see LibraryEvents.
+ */
+public class Metrics {
+    /** Name of the JMX bean the metrics are published under. */
+    public static final String OBJECT_NAME = "view:type=Metrics";
+
+    /** Timers by name. */
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    /** Counters by name. */
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    /** Gauges by name. */
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+    /** Counts every error reported through error(). */
+    private static final Counter errors = counter("errors");
+    /** Whether install() has run. */
+    private static boolean installed;
+
+    static {
+        Runtime runtime = Runtime.getRuntime();
+        gauge("jvm.heap.used.bytes", () -> runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * A timer: the number, total, maximum and distribution of the durations of an operation.
+     */
+    public static class Timer {
+        /** Buckets per power of two of nanoseconds. */
+        private static final int SUB_BUCKETS = 4;
+        /** Number of buckets, enough for any positive long. */
+        private static final int BUCKETS = 62 * SUB_BUCKETS;
+
+        /** Number of durations recorded. */
+        private final LongAdder count = new LongAdder();
+        /** Sum of the durations recorded, in nanoseconds. */
+        private final LongAdder totalNanos = new LongAdder();
+        /** Longest duration recorded, in nanoseconds. */
+        private final AtomicLong maxNanos = new AtomicLong();
+        /** Number of durations recorded in each bucket. */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        /**
+         * Records one duration.
+         * @param nanos the duration in nanoseconds
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(bucketOf(nanos));
+            if (nanos > maxNanos.get()) {
+                maxNanos.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        /**
+         * Starts timing an operation.
+         * @return the sample to stop when the operation ends
+         */
+        public Sample start() {
+            return new Sample(this, null);
+        }
+
+        /**
+         * Starts timing an operation that is also recorded as a flight recorder event.
+         * @param event the event describing the operation; it is begun now and committed when the
+         *              sample is stopped, if flight recording of it is enabled
+         * @return the sample to stop when the operation ends
+         */
+        public Sample start(Event event) {
+            event.begin();
+            return new Sample(this, event);
+        }
+
+        /**
+         * Returns the number of durations recorded.
+         * @return the count
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the mean duration.
+         * @return the mean in milliseconds, or 0 if nothing was recorded
+         */
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (n * 1e6);
+        }
+
+        /**
+         * Returns the longest duration.
+         * @return the maximum in milliseconds
+         */
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * Estimates a percentile of the durations from the histogram.
+         * @param percent the percentile, from 0 to 100
+         * @return the upper bound of the bucket holding the percentile, in milliseconds, or 0 if
+         *         nothing was recorded
+         */
+        public double getPercentileMillis(double percent) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percent / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(lowerBound(i + 1) - 1, maxNanos.get()) / 1e6;
+                }
+            }
+            return getMaxMillis();
+        }
+
+        /**
+         * Returns the bucket a duration is counted in. Durations under four nanoseconds have a
+         * bucket each; above that each power of two is split into four equal buckets.
+         * @param nanos the duration, not negative
+         * @return the bucket index
+         */
+        private static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+            return (exponent - 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Returns the smallest duration counted in a bucket.
+         * @param bucket the bucket index
+         * @return the duration in nanoseconds
+         */
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            if (bucket >= BUCKETS) {
+                return Long.MAX_VALUE;
+            }
+            int exponent = bucket / SUB_BUCKETS + 1;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 2);
+        }
+    }
+
+    /**
+     * One timing in progress, started by Timer.start.
+     */
+    public static class Sample {
+        /** The timer the duration is recorded in. */
+        private final Timer timer;
+        /** The flight recorder event to commit, or null. */
+        private final Event event;
+        /** When the operation started, from System.nanoTime. */
+        private final long start = System.nanoTime();
+
+        /**
+         * Creates a sample.
+         * @param timer the timer the duration is recorded in
+         * @param event the begun flight recorder event to commit, or null
+         */
+        private Sample(Timer timer, Event event) {
+            this.timer = timer;
+            this.event = event;
+        }
+
+        /**
+         * Ends the timing, recording the duration and committing the event.
+         * @return the duration in nanoseconds
+         */
+        public long stop() {
+            long nanos = System.nanoTime() - start;
+            timer.record(nanos);
+            if (event != null) {
+                event.commit();
+            }
+            return nanos;
+        }
+    }
+
+    /**
+     * A counter of events, such as cache hits.
+     */
+    public static class Counter {
+        /** The count. */
+        private final LongAdder value = new LongAdder();
+
+        /**
+         * Adds one to the count.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Adds to the count.
+         * @param amount the amount to add
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        /**
+         * Returns the count.
+         * @return the count so far
+         */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Returns the timer with a name, creating it if needed.
+     * @param name the timer name
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    /**
+     * Returns the counter with a name, creating it if needed.
+     * @param name the counter name
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name. The gauge is read whenever the
+     * metrics are, possibly on another thread, so it must be safe to call from any thread.
+     * @param name the gauge name
+     * @param value supplies the current value
+     */
+    public static void gauge(String name, DoubleSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Reports an error that was handled: it is counted under errors and errors.NAME, and its stack
+     * trace is printed.
+     * @param name where the error happened, such as persistence.write
+     * @param error the error
+     */
+    public static void error(String name, Throwable error) {
+        errors.increment();
+        counter("errors." + name).increment();
+        error.printStackTrace();
+    }
+
+    /**
+     * Publishes the metrics through JMX and starts the periodic dump if one is configured. Calling
+     * this more than once has no further effect.
+     */
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            error("metrics", e);
+        }
+        String file = System.getProperty("photos.metrics.file");
+        if (file != null && !file.isEmpty()) {
+            long period = Math.max(1, Long.getLong("photos.metrics.period", 60));
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleAtFixedRate(() -> dump(new File(file)), period, period, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(new File(file)), "metrics-final-dump"));
+        }
+    }
+
+    /**
+     * Writes a snapshot of every metric to a file, replacing it atomically.
+     * @param file the file to write
+     */
+    public static void dump(File file) {
+        try {
+            PersistenceQueue.writeAtomically(file, snapshot().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            error("metrics", e);
+        }
+    }
+
+    /**
+     * Returns a snapshot of every metric, one per line: timers with their count, mean, percentiles
+     * and maximum in milliseconds, then counters and gauges with their values.
+     * @return the snapshot text
+     */
+    public static String snapshot() {
+        StringBuilder text = new StringBuilder();
+        text.append("# ").append(LocalDateTime.now()).append('\n');
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            text.append(String.format(Locale.ROOT, "timer %s count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f%n",
+                    entry.getKey(), timer.getCount(), timer.getMeanMillis(), timer.getPercentileMillis(50),
+                    timer.getPercentileMillis(90), timer.getPercentileMillis(99), timer.getMaxMillis()));
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            text.append("counter ").append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, DoubleSupplier> entry : gauges.entrySet()) {
+            text.append(String.format(Locale.ROOT, "gauge %s %.1f%n", entry.getKey(), readGauge(entry.getValue())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads a gauge, treating a failing gauge as zero.
+     * @param gauge the gauge
+     * @return its value
+     */
+    private static double readGauge(DoubleSupplier gauge) {
+        try {
+            return gauge.getAsDouble();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The JMX view of the registry. Each timer appears as the attributes NAME.count, NAME.mean,
+     * NAME.p50, NAME.p90, NAME.p99 and NAME.max (in milliseconds), and each counter and gauge as an
+     * attribute of its own name. The attribute list is worked out on every request, so metrics
+     * created after the bean was registered are included.
+     */
+    public static class MetricsBean implements DynamicMBean {
+        /** The attributes each timer is published as. */
+        private static final String[] TIMER_FIELDS = {"count", "mean", "p50", "p90", "p99", "max"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Counter counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.get();
+            }
+            DoubleSupplier gauge = gauges.get(attribute);
+            if (gauge != null) {
+                return readGauge(gauge);
+            }
+            int dot = attribute.lastIndexOf('.');
+            Timer timer = dot < 0 ? null : timers.get(attribute.substring(0, dot));
+            if (timer != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "count":
+                        return timer.getCount();
+                    case "mean":
+                        return timer.getMeanMillis();
+                    case "p50":
+                        return timer.getPercentileMillis(50);
+                    case "p90":
+                        return timer.getPercentileMillis(90);
+                    case "p99":
+                        return timer.getPercentileMillis(99);
+                    case "max":
+                        return timer.getMaxMillis();
+                    default:
+                        break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the DynamicMBean contract asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only.");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : timers.keySet()) {
+                for (String field : TIMER_FIELDS) {
+                    boolean isCount = field.equals("count");
+                    attributes.add(new MBeanAttributeInfo(name + "." + field, isCount ? "long" : "double",
+                            isCount ? "Number of timings" : "Duration in milliseconds", true, false, false));
+                }
+            }
+            for (String name : counters.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", "Counter", true, false, false));
+            }
+            for (String name : gauges.keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "double", "Gauge", true, false, false));
+            }
+            return new MBeanInfo(getClass().getName(), "Photos timers, counters and gauges",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0],
+                    new MBeanNotificationInfo[0]);
+        }
+    }
+}
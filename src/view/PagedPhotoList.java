@@ -0,0 +1,213 @@
+package view;
+
+import javafx.collections.ObservableListBase;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Read-only observable list of photos for the photo list view, backed directly by an album's photo
+ * list instead of a copy of it. A ListView only asks for the rows it draws, so opening an album only
+ * touches (and, for an album read from a snapshot, decodes) the visible photos.
+ * A filter is kept as an array of positions in the album, and every change the controller reports,
+ * such as a filter or a batch of imported photos, is sent to listeners as a single change event.
+ * The model does not change the album; the controller changes it through the session and then tells
+ * the model what happened.
+ */
+public class PagedPhotoList extends ObservableListBase<Photo> {
+    /** The album's photos. */
+    private final List<Photo> source;
+    /** The positions in the source of the photos that pass the filter, in order, or null if there is no filter. */
+    private int[] positions;
+    /** The number of used entries in positions. */
+    private int count;
+    /** The current filter, or null if every photo is shown. */
+    private Predicate<Photo> filter;
+
+    /**
+     * Creates a model showing every photo of a list.
+     * @param source the photos to show; the list is not copied, so later changes to it must be reported
+     */
+    public PagedPhotoList(List<Photo> source) {
+        this.source = source;
+    }
+
+    @Override
+    public Photo get(int index) {
+        if (positions == null) {
+            return source.get(index);
+        }
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + count);
+        }
+        return source.get(positions[index]);
+    }
+
+    @Override
+    public int size() {
+        return positions == null ? source.size() : count;
+    }
+
+    /**
+     * Checks whether a filter is applied.
+     * @return true if only some photos are shown
+     */
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    /**
+     * Shows only the photos that pass a filter, replacing any previous filter.
+     * @param filter the test a photo must pass to be shown
+     */
+    public void setFilter(Predicate<Photo> filter) {
+        int[] matches = new int[16];
+        int matched = 0;
+        for (int i = 0, n = source.size(); i < n; i++) {
+            if (filter.test(source.get(i))) {
+                if (matched == matches.length) {
+                    matches = Arrays.copyOf(matches, matched * 2);
+                }
+                matches[matched++] = i;
+            }
+        }
+        replace(filter, matches, matched);
+    }
+
+    /**
+     * Starts showing the results of a filter that is worked out in the background: the list is
+     * emptied, and the matches are added with addMatches as they are found.
+     * @param filter the test a photo must pass to be shown, used for photos added to the source later
+     */
+    public void startFilter(Predicate<Photo> filter) {
+        replace(filter, new int[16], 0);
+    }
+
+    /**
+     * Adds a batch of matches of the filter started with startFilter, as one change.
+     * @param sourcePositions the positions of the matching photos in the source, in ascending order
+     *                        and after every position already shown
+     * @param matched the number of positions used
+     */
+    public void addMatches(int[] sourcePositions, int matched) {
+        if (positions == null || matched <= 0) {
+            return;
+        }
+        if (count + matched > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positions.length * 2, count + matched));
+        }
+        System.arraycopy(sourcePositions, 0, positions, count, matched);
+        int from = count;
+        count += matched;
+        beginChange();
+        nextAdd(from, count);
+        endChange();
+    }
+
+    /**
+     * Shows every photo again.
+     */
+    public void clearFilter() {
+        if (filter != null) {
+            replace(null, null, 0);
+        }
+    }
+
+    /**
+     * Reports that photos were appended to the end of the source. With a filter applied, only the
+     * new photos that pass it are shown.
+     * @param added the number of photos appended
+     */
+    public void sourceAdded(int added) {
+        if (added <= 0) {
+            return;
+        }
+        // Without a filter the new photos are already counted in size()
+        int from = positions == null ? source.size() - added : count;
+        if (positions != null) {
+            int n = source.size();
+            for (int i = n - added; i < n; i++) {
+                if (filter.test(source.get(i))) {
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, Math.max(16, count * 2));
+                    }
+                    positions[count++] = i;
+                }
+            }
+        }
+        if (size() > from) {
+            beginChange();
+            nextAdd(from, size());
+            endChange();
+        }
+    }
+
+    /**
+     * Reports that a photo was removed from the source.
+     * @param sourceIndex the position the photo had in the source before it was removed
+     * @param photo the removed photo
+     */
+    public void sourceRemoved(int sourceIndex, Photo photo) {
+        int index = sourceIndex;
+        if (positions != null) {
+            index = Arrays.binarySearch(positions, 0, count, sourceIndex);
+            int next = index >= 0 ? index + 1 : -index - 1;
+            // Photos after the removed one move up a position in the source
+            for (int i = next; i < count; i++) {
+                positions[i]--;
+            }
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(positions, index + 1, positions, index, count - index - 1);
+            count--;
+        }
+        beginChange();
+        nextRemove(index, photo);
+        endChange();
+    }
+
+    /**
+     * Swaps in a new filter and sends the whole change as one replacement.
+     * @param newFilter the new filter, or null for none
+     * @param newPositions the source positions the new filter shows, or null for all
+     * @param newCount the number of used entries in newPositions
+     */
+    private void replace(Predicate<Photo> newFilter, int[] newPositions, int newCount) {
+        List<Photo> removed = contents();
+        filter = newFilter;
+        positions = newPositions;
+        count = newCount;
+        if (removed.isEmpty() && isEmpty()) {
+            return;
+        }
+        beginChange();
+        nextReplace(0, size(), removed);
+        endChange();
+    }
+
+    /**
+     * Returns a view of what the model currently shows that stays the same when the filter changes,
+     * for reporting removed items without copying them.
+     * @return the current contents
+     */
+    private List<Photo> contents() {
+        int[] shown = positions;
+        int shownCount = positions == null ? source.size() : count;
+        return new AbstractList<Photo>() {
+            @Override
+            public Photo get(int index) {
+                if (index < 0 || index >= shownCount) {
+                    throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + shownCount);
+                }
+                return source.get(shown == null ? index : shown[index]);
+            }
+
+            @Override
+            public int size() {
+                return shownCount;
+            }
+        };
+    }
+}
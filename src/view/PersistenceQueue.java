@@ -0,0 +1,398 @@
+package view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer for all data files.
+ * Callers hand over the bytes to write and return immediately; a single daemon thread writes them
+ * shortly afterwards. Writes to the same file that arrive before the writer runs are coalesced:
+ * a replacement supersedes everything queued before it and appends are concatenated. Replacements
+ * are written to a temporary file, forced to disk and atomically renamed over the original, so a
+ * crash never leaves a truncated file behind. Files are written in the order they were last replaced.
+ * A write can name a file it must follow, as a change log follows its snapshot: it waits while a
+ * write to that file queued ahead of it has not succeeded. A write that fails stays queued and is
+ * retried after a delay, with anything queued for the same file since merged into it; only the
+ * writes that must follow it wait for it, so one file that cannot be written does not hold up the
+ * others, and a change log is never reset for a snapshot that is not on disk.
+ */
+public class PersistenceQueue {
+    /** How long the writer waits after the first queued write so that a burst can be coalesced. */
+    private static final long COALESCE_DELAY_MS = 200;
+    /** How long the writer waits before retrying a write that failed. */
+    private static final long RETRY_DELAY_MS = 2000;
+
+    /** Writes waiting for the writer thread, in the order they must be performed. */
+    private static final Map<File, PendingWrite> pending = new LinkedHashMap<>();
+    /** The single thread performing all writes. */
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "persistence-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Whether a drain of the pending writes is already scheduled. */
+    private static boolean scheduled;
+    /** Whether a drain retrying failed writes is already scheduled. */
+    private static boolean retryScheduled;
+    /** The file the writer thread is writing, or null. */
+    private static File writing;
+
+    /** Times every file write, published as persistence.write. */
+    private static final Metrics.Timer writeTimer = Metrics.timer("persistence.write");
+    /** The duration of the most recent file write, in nanoseconds. */
+    private static final AtomicLong lastWriteNanos = new AtomicLong();
+
+    static {
+        Metrics.gauge("persistence.queue.depth", PersistenceQueue::getQueueDepth);
+    }
+
+    /**
+     * The bytes queued for one file: an optional full replacement followed by appended data.
+     */
+    private static class PendingWrite {
+        /** The new content of the file, or null if the file is only appended to. */
+        byte[] replacement;
+        /** Data to append after the replacement (or to the existing file). */
+        final ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        /** A file whose writes queued ahead of this one must succeed first, or null. */
+        File after;
+        /** When a write that failed may be tried again, in System.nanoTime units; 0 if it has not failed. */
+        long retryAt;
+    }
+
+    /**
+     * Queues a full replacement of a file's content, discarding anything queued for it before.
+     * @param file the file to replace
+     * @param data the new file content
+     */
+    public static void replace(File file, byte[] data) {
+        replace(file, data, null);
+    }
+
+    /**
+     * Queues a full replacement of a file's content, discarding anything queued for it before, to be
+     * written only once the writes queued ahead of it for another file have succeeded.
+     * @param file the file to replace
+     * @param data the new file content
+     * @param after the file that must be written first, or null
+     */
+    public static synchronized void replace(File file, byte[] data, File after) {
+        pending.remove(file);
+        PendingWrite write = new PendingWrite();
+        write.replacement = data;
+        write.after = after;
+        pending.put(file, write);
+        schedule();
+    }
+
+    /**
+     * Queues data to be appended to a file.
+     * @param file the file to append to
+     * @param data the bytes to append
+     */
+    public static void append(File file, byte[] data) {
+        append(file, data, null);
+    }
+
+    /**
+     * Queues data to be appended to a file, to be written only once the writes queued ahead of it
+     * for another file have succeeded.
+     * @param file the file to append to
+     * @param data the bytes to append
+     * @param after the file that must be written first, or null
+     */
+    public static synchronized void append(File file, byte[] data, File after) {
+        PendingWrite write = pending.get(file);
+        if (write == null) {
+            write = new PendingWrite();
+            pending.put(file, write);
+        }
+        if (after != null) {
+            write.after = after;
+        }
+        write.appended.write(data, 0, data.length);
+        schedule();
+    }
+
+    /**
+     * Checks whether writes to a file are still queued or being performed.
+     * @param file the file to check
+     * @return true if the file has writes that have not finished yet
+     */
+    public static synchronized boolean isPending(File file) {
+        return pending.containsKey(file) || file.equals(writing);
+    }
+
+    /**
+     * Drops any queued writes to a file and waits for a write already in progress to finish,
+     * so the caller can safely delete the file.
+     * @param file the file whose writes to cancel
+     */
+    public static void cancel(File file) {
+        synchronized (PersistenceQueue.class) {
+            pending.remove(file);
+        }
+        flush();
+    }
+
+    /**
+     * Writes everything queued so far and waits until it is on disk. Writes that failed before are
+     * tried again straight away. A write that fails stays queued and is retried in the background;
+     * isPending tells which files it concerns.
+     * @return true if everything queued is on disk, false if a write failed or was interrupted
+     */
+    public static boolean flush() {
+        try {
+            return writer.submit(() -> drain(true)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Metrics.error("persistence.flush", e);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of files with writes waiting for the writer thread.
+     * @return the queue depth
+     */
+    public static synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of file writes completed since startup.
+     * @return the write count
+     */
+    public static long getWriteCount() {
+        return writeTimer.getCount();
+    }
+
+    /**
+     * Returns the average time taken by a file write.
+     * @return the average write latency in milliseconds, or 0 if nothing has been written
+     */
+    public static double getAverageWriteMillis() {
+        return writeTimer.getMeanMillis();
+    }
+
+    /**
+     * Returns the time taken by the most recent file write.
+     * @return the last write latency in milliseconds
+     */
+    public static double getLastWriteMillis() {
+        return lastWriteNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Returns the time taken by the slowest file write so far.
+     * @return the maximum write latency in milliseconds
+     */
+    public static double getMaxWriteMillis() {
+        return writeTimer.getMaxMillis();
+    }
+
+    /**
+     * Writes a file crash-safely: the data goes to a temporary file in the same directory, is forced
+     * to disk, and is then atomically renamed over the target, and the rename is forced to disk too.
+     * Where the file system cannot rename atomically over the target, it is replaced by a plain move.
+     * @param file the file to write
+     * @param data the new file content
+     * @throws IOException if the file could not be written
+     */
+    public static void writeAtomically(File file, byte[] data) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(target.getParent());
+    }
+
+    /**
+     * Forces a directory's entries to disk, so a file just created or renamed in it survives a crash.
+     * Some platforms cannot open a directory for this; there the file system is trusted to keep the entry.
+     * @param directory the directory to force
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+
+    /**
+     * Appends data to a file and forces it to disk. If the append fails, whatever part of it was
+     * written is cut off again, so retrying it does not leave a partial copy in the file.
+     * @param file the file to append to
+     * @param data the bytes to append
+     * @throws IOException if the file could not be written
+     */
+    private static void appendDurably(File file, byte[] data) throws IOException {
+        Path path = file.getAbsoluteFile().toPath();
+        boolean created = !Files.exists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, length + buffer.position());
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                channel.truncate(length);
+                throw e;
+            }
+        }
+        if (created) {
+            forceDirectory(path.getParent());
+        }
+    }
+
+    /**
+     * Schedules a drain of the pending writes unless one is already scheduled. Called with the lock held.
+     */
+    private static void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            writer.schedule(() -> drain(false), COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Performs the pending writes that can be performed, in order. Runs only on the writer thread.
+     * @param retryNow whether to try failed writes again before their retry delay has passed
+     * @return true if no write failed and nothing is left queued
+     */
+    private static boolean drain(boolean retryNow) {
+        Set<File> failed = new HashSet<>();
+        while (true) {
+            File file;
+            PendingWrite write;
+            synchronized (PersistenceQueue.class) {
+                Map.Entry<File, PendingWrite> next = nextReady(retryNow, failed);
+                if (next == null) {
+                    scheduled = false;
+                    if (!pending.isEmpty() && !retryScheduled) {
+                        retryScheduled = true;
+                        writer.schedule(PersistenceQueue::retryFailed, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+                    }
+                    return failed.isEmpty() && pending.isEmpty();
+                }
+                file = next.getKey();
+                write = next.getValue();
+                pending.remove(file);
+                writing = file;
+            }
+            long start = System.nanoTime();
+            try {
+                if (write.replacement != null) {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream(write.replacement.length + write.appended.size());
+                    content.write(write.replacement, 0, write.replacement.length);
+                    byte[] appended = write.appended.toByteArray();
+                    content.write(appended, 0, appended.length);
+                    writeAtomically(file, content.toByteArray());
+                } else {
+                    appendDurably(file, write.appended.toByteArray());
+                }
+            } catch (IOException e) {
+                Metrics.error("persistence.write", e);
+                failed.add(file);
+                retry(file, write);
+                continue;
+            } finally {
+                synchronized (PersistenceQueue.class) {
+                    writing = null;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            writeTimer.record(elapsed);
+            lastWriteNanos.set(elapsed);
+        }
+    }
+
+    /**
+     * Runs a drain for writes whose retry delay has passed. Runs only on the writer thread.
+     */
+    private static void retryFailed() {
+        synchronized (PersistenceQueue.class) {
+            retryScheduled = false;
+        }
+        drain(false);
+    }
+
+    /**
+     * Finds the first queued write that can be performed now: one that has not failed during this
+     * drain, whose retry delay has passed, and that does not have to follow a write still waiting.
+     * Called with the lock held.
+     * @param retryNow whether to ignore retry delays
+     * @param failed the files whose writes failed during this drain
+     * @return the write, or null if every queued write has to wait
+     */
+    private static Map.Entry<File, PendingWrite> nextReady(boolean retryNow, Set<File> failed) {
+        long now = System.nanoTime();
+        Set<File> waiting = new HashSet<>();
+        for (Map.Entry<File, PendingWrite> entry : pending.entrySet()) {
+            PendingWrite write = entry.getValue();
+            if (failed.contains(entry.getKey()) || (write.after != null && waiting.contains(write.after))
+                    || (!retryNow && write.retryAt != 0 && write.retryAt - now > 0)) {
+                waiting.add(entry.getKey());
+            } else {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts a write that failed back at the head of the queue, to be retried once the retry delay has
+     * passed. Appends queued for the file since are added after the failed write's data; a
+     * replacement queued since supersedes the failed write, which is then dropped.
+     * @param file the file that could not be written
+     * @param write the write that failed
+     */
+    private static synchronized void retry(File file, PendingWrite write) {
+        PendingWrite later = pending.remove(file);
+        if (later != null && later.replacement != null) {
+            pending.put(file, later);
+        } else {
+            if (later != null) {
+                byte[] appended = later.appended.toByteArray();
+                write.appended.write(appended, 0, appended.length);
+            }
+            write.retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MS);
+            Map<File, PendingWrite> rest = new LinkedHashMap<>(pending);
+            pending.clear();
+            pending.put(file, write);
+            pending.putAll(rest);
+        }
+    }
+}
@@ -1,29 +1,79 @@
 package view;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
  * Model class representing a Photo in an album.
- * Stores the file path, caption (description), date taken (as last modified date), and tags associated with the photo.
+ * Stores the file path, caption (description), date taken (from the EXIF data when the importer finds
+ * it, otherwise the file's last modified date), file details, and tags associated with the photo.
  */
 public class Photo implements Serializable {
     private static final long serialVersionUID = 2L;
 
+    /** The id of the photo within its owner's library, or 0 if it has not been assigned yet. */
+    private long id;
     /** The file path of the photo. */
     private String filePath;
     /** The caption/description of the photo. */
     private String description;
-    /** The date and time the photo was taken (using last modified timestamp). */
+    /** The date and time the photo was taken, from the EXIF data or else the file's last modified time. */
     private LocalDateTime date;
-    /** The list of tags associated with the photo (tag name-value pairs). */
-    private List<Tag> tags;
+    /** The size of the photo file in bytes, or 0 if it was not recorded. */
+    private long size;
+    /** The width of the image in pixels, or 0 if it was not recorded. */
+    private int width;
+    /** The height of the image in pixels, or 0 if it was not recorded. */
+    private int height;
+    /** The EXIF orientation of the image (1 to 8), or 0 if it was not recorded. */
+    private int orientation;
+    /** The SHA-256 hash of the file's content in hexadecimal, or null if it has not been computed. */
+    private String contentHash;
+    /** Tag names that may have at most one value on a photo. */
+    private static final Set<String> SINGLE_VALUE_NAMES = Collections.singleton("location");
+
+    /** The shared empty tag array. */
+    private static final Tag[] NO_TAGS = new Tag[0];
+    /** The shared empty tag key array. */
+    private static final long[] NO_KEYS = new long[0];
+    /** Fields of the serialized form, which keeps the tag list of earlier versions. */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("id", long.class),
+        new ObjectStreamField("filePath", String.class),
+        new ObjectStreamField("description", String.class),
+        new ObjectStreamField("date", LocalDateTime.class),
+        new ObjectStreamField("size", long.class),
+        new ObjectStreamField("width", int.class),
+        new ObjectStreamField("height", int.class),
+        new ObjectStreamField("orientation", int.class),
+        new ObjectStreamField("contentHash", String.class),
+        new ObjectStreamField("tags", List.class)
+    };
+
+    /**
+     * The interned tags of the photo (tag name-value pairs), in the order they were added, which is
+     * the order they are shown in. The array is replaced rather than changed, so lists handed out by
+     * getTags stay as they were, and a search reading it on another thread sees a complete array.
+     */
+    private volatile Tag[] tags = NO_TAGS;
+    /**
+     * The name and value ids of the tags, packed by keyOf and sorted, so a tag is found by binary
+     * search and the tags of one name are next to each other. Replaced along with tags.
+     */
+    private transient volatile long[] tagKeys = NO_KEYS;
 
     /**
      * Constructs a Photo with the given file path.
@@ -33,12 +83,56 @@ public class Photo implements Serializable {
     public Photo(String filePath) {
         this.filePath = filePath;
         this.description = "";
-        this.tags = new ArrayList<>();
         File file = new File(filePath);
         // Set date taken as last modified time (in system default timezone)
         this.date = LocalDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault());
     }
 
+    /**
+     * Constructs a Photo with the given file path and an already known date taken,
+     * without reading anything from the file system.
+     * @param filePath the file path of the photo
+     * @param date the date and time the photo was taken
+     */
+    public Photo(String filePath, LocalDateTime date) {
+        this(filePath, date, 0, 0, 0, 0);
+    }
+
+    /**
+     * Constructs a Photo whose file details were already read, as done by the bulk importer.
+     * @param filePath the file path of the photo
+     * @param date the date and time the photo was taken
+     * @param size the size of the file in bytes
+     * @param width the width of the image in pixels, or 0 if unknown
+     * @param height the height of the image in pixels, or 0 if unknown
+     * @param orientation the EXIF orientation of the image, or 0 if unknown
+     */
+    public Photo(String filePath, LocalDateTime date, long size, int width, int height, int orientation) {
+        this.filePath = filePath;
+        this.description = "";
+        this.date = date;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Returns the id of the photo, which identifies it within its owner's library for as long as it exists.
+     * @return the photo id, or 0 if it has not been assigned yet
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Sets the id of the photo. Ids are assigned by the AlbumList holding the photo.
+     * @param id the photo id
+     */
+    public void setId(long id) {
+        this.id = id;
+    }
+
     /**
      * Returns the file path of the photo.
      * @return the photo's file path
@@ -64,11 +158,60 @@ public class Photo implements Serializable {
     }
 
     /**
-     * Returns the list of tags associated with the photo.
-     * @return a list of Tag objects for this photo
+     * Returns the size of the photo file.
+     * @return the size in bytes, or 0 if it was not recorded
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the width of the image.
+     * @return the width in pixels, or 0 if it was not recorded
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     * @return the height in pixels, or 0 if it was not recorded
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the EXIF orientation of the image, telling how it must be rotated or flipped for display.
+     * @return the orientation (1 to 8), or 0 if it was not recorded
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Returns the hash identifying the photo's content regardless of the file's location.
+     * @return the content hash in hexadecimal, or null if it has not been computed
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Sets the hash identifying the photo's content.
+     * @param contentHash the content hash in hexadecimal, as computed by ContentHasher
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Returns the tags associated with the photo, in the order they were added. The list is a
+     * snapshot: it does not change when tags are added to or removed from the photo later.
+     * @return an unmodifiable list of Tag objects for this photo
      */
     public List<Tag> getTags() {
-        return tags;
+        return Collections.unmodifiableList(Arrays.asList(tags));
     }
 
     /**
@@ -89,43 +232,86 @@ public class Photo implements Serializable {
      * @return true if the tag was added successfully, false if it was not added (due to duplication or rule conflict)
      */
     public boolean addTag(String tagName, String tagValue) {
-        String nameLower = tagName.toLowerCase();
-        String valueLower = tagValue.toLowerCase();
+        Tag newTag = Tag.of(tagName, tagValue);
+        long key = keyOf(newTag.getNameId(), newTag.getValueId());
+        long[] keys = tagKeys;
+        int index = Arrays.binarySearch(keys, key);
         // No duplicate tag with same name and value
-        for (Tag t : tags) {
-            if (t.getName().equalsIgnoreCase(tagName) && t.getValue().equalsIgnoreCase(tagValue)) {
-                return false;
-            }
+        if (index >= 0) {
+            return false;
         }
         // If tag type is single-value (location), ensure none already exists
-        if (nameLower.equals("location")) {
-            for (Tag t : tags) {
-                if (t.getName().equalsIgnoreCase("location")) {
-                    return false;
-                }
-            }
+        if (SINGLE_VALUE_NAMES.contains(newTag.getNormalizedName()) && countOf(newTag.getNameId()) > 0) {
+            return false;
         }
-        Tag newTag = new Tag(tagName, tagValue);
-        tags.add(newTag);
+        int insert = -index - 1;
+        long[] addedKeys = new long[keys.length + 1];
+        System.arraycopy(keys, 0, addedKeys, 0, insert);
+        addedKeys[insert] = key;
+        System.arraycopy(keys, insert, addedKeys, insert + 1, keys.length - insert);
+        Tag[] added = Arrays.copyOf(tags, tags.length + 1);
+        added[tags.length] = newTag;
+        tagKeys = addedKeys;
+        tags = added;
         return true;
     }
 
+    /**
+     * Restores tags read back from storage, which were checked by addTag when they were first added.
+     * @param restored the tags to add, in the order they were added
+     */
+    public void restoreTags(List<Tag> restored) {
+        Tag[] merged = Arrays.copyOf(tags, tags.length + restored.size());
+        long[] keys = Arrays.copyOf(tagKeys, merged.length);
+        int count = tags.length;
+        for (Tag tag : restored) {
+            long key = keyOf(tag.getNameId(), tag.getValueId());
+            int index = Arrays.binarySearch(keys, 0, count, key);
+            // Drop tags stored twice, which differ only in case
+            if (index < 0) {
+                int insert = -index - 1;
+                System.arraycopy(keys, insert, keys, insert + 1, count - insert);
+                keys[insert] = key;
+                merged[count++] = tag;
+            }
+        }
+        tagKeys = count == keys.length ? keys : Arrays.copyOf(keys, count);
+        tags = count == merged.length ? merged : Arrays.copyOf(merged, count);
+    }
+
     /**
      * Removes a tag from this photo.
      * @param tagName the name of the tag to remove
      * @param tagValue the value of the tag to remove
      */
     public void removeTag(String tagName, String tagValue) {
-        Tag toRemove = null;
-        for (Tag t : tags) {
-            if (t.getName().equalsIgnoreCase(tagName) && t.getValue().equalsIgnoreCase(tagValue)) {
-                toRemove = t;
-                break;
-            }
+        int nameId = TagDictionary.find(tagName);
+        int valueId = TagDictionary.find(tagValue);
+        if (nameId < 0 || valueId < 0) {
+            return;
+        }
+        long[] keys = tagKeys;
+        int index = Arrays.binarySearch(keys, keyOf(nameId, valueId));
+        if (index < 0) {
+            return;
         }
-        if (toRemove != null) {
-            tags.remove(toRemove);
+        if (keys.length == 1) {
+            tagKeys = NO_KEYS;
+            tags = NO_TAGS;
+            return;
         }
+        long[] removedKeys = new long[keys.length - 1];
+        System.arraycopy(keys, 0, removedKeys, 0, index);
+        System.arraycopy(keys, index + 1, removedKeys, index, removedKeys.length - index);
+        Tag[] removed = new Tag[removedKeys.length];
+        int count = 0;
+        for (Tag tag : tags) {
+            if (tag.getNameId() != nameId || tag.getValueId() != valueId) {
+                removed[count++] = tag;
+            }
+        }
+        tagKeys = removedKeys;
+        tags = removed;
     }
 
     /**
@@ -135,12 +321,102 @@ public class Photo implements Serializable {
      * @return true if the photo has a matching tag, false otherwise
      */
     public boolean hasTag(String name, String value) {
-        for (Tag t : tags) {
-            if (t.getName().equalsIgnoreCase(name) && t.getValue().equalsIgnoreCase(value)) {
-                return true;
+        int nameId = TagDictionary.find(name);
+        int valueId = TagDictionary.find(value);
+        if (nameId < 0 || valueId < 0) {
+            return false;
+        }
+        return Arrays.binarySearch(tagKeys, keyOf(nameId, valueId)) >= 0;
+    }
+
+    /**
+     * Returns the values this photo has for a tag name.
+     * @param name the tag name
+     * @return an unmodifiable list of the matching tags in the order they were added, empty if there are none
+     */
+    public List<Tag> getTags(String name) {
+        int nameId = TagDictionary.find(name);
+        int count = nameId < 0 ? 0 : countOf(nameId);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<Tag> named = new ArrayList<>(count);
+        for (Tag tag : tags) {
+            if (tag.getNameId() == nameId) {
+                named.add(tag);
             }
         }
-        return false;
+        return Collections.unmodifiableList(named);
+    }
+
+    /**
+     * Counts the tags with a name.
+     * @param nameId the dictionary id of the tag name
+     * @return the number of tags with that name
+     */
+    private int countOf(int nameId) {
+        long[] keys = tagKeys;
+        int from = -Arrays.binarySearch(keys, keyOf(nameId, -1)) - 1;
+        int to = -Arrays.binarySearch(keys, keyOf(nameId, Integer.MAX_VALUE)) - 1;
+        return to - from;
+    }
+
+    /**
+     * Packs a name id and a value id into one sort key. A value id of -1 sorts before every value
+     * of the name, and Integer.MAX_VALUE after every value.
+     * @param nameId the dictionary id of the tag name
+     * @param valueId the dictionary id of the tag value
+     * @return the combined key
+     */
+    private static long keyOf(int nameId, int valueId) {
+        return ((long) nameId << 32) + valueId;
+    }
+
+    /**
+     * Writes the photo in the serialized form of earlier versions, which held the tags in a list.
+     * @param out the stream to write to
+     * @throws IOException if the photo cannot be written
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("filePath", filePath);
+        fields.put("description", description);
+        fields.put("date", date);
+        fields.put("size", size);
+        fields.put("width", width);
+        fields.put("height", height);
+        fields.put("orientation", orientation);
+        fields.put("contentHash", contentHash);
+        fields.put("tags", new ArrayList<>(Arrays.asList(tags)));
+        out.writeFields();
+    }
+
+    /**
+     * Reads a photo serialized by this or an earlier version; fields an earlier version did not
+     * have keep their defaults.
+     * @param in the stream to read from
+     * @throws IOException if the photo cannot be read
+     * @throws ClassNotFoundException if a class of the stream cannot be found
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = fields.get("id", 0L);
+        filePath = (String) fields.get("filePath", null);
+        description = (String) fields.get("description", "");
+        date = (LocalDateTime) fields.get("date", null);
+        size = fields.get("size", 0L);
+        width = fields.get("width", 0);
+        height = fields.get("height", 0);
+        orientation = fields.get("orientation", 0);
+        contentHash = (String) fields.get("contentHash", null);
+        tags = NO_TAGS;
+        tagKeys = NO_KEYS;
+        List<Tag> stored = (List<Tag>) fields.get("tags", null);
+        if (stored != null) {
+            restoreTags(stored);
+        }
     }
 
     @Override
@@ -148,7 +424,7 @@ public class Photo implements Serializable {
         // Display file name, optional description, and tags
         String fileName = new File(filePath).getName();
         String descStr = description.isEmpty() ? "" : " - " + description;
-        String tagStr = tags.isEmpty() ? "" : " (" + tags.stream().map(Tag::toString).collect(Collectors.joining(", ")) + ")";
+        String tagStr = tags.length == 0 ? "" : " (" + Arrays.stream(tags).map(Tag::toString).collect(Collectors.joining(", ")) + ")";
         return fileName + descStr + tagStr;
     }
 }
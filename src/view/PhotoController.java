@@ -1,5 +1,6 @@
 package view;
 
+import javafx.animation.PauseTransition;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -14,6 +15,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.stage.Stage;
 import javafx.scene.input.MouseEvent;
+import javafx.util.Duration;
 import java.io.File;
 import java.util.List;
 import java.util.ArrayList;
@@ -27,11 +29,23 @@ import java.util.stream.Collectors;
 public class PhotoController {
     @FXML
     private ListView<Photo> photoListView;
+    /** The photos shown in the list view, a live view of the album that may be filtered by a search. */
+    private PagedPhotoList photoItems;
+    /** Delay after the last keystroke in the search field before the search runs. */
+    private final PauseTransition searchDelay = new PauseTransition(Duration.millis(250));
+    /** The search whose results are shown, or null if no search is active. */
+    private AlbumSearch search;
+    /** Whether the active search has delivered all of its results. */
+    private boolean searchFinished;
     @FXML
     private TextField searchField;
     @FXML
     private Button addPhotoButton;
     @FXML
+    private Button importPhotosButton;
+    @FXML
+    private Button importFolderButton;
+    @FXML
     private Button deletePhotoButton;
     @FXML
     private Button movePhotoButton;
@@ -42,6 +56,8 @@ public class PhotoController {
 
     /** The album currently being viewed. */
     private Album album;
+    /** The service making the album and photo changes, on the JavaFX thread. */
+    private final PhotoLibraryService service = PhotoLibraryService.forJavaFx();
     /** The username of the current user. */
     private String username;
     /** The AlbumList of the current user (all albums). */
@@ -61,8 +77,14 @@ public class PhotoController {
                 }
             }
         });
+        // Search as the user types, once typing pauses
+        searchDelay.setOnFinished(e -> runSearch());
+        searchField.textProperty().addListener((obs, oldText, newText) -> searchDelay.playFromStart());
         // Set custom cell factory to show photo thumbnails and description
         photoListView.setCellFactory(list -> new javafx.scene.control.ListCell<Photo>() {
+            /** Thumbnail view reused across updates of this cell. */
+            private final javafx.scene.image.ImageView thumb = new javafx.scene.image.ImageView();
+
             @Override
             protected void updateItem(Photo photo, boolean empty) {
                 super.updateItem(photo, empty);
@@ -71,13 +93,22 @@ public class PhotoController {
                     setGraphic(null);
                 } else {
                     setText(photo.toString());
-                    File file = new File(photo.getFilePath());
-                    if (file.exists()) {
-                        javafx.scene.image.Image img = new javafx.scene.image.Image(file.toURI().toString(), 80, 80, true, true);
-                        javafx.scene.image.ImageView thumb = new javafx.scene.image.ImageView(img);
-                        setGraphic(thumb);
-                    } else {
-                        setGraphic(null);
+                    // Show the cached thumbnail, or a placeholder until the background load lands;
+                    // a photo whose file is missing gets no graphic
+                    thumb.setImage(ThumbnailCache.getPlaceholder());
+                    setGraphic(thumb);
+                    javafx.scene.image.Image img = ThumbnailCache.request(photo, loaded -> {
+                        if (getItem() == photo) {
+                            if (loaded != null) {
+                                thumb.setImage(loaded);
+                                setGraphic(thumb);
+                            } else {
+                                setGraphic(null);
+                            }
+                        }
+                    });
+                    if (img != null) {
+                        thumb.setImage(img);
                     }
                 }
             }
@@ -87,19 +118,21 @@ public class PhotoController {
     /**
      * Starts the photo view for a given album and user.
      * @param album the Album to display
-     * @param username the username of the album owner
-     * @param albumList the AlbumList of the user (for persistence and cross-album operations)
+     * @param session the session of the album owner (for persistence and cross-album operations)
      */
-    public void start(Album album, String username, AlbumList albumList) {
+    public void start(Album album, AlbumSession session) {
         this.album = album;
-        this.username = username;
-        this.albumList = albumList;
-        // Populate photo list
-        photoListView.getItems().setAll(album.getPhotos());
+        this.username = session.getUsername();
+        this.albumList = session.getAlbumList();
+        // Show the album's photos without copying them; the list view reads only the rows it draws
+        photoItems = new PagedPhotoList(album.getPhotos());
+        photoListView.setItems(photoItems);
         // Check if this album view is showing search results (not an actual album in user's list)
         boolean searchMode = !albumList.albumExists(album.getName());
         if (searchMode) {
             addPhotoButton.setDisable(true);
+            importPhotosButton.setDisable(true);
+            importFolderButton.setDisable(true);
             deletePhotoButton.setDisable(true);
             movePhotoButton.setDisable(true);
             searchField.setDisable(true);
@@ -108,6 +141,8 @@ public class PhotoController {
         } else {
             // Ensure buttons enabled for normal album
             addPhotoButton.setDisable(false);
+            importPhotosButton.setDisable(false);
+            importFolderButton.setDisable(false);
             deletePhotoButton.setDisable(false);
             movePhotoButton.setDisable(false);
             searchField.setDisable(false);
@@ -129,19 +164,113 @@ public class PhotoController {
         );
         File selectedFile = fileChooser.showOpenDialog(photoListView.getScene().getWindow());
         if (selectedFile != null) {
-            // Check for duplicates in album
-            String path = selectedFile.getAbsolutePath();
-            for (Photo p : album.getPhotos()) {
-                if (p.getFilePath().equals(path)) {
-                    showAlert("Photo already exists in this album.");
+            // The service checks for duplicates in the album, by path and then by content
+            service.addPhoto(username, album.getName(), selectedFile.toPath()).whenComplete((photo, error) -> {
+                if (error != null) {
+                    showAlert(PhotoLibraryService.messageOf(error));
                     return;
                 }
+                photoItems.sourceAdded(1);
+                restartUnfinishedSearch();
+            });
+        }
+    }
+
+    /**
+     * Handles importing several photos at once.
+     * Opens a file chooser allowing multiple images to be selected and imports the new ones in the background.
+     */
+    @FXML
+    private void handleImportPhotos() {
+        javafx.stage.FileChooser fileChooser = new javafx.stage.FileChooser();
+        fileChooser.setTitle("Select Photos");
+        fileChooser.getExtensionFilters().addAll(
+            new javafx.stage.FileChooser.ExtensionFilter("Image Files", "*.jpg", "*.jpeg", "*.png", "*.gif")
+        );
+        List<File> selectedFiles = fileChooser.showOpenMultipleDialog(photoListView.getScene().getWindow());
+        if (selectedFiles != null && !selectedFiles.isEmpty()) {
+            importPhotos(selectedFiles);
+        }
+    }
+
+    /**
+     * Handles importing every photo in a folder and its subfolders.
+     * Opens a directory chooser and imports the new images found in the background.
+     */
+    @FXML
+    private void handleImportFolder() {
+        javafx.stage.DirectoryChooser directoryChooser = new javafx.stage.DirectoryChooser();
+        directoryChooser.setTitle("Select Folder");
+        File selectedDirectory = directoryChooser.showDialog(photoListView.getScene().getWindow());
+        if (selectedDirectory != null) {
+            importPhotos(List.of(selectedDirectory));
+        }
+    }
+
+    /**
+     * Imports the given files and folders on a background task while showing a progress dialog with
+     * a Cancel button. When the import finishes the new photos are added to the album in one batch
+     * and saved with a single flush; a cancelled import adds nothing.
+     * @param selected the files and folders to import
+     */
+    private void importPhotos(List<File> selected) {
+        List<java.nio.file.Path> sources = new ArrayList<>();
+        for (File file : selected) {
+            sources.add(file.toPath());
+        }
+        List<String> existingPaths = new ArrayList<>();
+        List<String> existingHashes = new ArrayList<>();
+        for (Photo p : album.getPhotos()) {
+            existingPaths.add(p.getFilePath());
+            if (p.getContentHash() != null) {
+                existingHashes.add(p.getContentHash());
             }
-            Photo photo = new Photo(path);
-            album.addPhoto(photo);
-            photoListView.getItems().add(photo);
-            saveAlbumList();
         }
+        PhotoImporter importer = new PhotoImporter(sources, existingPaths, existingHashes);
+
+        javafx.scene.control.ProgressBar progressBar = new javafx.scene.control.ProgressBar();
+        progressBar.setPrefWidth(300);
+        progressBar.progressProperty().bind(importer.progressProperty());
+        javafx.scene.control.Label statusLabel = new javafx.scene.control.Label();
+        statusLabel.textProperty().bind(importer.messageProperty());
+        Alert progress = new Alert(AlertType.NONE, null, ButtonType.CANCEL);
+        progress.setTitle("Import Photos");
+        progress.setHeaderText(null);
+        progress.getDialogPane().setContent(new javafx.scene.layout.VBox(10, statusLabel, progressBar));
+        progress.setOnHidden(e -> importer.cancel());
+
+        importer.setOnSucceeded(e -> {
+            progress.setOnHidden(null);
+            progress.close();
+            List<Photo> imported = importer.getValue();
+            service.addPhotos(username, album.getName(), imported).whenComplete((added, error) -> {
+                if (error != null) {
+                    showAlert("Import failed: " + PhotoLibraryService.messageOf(error));
+                    return;
+                }
+                if (added > 0) {
+                    photoItems.sourceAdded(added);
+                    restartUnfinishedSearch();
+                }
+                Alert done = new Alert(AlertType.INFORMATION);
+                done.setTitle("Import Photos");
+                done.setHeaderText(null);
+                done.setContentText("Imported " + added + " photo(s)."
+                        + (importer.getSkipped() > 0 ? " Skipped " + importer.getSkipped() + " already in the album." : ""));
+                done.showAndWait();
+            });
+        });
+        importer.setOnFailed(e -> {
+            progress.setOnHidden(null);
+            progress.close();
+            Metrics.error("import", importer.getException());
+            showAlert("Import failed: " + importer.getException().getMessage());
+        });
+
+        Thread thread = new Thread(importer, "photo-import");
+        thread.setDaemon(true);
+        thread.start();
+        progress.show();
     }
 
     /**
@@ -158,9 +287,14 @@ public class PhotoController {
             alert.setContentText("Are you sure you want to delete this photo from the album?");
             Optional<ButtonType> result = alert.showAndWait();
             if (result.isPresent() && result.get() == ButtonType.OK) {
-                album.removePhoto(selectedPhoto);
-                photoListView.getItems().remove(selectedPhoto);
-                saveAlbumList();
+                service.removePhoto(username, album.getName(), selectedPhoto.getId()).whenComplete((index, error) -> {
+                    if (error != null) {
+                        showAlert(PhotoLibraryService.messageOf(error));
+                        return;
+                    }
+                    photoItems.sourceRemoved(index, selectedPhoto);
+                    restartUnfinishedSearch();
+                });
             }
         }
     }
@@ -178,11 +312,12 @@ public class PhotoController {
             dialog.setHeaderText("Edit Photo Caption");
             dialog.setContentText("Enter new description:");
             Optional<String> result = dialog.showAndWait();
-            result.ifPresent(desc -> {
-                selectedPhoto.setDescription(desc.trim());
+            result.ifPresent(desc -> service.setCaption(username, selectedPhoto.getId(), desc).whenComplete((done, error) -> {
+                if (error != null) {
+                    showAlert(PhotoLibraryService.messageOf(error));
+                }
                 photoListView.refresh();
-                saveAlbumList();
-            });
+            }));
         }
     }
 
@@ -206,18 +341,12 @@ public class PhotoController {
                     return;
                 }
                 String[] kv = tagStr.split("=", 2);
-                String tagName = kv[0].trim();
-                String tagValue = kv.length > 1 ? kv[1].trim() : "";
-                if (tagName.isEmpty() || tagValue.isEmpty()) {
-                    showAlert("Tag name and value cannot be empty.");
-                } else {
-                    boolean success = selectedPhoto.addTag(tagName, tagValue);
-                    if (!success) {
-                        showAlert("Unable to add tag. It may already exist or be invalid for this photo.");
+                service.addTag(username, selectedPhoto.getId(), kv[0], kv[1]).whenComplete((done, error) -> {
+                    if (error != null) {
+                        showAlert(PhotoLibraryService.messageOf(error));
                     }
                     photoListView.refresh();
-                    saveAlbumList();
-                }
+                });
             });
         }
     }
@@ -241,42 +370,69 @@ public class PhotoController {
                     showAlert("Please enter the tag in name=value format.");
                 } else {
                     String[] kv = removeStr.split("=", 2);
-                    String tagName = kv[0].trim();
-                    String tagValue = kv.length > 1 ? kv[1].trim() : "";
-                    if (tagName.isEmpty() || tagValue.isEmpty()) {
-                        showAlert("Tag name and value cannot be empty.");
-                    } else {
-                        selectedPhoto.removeTag(tagName, tagValue);
+                    service.removeTag(username, selectedPhoto.getId(), kv[0], kv[1]).whenComplete((done, error) -> {
+                        if (error != null) {
+                            showAlert(PhotoLibraryService.messageOf(error));
+                        }
                         photoListView.refresh();
-                        saveAlbumList();
-                    }
+                    });
                 }
             });
         }
     }
 
     /**
-     * Handles searching within the current album by a tag keyword.
-     * Filters the displayed photos to those whose tags contain the search text.
+     * Handles searching within the current album by a tag keyword, without waiting for the
+     * search-as-you-type delay.
      */
     @FXML
     private void handleSearch() {
-        String query = searchField.getText().trim().toLowerCase();
+        runSearch();
+    }
+
+    /**
+     * Filters the displayed photos to those with a tag name or value containing the search text,
+     * cancelling any search still running. The album is searched in the background and matches are
+     * added to the list as they are found. An empty search field shows the whole album.
+     */
+    private void runSearch() {
+        searchDelay.stop();
+        cancelSearch();
+        String query = searchField.getText().trim();
         if (query.isEmpty()) {
+            photoItems.clearFilter();
             return;
         }
-        photoListView.getItems().clear();
-        for (Photo photo : album.getPhotos()) {
-            boolean match = false;
-            for (Tag tag : photo.getTags()) {
-                if (tag.getName().toLowerCase().contains(query) || tag.getValue().toLowerCase().contains(query)) {
-                    match = true;
-                    break;
-                }
-            }
-            if (match) {
-                photoListView.getItems().add(photo);
+        AlbumSearch newSearch = new AlbumSearch(album.copyPhotos(), query, photoItems::addMatches);
+        newSearch.setOnSucceeded(e -> {
+            // Runs after every batch the search handed over has been added
+            if (search == newSearch) {
+                searchFinished = true;
             }
+        });
+        search = newSearch;
+        searchFinished = false;
+        photoItems.startFilter(newSearch::matches);
+        newSearch.start();
+    }
+
+    /**
+     * Reruns a search that was still delivering results when the album changed, since its results
+     * refer to positions in the album as it was when the search started.
+     */
+    private void restartUnfinishedSearch() {
+        if (search != null && !searchFinished) {
+            runSearch();
+        }
+    }
+
+    /**
+     * Cancels the active search, if any; results it has not delivered yet are dropped.
+     */
+    private void cancelSearch() {
+        if (search != null) {
+            search.cancel();
+            search = null;
         }
     }
 
@@ -286,8 +442,7 @@ public class PhotoController {
     @FXML
     private void handleClearSearch() {
         searchField.clear();
-        photoListView.getItems().clear();
-        photoListView.getItems().addAll(album.getPhotos());
+        runSearch();
     }
 
     /**
@@ -314,28 +469,12 @@ public class PhotoController {
         dialog.setHeaderText("Copy Photo to Another Album");
         dialog.setContentText("Select target album:");
         Optional<String> choice = dialog.showAndWait();
-        if (choice.isPresent()) {
-            String targetAlbumName = choice.get();
-            Album targetAlbum = null;
-            for (Album alb : albumList.getAlbums()) {
-                if (alb.getName().equals(targetAlbumName)) {
-                    targetAlbum = alb;
-                    break;
-                }
-            }
-            if (targetAlbum == null) {
-                return;
-            }
-            // Check if photo already in target album
-            for (Photo p : targetAlbum.getPhotos()) {
-                if (p.getFilePath().equals(selectedPhoto.getFilePath())) {
-                    showAlert("Photo already exists in the target album.");
-                    return;
-                }
+        // The service checks that the target does not hold the photo or the same image yet
+        choice.ifPresent(targetAlbumName -> service.copyPhoto(username, selectedPhoto.getId(), targetAlbumName).whenComplete((done, error) -> {
+            if (error != null) {
+                showAlert(PhotoLibraryService.messageOf(error));
             }
-            targetAlbum.addPhoto(selectedPhoto);
-            AlbumListHelper.save(username, albumList);
-        }
+        }));
     }
 
     /**
@@ -363,33 +502,21 @@ public class PhotoController {
         Optional<String> choice = dialog.showAndWait();
         if (choice.isPresent()) {
             String targetAlbumName = choice.get();
-            Album targetAlbum = null;
-            for (Album alb : albumList.getAlbums()) {
-                if (alb.getName().equals(targetAlbumName)) {
-                    targetAlbum = alb;
-                    break;
-                }
-            }
-            if (targetAlbum == null) {
-                return;
-            }
-            // Check duplicate in target
-            for (Photo p : targetAlbum.getPhotos()) {
-                if (p.getFilePath().equals(selectedPhoto.getFilePath())) {
-                    showAlert("Photo already exists in the target album.");
-                    return;
-                }
-            }
             Alert confirm = new Alert(AlertType.CONFIRMATION);
             confirm.setTitle("Move Photo");
             confirm.setHeaderText(null);
             confirm.setContentText("Move photo to album \"" + targetAlbumName + "\"? It will be removed from the current album.");
             Optional<ButtonType> result = confirm.showAndWait();
             if (result.isPresent() && result.get() == ButtonType.OK) {
-                targetAlbum.addPhoto(selectedPhoto);
-                album.removePhoto(selectedPhoto);
-                photoListView.getItems().remove(selectedPhoto);
-                AlbumListHelper.save(username, albumList);
+                // The service checks that the target does not hold the photo or the same image yet
+                service.movePhoto(username, album.getName(), selectedPhoto.getId(), targetAlbumName).whenComplete((index, error) -> {
+                    if (error != null) {
+                        showAlert(PhotoLibraryService.messageOf(error));
+                        return;
+                    }
+                    photoItems.sourceRemoved(index, selectedPhoto);
+                    restartUnfinishedSearch();
+                });
             }
         }
     }
@@ -408,27 +535,18 @@ public class PhotoController {
             dialog.setContentText("Enter new album name:");
             Optional<String> result = dialog.showAndWait();
             if (result.isPresent()) {
-                String newAlbumName = result.get().trim();
-                if (newAlbumName.isEmpty()) {
-                    showAlert("Album name cannot be empty.");
-                    return;
-                }
-                if (albumList.albumExists(newAlbumName)) {
-                    showAlert("Album \"" + newAlbumName + "\" already exists.");
-                    return;
-                }
-                Album newAlbum = new Album(newAlbumName);
                 // Copy all photos currently displayed
-                for (Photo p : photoListView.getItems()) {
-                    newAlbum.addPhoto(p);
-                }
-                albumList.addAlbum(newAlbum);
-                AlbumListHelper.save(username, albumList);
-                Alert info = new Alert(AlertType.INFORMATION);
-                info.setTitle("Album Created");
-                info.setHeaderText(null);
-                info.setContentText("Album \"" + newAlbumName + "\" has been created from search results.");
-                info.showAndWait();
+                service.createAlbum(username, result.get(), new ArrayList<>(photoItems)).whenComplete((newAlbum, error) -> {
+                    if (error != null) {
+                        showAlert(PhotoLibraryService.messageOf(error));
+                        return;
+                    }
+                    Alert info = new Alert(AlertType.INFORMATION);
+                    info.setTitle("Album Created");
+                    info.setHeaderText(null);
+                    info.setContentText("Album \"" + newAlbum.getName() + "\" has been created from search results.");
+                    info.showAndWait();
+                });
             }
         } else {
             // If no search results to save (shouldn't happen if button is properly enabled/disabled)
@@ -442,6 +560,8 @@ public class PhotoController {
      */
     @FXML
     private void handleBackToAlbums() {
+        searchDelay.stop();
+        cancelSearch();
         try {
             Stage stage = (Stage) photoListView.getScene().getWindow();
             FXMLLoader loader = new FXMLLoader(getClass().getResource("/view/album.fxml"));
@@ -451,7 +571,7 @@ public class PhotoController {
             stage.setScene(new Scene(root, 600, 400));
             stage.show();
         } catch (Exception e) {
-            e.printStackTrace();
+            Metrics.error("ui", e);
         }
     }
 
@@ -470,26 +590,11 @@ public class PhotoController {
             Stage viewerStage = new Stage();
             viewerStage.setTitle("Photo View");
             viewerStage.setScene(new Scene(root, 600, 500));
+            viewerStage.setOnHidden(e -> ImagePipeline.cancelAll());
             viewerStage.show();
         } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Saves the current state of the user's album list to storage.
-     * This ensures any changes to photo captions/tags or album contents are persisted.
-     */
-    private void saveAlbumList() {
-        AlbumList list = AlbumListHelper.load(username);
-        for (Album alb : list.getAlbums()) {
-            if (alb.getName().equals(album.getName())) {
-                alb.getPhotos().clear();
-                alb.getPhotos().addAll(album.getPhotos());
-                break;
-            }
+            Metrics.error("ui", e);
         }
-        AlbumListHelper.save(username, list);
     }
 
     /**
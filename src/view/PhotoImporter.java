@@ -0,0 +1,193 @@
+package view;
+
+import javafx.concurrent.Task;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Background task importing many photos at once.
+ * The selected files and folders are walked with NIO to collect image files; files already in the
+ * album or selected twice are skipped using a set of paths. The file details, header metadata and
+ * content hash of the remaining files are then read in parallel on a worker pool, with progress
+ * reported as each one finishes, and files whose content is already in the album (or appears twice
+ * in the selection) are skipped by hash.
+ * The task only builds the Photo objects; the caller adds them to the album in one batch when it
+ * succeeds, so a cancelled import leaves the album untouched.
+ */
+public class PhotoImporter extends Task<List<Photo>> {
+    /** File extensions (lower case) that are imported, matching the Add Photo file chooser. */
+    public static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList("jpg", "jpeg", "png", "gif"));
+    /** The number of threads reading file details. */
+    private static final int WORKER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** The files and folders selected for import. */
+    private final List<Path> sources;
+    /** Absolute paths that must not be imported again, such as the photos already in the album. */
+    private final Set<String> seenPaths;
+    /** Content hashes that must not be imported again. */
+    private final Set<String> seenHashes;
+    /** The number of selected image files skipped because they were already imported or selected twice. */
+    private volatile int skipped;
+
+    /**
+     * Creates an import of the given files and folders.
+     * @param sources the files and folders to import; folders are searched recursively
+     * @param existingPaths absolute paths of photos that are already present and should be skipped
+     * @param existingHashes content hashes of photos that are already present and should be skipped
+     */
+    public PhotoImporter(List<Path> sources, Collection<String> existingPaths, Collection<String> existingHashes) {
+        this.sources = new ArrayList<>(sources);
+        this.seenPaths = new HashSet<>(existingPaths);
+        this.seenHashes = new HashSet<>(existingHashes);
+    }
+
+    /**
+     * Returns how many image files were skipped as duplicates.
+     * @return the number of skipped files
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Walks the sources and reads the details of every new image file.
+     * @return the new photos, in the order their files were found
+     * @throws Exception if a folder could not be walked
+     */
+    @Override
+    protected List<Photo> call() throws Exception {
+        updateMessage("Scanning for photos...");
+        List<Path> files = collectFiles();
+        if (isCancelled()) {
+            return new ArrayList<>();
+        }
+        int total = files.size();
+        Photo[] photos = new Photo[total];
+        updateMessage("Reading " + total + " photos...");
+        updateProgress(0, total);
+        ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "photo-importer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletionService<Integer> completion = new ExecutorCompletionService<>(workers);
+            for (int i = 0; i < total; i++) {
+                int slot = i;
+                completion.submit(() -> {
+                    photos[slot] = readPhoto(files.get(slot));
+                    return slot;
+                });
+            }
+            for (int done = 1; done <= total; done++) {
+                if (isCancelled()) {
+                    return new ArrayList<>();
+                }
+                completion.take().get();
+                updateProgress(done, total);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        List<Photo> result = new ArrayList<>(total);
+        for (Photo photo : photos) {
+            if (photo == null) {
+                continue;
+            }
+            if (photo.getContentHash() != null && !seenHashes.add(photo.getContentHash())) {
+                skipped++;
+                continue;
+            }
+            result.add(photo);
+        }
+        updateMessage("Read " + result.size() + " photos.");
+        return result;
+    }
+
+    /**
+     * Collects the image files under every source, skipping paths that were already seen.
+     * @return the new image files, in the order they were found
+     * @throws IOException if a folder could not be walked
+     */
+    private List<Path> collectFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path source : sources) {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (isCancelled()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isRegularFile() && isImage(file)) {
+                        if (seenPaths.add(file.toAbsolutePath().toString())) {
+                            files.add(file);
+                        } else {
+                            skipped++;
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    // Unreadable entries are left out rather than failing the whole import
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Returns whether a file has one of the imported image extensions.
+     * @param file the file to check
+     * @return true if the file looks like an image
+     */
+    public static boolean isImage(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && IMAGE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Reads the details of one image file: its size and modification time from a single stat, its
+     * capture date, orientation and dimensions from the image header, and its content hash. Photos
+     * without a recorded capture date are dated by their modification time.
+     * @param file the image file
+     * @return the photo, or null if the file could not be read
+     */
+    public static Photo readPhoto(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            PhotoMetadataReader.Metadata metadata = PhotoMetadataReader.read(file, attrs);
+            LocalDateTime date = metadata.getDateTaken();
+            if (date == null) {
+                date = LocalDateTime.ofInstant(attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+            }
+            Photo photo = new Photo(file.toAbsolutePath().toString(), date, attrs.size(),
+                    metadata.getWidth(), metadata.getHeight(), metadata.getOrientation());
+            photo.setContentHash(ContentHasher.hash(file, attrs));
+            return photo;
+        } catch (IOException e) {
+            Metrics.error("import", e);
+            return null;
+        }
+    }
+}
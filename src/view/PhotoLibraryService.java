@@ -0,0 +1,677 @@
+package view;
+
+import javafx.application.Platform;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * UI-free API over the photo library: user and album management, adding, removing, copying and
+ * moving photos, captions, tags and searches, with the same rules the screens enforce.
+ * Every operation runs asynchronously and returns a CompletableFuture. Rule violations complete it
+ * with an IllegalArgumentException, and a user whose session is open in another process with an
+ * IllegalStateException; messageOf turns either into the text to show.
+ * Operations on the same user run one at a time in the order they were called, and operations on
+ * different users run in parallel on the service's executor. Each operation works on the user's
+ * AlbumSession while holding its monitor and flushes the changes it made. Albums and photos returned
+ * are the live model objects; callers on other threads only read them under the session's monitor.
+ * Photos are addressed by id and albums by name (case-insensitive), so callers such as LibraryCli
+ * need no model objects.
+ */
+public class PhotoLibraryService {
+    /** Usernames that cannot be created or deleted. */
+    private static final List<String> RESERVED_USERS = List.of("admin", "stock");
+    /** The key used to order user list operations; no username can be empty. */
+    private static final String USER_LIST_KEY = "";
+    /** Times tag searches, published as search.tags. */
+    private static final Metrics.Timer tagSearchTimer = Metrics.timer("search.tags");
+    /** Times date searches, published as search.dates. */
+    private static final Metrics.Timer dateSearchTimer = Metrics.timer("search.dates");
+
+    /** The service used by the screens, running operations on the JavaFX thread. */
+    private static PhotoLibraryService javaFxService;
+
+    /** Runs the operations. */
+    private final Executor executor;
+    /**
+     * The last operation submitted for each user, which the user's next operation waits for; an
+     * entry is removed once its operation has finished and no other has been queued behind it.
+     */
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a service running operations on its own pool of daemon threads, one per processor.
+     */
+    public PhotoLibraryService() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a service running operations on its own pool of daemon threads.
+     * @param threads the number of threads, which bounds how many users are served at once
+     */
+    public PhotoLibraryService(int threads) {
+        this(newPool(threads));
+    }
+
+    /**
+     * Creates a service running operations on a given executor.
+     * @param executor the executor to run operations on
+     */
+    public PhotoLibraryService(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the service used by the screens. It runs operations on the JavaFX thread, after the
+     * event being handled, so the model shown on screen only changes on the thread that draws it
+     * and results can be shown directly.
+     * @return the shared JavaFX service
+     */
+    public static synchronized PhotoLibraryService forJavaFx() {
+        if (javaFxService == null) {
+            javaFxService = new PhotoLibraryService(Platform::runLater);
+        }
+        return javaFxService;
+    }
+
+    /**
+     * Returns the message to show for an operation that failed.
+     * @param error the exception the operation's future completed with
+     * @return the message of the underlying exception
+     */
+    public static String messageOf(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error.getMessage() != null ? error.getMessage() : error.toString();
+    }
+
+    /**
+     * Returns the usernames in the user list.
+     * @return a future of the usernames
+     */
+    public CompletableFuture<List<String>> listUsers() {
+        return submit(USER_LIST_KEY, () -> new ArrayList<>(UserListHelper.load().getUsers()));
+    }
+
+    /**
+     * Creates a user with an empty album list.
+     * @param username the new username; it is trimmed and lower-cased
+     * @return a future of the updated usernames
+     */
+    public CompletableFuture<List<String>> createUser(String username) {
+        String name = username.trim().toLowerCase();
+        return submit(USER_LIST_KEY, () -> {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Username cannot be empty.");
+            }
+            if (RESERVED_USERS.contains(name)) {
+                throw new IllegalArgumentException("Cannot use reserved username \"" + name + "\".");
+            }
+            UserList users = UserListHelper.update(userList -> {
+                if (userList.userExists(name)) {
+                    throw new IllegalArgumentException("User \"" + name + "\" already exists.");
+                }
+                // Create an empty album list file for the new user, unless another instance has the
+                // name open, such as from creating the same user at the same time
+                if (!AlbumSession.create(name)) {
+                    throw new IllegalStateException("User \"" + name + "\" is in use by another instance.");
+                }
+                userList.addUser(name);
+            });
+            return new ArrayList<>(users.getUsers());
+        });
+    }
+
+    /**
+     * Deletes a user and all of the user's album data.
+     * @param username the user to delete
+     * @return a future of the updated usernames
+     */
+    public CompletableFuture<List<String>> deleteUser(String username) {
+        return submit(USER_LIST_KEY, () -> {
+            if (RESERVED_USERS.contains(username)) {
+                throw new IllegalArgumentException("Cannot delete user \"" + username + "\".");
+            }
+            // Delete the user's album data files, unless another instance has the user logged in
+            if (!AlbumSession.delete(username)) {
+                throw new IllegalStateException("User \"" + username + "\" is in use by another instance.");
+            }
+            return new ArrayList<>(UserListHelper.update(users -> users.removeUser(username)).getUsers());
+        });
+    }
+
+    /**
+     * Writes out and closes a user's session, releasing the user to other processes.
+     * @param username the user whose session to close
+     * @return a future completed once the user's data is on disk
+     */
+    public CompletableFuture<Void> closeUser(String username) {
+        return submit(username, () -> {
+            AlbumSession.close(username);
+            return null;
+        });
+    }
+
+    /**
+     * Returns a user's albums.
+     * @param username the album owner
+     * @return a future of the albums, in display order
+     */
+    public CompletableFuture<List<Album>> listAlbums(String username) {
+        return submit(username, session -> new ArrayList<>(session.getAlbumList().getAlbums()));
+    }
+
+    /**
+     * Returns the photos of an album.
+     * @param username the album owner
+     * @param albumName the album name
+     * @return a future of the photos, in album order
+     */
+    public CompletableFuture<List<Photo>> listPhotos(String username, String albumName) {
+        return submit(username, session -> new ArrayList<>(albumOf(session, albumName).getPhotos()));
+    }
+
+    /**
+     * Creates an empty album.
+     * @param username the album owner
+     * @param albumName the name of the new album
+     * @return a future of the new album
+     */
+    public CompletableFuture<Album> createAlbum(String username, String albumName) {
+        return createAlbum(username, albumName, List.of());
+    }
+
+    /**
+     * Creates an album holding some of the user's photos, such as search results.
+     * @param username the album owner
+     * @param albumName the name of the new album
+     * @param photos the photos to copy into the album, in order
+     * @return a future of the new album
+     */
+    public CompletableFuture<Album> createAlbum(String username, String albumName, List<Photo> photos) {
+        List<Photo> copied = new ArrayList<>(photos);
+        return submit(username, session -> {
+            String name = checkNewAlbumName(session, albumName.trim(), null);
+            Album album = session.createAlbum(name);
+            for (Photo photo : copied) {
+                session.copyPhoto(album, photo);
+            }
+            return album;
+        });
+    }
+
+    /**
+     * Renames an album.
+     * @param username the album owner
+     * @param albumName the current album name
+     * @param newName the new album name
+     * @return a future of the renamed album
+     */
+    public CompletableFuture<Album> renameAlbum(String username, String albumName, String newName) {
+        return submit(username, session -> {
+            Album album = albumOf(session, albumName);
+            checkNotStock(username, album, "rename");
+            session.renameAlbum(album, checkNewAlbumName(session, newName.trim(), album));
+            return album;
+        });
+    }
+
+    /**
+     * Deletes an album.
+     * @param username the album owner
+     * @param albumName the album name
+     * @return a future of the deleted album
+     */
+    public CompletableFuture<Album> deleteAlbum(String username, String albumName) {
+        return submit(username, session -> {
+            Album album = albumOf(session, albumName);
+            checkNotStock(username, album, "delete");
+            session.deleteAlbum(album);
+            return album;
+        });
+    }
+
+    /**
+     * Imports an image file into an album, unless the album already holds it or the same image.
+     * @param username the album owner
+     * @param albumName the album name
+     * @param file the image file
+     * @return a future of the new photo
+     */
+    public CompletableFuture<Photo> addPhoto(String username, String albumName, Path file) {
+        return submit(username, session -> {
+            Album album = albumOf(session, albumName);
+            String path = file.toAbsolutePath().toString();
+            for (Photo p : album.getPhotos()) {
+                if (p.getFilePath().equals(path)) {
+                    throw new IllegalArgumentException("Photo already exists in this album.");
+                }
+            }
+            Photo photo = PhotoImporter.readPhoto(file);
+            if (photo == null) {
+                throw new IllegalArgumentException("Could not read the selected photo.");
+            }
+            if (containsContent(session, album, photo)) {
+                throw new IllegalArgumentException("The same image is already in this album.");
+            }
+            session.addPhoto(album, photo);
+            return photo;
+        });
+    }
+
+    /**
+     * Adds a batch of photos read by a PhotoImporter to an album, in one flush.
+     * @param username the album owner
+     * @param albumName the album name
+     * @param photos the new photos, already checked against the album
+     * @return a future of the number of photos added
+     */
+    public CompletableFuture<Integer> addPhotos(String username, String albumName, List<Photo> photos) {
+        List<Photo> added = new ArrayList<>(photos);
+        return submit(username, session -> {
+            session.addPhotos(albumOf(session, albumName), added);
+            return added.size();
+        });
+    }
+
+    /**
+     * Removes a photo from an album.
+     * @param username the album owner
+     * @param albumName the album name
+     * @param photoId the id of the photo
+     * @return a future of the position the photo had in the album
+     */
+    public CompletableFuture<Integer> removePhoto(String username, String albumName, long photoId) {
+        return submit(username, session -> {
+            Album album = albumOf(session, albumName);
+            Photo photo = photoOf(session, photoId);
+            int index = album.getPhotos().indexOf(photo);
+            if (index < 0) {
+                throw new IllegalArgumentException("The photo is not in album \"" + album.getName() + "\".");
+            }
+            session.removePhoto(album, photo);
+            return index;
+        });
+    }
+
+    /**
+     * Adds a photo to another album, unless that album already holds it or the same image.
+     * @param username the album owner
+     * @param photoId the id of the photo
+     * @param targetName the name of the album to copy into
+     * @return a future completed once the photo is copied
+     */
+    public CompletableFuture<Void> copyPhoto(String username, long photoId, String targetName) {
+        return submit(username, session -> {
+            Photo photo = photoOf(session, photoId);
+            session.copyPhoto(targetOf(session, photo, targetName), photo);
+            return null;
+        });
+    }
+
+    /**
+     * Moves a photo from one album to another, unless the target already holds it or the same image.
+     * @param username the album owner
+     * @param albumName the name of the album the photo is in
+     * @param photoId the id of the photo
+     * @param targetName the name of the album to move it to
+     * @return a future of the position the photo had in its album
+     */
+    public CompletableFuture<Integer> movePhoto(String username, String albumName, long photoId, String targetName) {
+        return submit(username, session -> {
+            Album album = albumOf(session, albumName);
+            Photo photo = photoOf(session, photoId);
+            int index = album.getPhotos().indexOf(photo);
+            if (index < 0) {
+                throw new IllegalArgumentException("The photo is not in album \"" + album.getName() + "\".");
+            }
+            Album target = targetOf(session, photo, targetName);
+            if (target == album) {
+                throw new IllegalArgumentException("The photo is already in album \"" + album.getName() + "\".");
+            }
+            session.movePhoto(album, target, photo);
+            return index;
+        });
+    }
+
+    /**
+     * Sets the caption of a photo.
+     * @param username the photo owner
+     * @param photoId the id of the photo
+     * @param caption the new caption; it is trimmed
+     * @return a future completed once the caption is set
+     */
+    public CompletableFuture<Void> setCaption(String username, long photoId, String caption) {
+        return submit(username, session -> {
+            session.setDescription(photoOf(session, photoId), caption.trim());
+            return null;
+        });
+    }
+
+    /**
+     * Adds a tag to a photo, following the rules of Photo.addTag.
+     * @param username the photo owner
+     * @param photoId the id of the photo
+     * @param tagName the tag name; it is trimmed
+     * @param tagValue the tag value; it is trimmed
+     * @return a future completed once the tag is added
+     */
+    public CompletableFuture<Void> addTag(String username, long photoId, String tagName, String tagValue) {
+        return submit(username, session -> {
+            String name = tagName.trim();
+            String value = tagValue.trim();
+            if (name.isEmpty() || value.isEmpty()) {
+                throw new IllegalArgumentException("Tag name and value cannot be empty.");
+            }
+            if (!session.addTag(photoOf(session, photoId), name, value)) {
+                throw new IllegalArgumentException("Unable to add tag. It may already exist or be invalid for this photo.");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Removes a tag from a photo, if it has it.
+     * @param username the photo owner
+     * @param photoId the id of the photo
+     * @param tagName the tag name; it is trimmed
+     * @param tagValue the tag value; it is trimmed
+     * @return a future completed once the tag is removed
+     */
+    public CompletableFuture<Void> removeTag(String username, long photoId, String tagName, String tagValue) {
+        return submit(username, session -> {
+            String name = tagName.trim();
+            String value = tagValue.trim();
+            if (name.isEmpty() || value.isEmpty()) {
+                throw new IllegalArgumentException("Tag name and value cannot be empty.");
+            }
+            session.removeTag(photoOf(session, photoId), name, value);
+            return null;
+        });
+    }
+
+    /**
+     * Records content hashes computed in the background, such as by the duplicate finder. Unlike
+     * the other operations this does not open the user's session: if it was closed while the
+     * hashes were computed they are dropped. Photos no longer in the library are skipped.
+     * @param username the photo owner
+     * @param hashes the content hashes, as computed by ContentHasher, by photo id
+     * @return a future of whether the hashes were recorded
+     */
+    public CompletableFuture<Boolean> setContentHashes(String username, Map<Long, String> hashes) {
+        Map<Long, String> copied = new HashMap<>(hashes);
+        return submit(username, () -> {
+            AlbumSession session = AlbumSession.find(username);
+            if (session == null) {
+                return false;
+            }
+            synchronized (session) {
+                if (session.isClosed()) {
+                    return false;
+                }
+                try {
+                    for (Map.Entry<Long, String> entry : copied.entrySet()) {
+                        Photo photo = session.getAlbumList().getPhoto(entry.getKey());
+                        if (photo != null) {
+                            session.setContentHash(photo, entry.getValue());
+                        }
+                    }
+                } finally {
+                    session.flush();
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Searches all of a user's photos with a TagQuery.
+     * @param username the photo owner
+     * @param query the query text, as parsed by TagQuery.parse
+     * @return a future of the distinct matching photos, sorted by date taken
+     */
+    public CompletableFuture<List<Photo>> search(String username, String query) {
+        return submit(username, session -> {
+            LibraryEvents.Search event = new LibraryEvents.Search();
+            event.username = username;
+            event.query = query;
+            Metrics.Sample sample = tagSearchTimer.start(event);
+            List<Photo> found = distinctPhotos(session, TagQuery.parse(query.trim()).execute(session));
+            event.results = found.size();
+            sample.stop();
+            return found;
+        });
+    }
+
+    /**
+     * Finds the photos a user took in a date range.
+     * @param username the photo owner
+     * @param from the first day of the range
+     * @param to the last day of the range
+     * @return a future of the distinct photos taken in the range, sorted by date taken
+     */
+    public CompletableFuture<List<Photo>> searchByDate(String username, LocalDate from, LocalDate to) {
+        return submit(username, session -> {
+            if (to.isBefore(from)) {
+                throw new IllegalArgumentException("End date must be on or after start date.");
+            }
+            LibraryEvents.Search event = new LibraryEvents.Search();
+            event.username = username;
+            event.query = from + " to " + to;
+            Metrics.Sample sample = dateSearchTimer.start(event);
+            List<Photo> found = distinctPhotos(session, session.getDateIndex().range(from, to));
+            event.results = found.size();
+            sample.stop();
+            return found;
+        });
+    }
+
+    /**
+     * Queues an operation on a user's session after the user's previous operations.
+     * @param username the user whose session the operation works on
+     * @param operation the operation, run while holding the session's monitor
+     * @return a future of the operation's result
+     */
+    private <T> CompletableFuture<T> submit(String username, Function<AlbumSession, T> operation) {
+        return submit(username, () -> {
+            while (true) {
+                AlbumSession session = AlbumSession.open(username);
+                synchronized (session) {
+                    // Another thread may have closed the session since it was opened
+                    if (!session.isClosed()) {
+                        try {
+                            return operation.apply(session);
+                        } finally {
+                            session.flush();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues an operation after the previous operations with the same key.
+     * @param key the key operations are ordered by, such as a username
+     * @param operation the operation
+     * @return a future of the operation's result
+     */
+    private <T> CompletableFuture<T> submit(String key, Operation<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> next = tails.compute(key, (k, tail) -> {
+            CompletableFuture<Void> previous = tail != null ? tail : CompletableFuture.completedFuture(null);
+            // The chain itself never fails, so one failed operation does not stop the ones after it
+            return previous.thenRunAsync(() -> {
+                try {
+                    result.complete(operation.run());
+                } catch (Throwable e) {
+                    // Errors too, so a caller waiting for the result is never left hanging
+                    result.completeExceptionally(e);
+                }
+            }, executor);
+        });
+        next.thenRun(() -> tails.remove(key, next));
+        return result;
+    }
+
+    /**
+     * Returns a user's album by name.
+     * @param session the user's session
+     * @param albumName the album name
+     * @return the album
+     * @throws IllegalArgumentException if the user has no such album
+     */
+    private static Album albumOf(AlbumSession session, String albumName) {
+        Album album = session.getAlbumList().getAlbum(albumName);
+        if (album == null) {
+            throw new IllegalArgumentException("Album \"" + albumName + "\" does not exist.");
+        }
+        return album;
+    }
+
+    /**
+     * Returns a user's photo by id.
+     * @param session the user's session
+     * @param photoId the photo id
+     * @return the photo
+     * @throws IllegalArgumentException if no album of the user holds such a photo
+     */
+    private static Photo photoOf(AlbumSession session, long photoId) {
+        Photo photo = session.getAlbumList().getPhoto(photoId);
+        if (photo == null) {
+            throw new IllegalArgumentException("Photo " + photoId + " does not exist.");
+        }
+        return photo;
+    }
+
+    /**
+     * Returns the album a photo is copied or moved to, checking that it does not hold the photo yet.
+     * @param session the user's session
+     * @param photo the photo
+     * @param targetName the name of the target album
+     * @return the target album
+     */
+    private static Album targetOf(AlbumSession session, Photo photo, String targetName) {
+        Album target = albumOf(session, targetName);
+        // Check if photo already in target album
+        for (Photo p : target.getPhotos()) {
+            if (p.getFilePath().equals(photo.getFilePath())) {
+                throw new IllegalArgumentException("Photo already exists in the target album.");
+            }
+        }
+        if (containsContent(session, target, photo)) {
+            throw new IllegalArgumentException("The same image is already in the target album.");
+        }
+        return target;
+    }
+
+    /**
+     * Checks a name for a new or renamed album.
+     * @param session the user's session
+     * @param name the trimmed name
+     * @param renamed the album being renamed, or null for a new album
+     * @return the name
+     */
+    private static String checkNewAlbumName(AlbumSession session, String name, Album renamed) {
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("Album name cannot be empty!");
+        }
+        Album existing = session.getAlbumList().getAlbum(name);
+        if (existing != null && existing != renamed) {
+            throw new IllegalArgumentException("Album \"" + name + "\" already exists.");
+        }
+        return name;
+    }
+
+    /**
+     * Refuses to change the stock user's stock album.
+     * @param username the album owner
+     * @param album the album to change
+     * @param action the change, for the message
+     */
+    private static void checkNotStock(String username, Album album, String action) {
+        if (username.equals("stock") && album.getName().equals("stock")) {
+            throw new IllegalArgumentException("Cannot " + action + " the stock album.");
+        }
+    }
+
+    /**
+     * Checks whether an album already holds a photo with the same content as the given one, using the
+     * session's content index rather than scanning the album.
+     * @param session the user's session
+     * @param target the album to check
+     * @param photo the photo whose content to look for
+     * @return true if another photo in the album has the same content hash
+     */
+    private static boolean containsContent(AlbumSession session, Album target, Photo photo) {
+        for (Photo p : session.getContentIndex().lookup(photo.getContentHash())) {
+            if (p != photo && target.getPhotos().contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes repeated photos from search results, keeping the first of each. Photos are tracked by
+     * id, and every photo with the same content as a kept photo is marked as seen too, so the same
+     * image under two paths is listed once.
+     * @param session the user's session
+     * @param matches the search results, in display order
+     * @return a new list holding each distinct photo once
+     */
+    private static List<Photo> distinctPhotos(AlbumSession session, List<Photo> matches) {
+        List<Photo> resultPhotos = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (Photo photo : matches) {
+            if (!seen.add(photo.getId())) {
+                continue;
+            }
+            for (Photo sameContent : session.getContentIndex().lookup(photo.getContentHash())) {
+                seen.add(sameContent.getId());
+            }
+            resultPhotos.add(photo);
+        }
+        return resultPhotos;
+    }
+
+    /**
+     * Creates the thread pool of a service.
+     * @param threads the number of threads
+     * @return the pool
+     */
+    private static ExecutorService newPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "library-service-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * An operation that does not need a session.
+     */
+    private interface Operation<T> {
+        /**
+         * Runs the operation.
+         * @return its result
+         */
+        T run();
+    }
+}
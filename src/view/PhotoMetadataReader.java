@@ -0,0 +1,312 @@
+package view;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the capture date, orientation and dimensions of an image from its header.
+ * Only the metadata segments are read, with a few positional reads on a FileChannel: for a JPEG the
+ * segments before the first frame header (the EXIF block in APP1 and the SOF dimensions), for a PNG
+ * the IHDR and eXIf chunks before the image data, and for a GIF the logical screen descriptor.
+ * No pixels are decoded. Results are cached by path, size and modification time, so reading an
+ * unchanged file again needs no I/O beyond the stat the caller already did.
+ */
+public class PhotoMetadataReader {
+    /** The maximum number of files whose metadata is kept in the cache. */
+    private static final int MAX_ENTRIES = 20000;
+    /** The format of EXIF date and time values. */
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+    /** TIFF tag holding the orientation of the image. */
+    private static final int TAG_ORIENTATION = 0x0112;
+    /** TIFF tag holding the date and time the file was last changed. */
+    private static final int TAG_DATE_TIME = 0x0132;
+    /** TIFF tag pointing to the EXIF sub-IFD. */
+    private static final int TAG_EXIF_IFD = 0x8769;
+    /** EXIF tag holding the date and time the picture was taken. */
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+    /** Metadata already read, in least-recently-used order, keyed by path, size and modification time. */
+    private static final Map<String, Metadata> cache = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Metadata read from an image header. Fields that were not found are 0 or null.
+     */
+    public static class Metadata {
+        /** The date and time the picture was taken, or null if the file does not record it. */
+        private LocalDateTime dateTaken;
+        /** The EXIF orientation (1 to 8), or 0 if the file does not record it. */
+        private int orientation;
+        /** The width of the image in pixels, or 0 if unknown. */
+        private int width;
+        /** The height of the image in pixels, or 0 if unknown. */
+        private int height;
+
+        /**
+         * Returns the date and time the picture was taken.
+         * @return the capture date, or null if the file does not record it
+         */
+        public LocalDateTime getDateTaken() {
+            return dateTaken;
+        }
+
+        /**
+         * Returns the EXIF orientation of the image.
+         * @return the orientation (1 to 8), or 0 if the file does not record it
+         */
+        public int getOrientation() {
+            return orientation;
+        }
+
+        /**
+         * Returns the width of the image as stored.
+         * @return the width in pixels, or 0 if unknown
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Returns the height of the image as stored.
+         * @return the height in pixels, or 0 if unknown
+         */
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    /**
+     * Returns the metadata of an image file, from the cache when the file has not changed.
+     * @param file the image file
+     * @param attrs the file's attributes, used for the cache key
+     * @return the metadata; fields that could not be read are left empty
+     */
+    public static Metadata read(Path file, BasicFileAttributes attrs) {
+        String key = file.toAbsolutePath() + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+        synchronized (cache) {
+            Metadata cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Metadata metadata = new Metadata();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer signature = readAt(channel, 0, 8);
+            if (signature.remaining() >= 3 && (signature.get(0) & 0xFF) == 0xFF && (signature.get(1) & 0xFF) == 0xD8) {
+                readJpeg(channel, metadata);
+            } else if (signature.remaining() == 8 && signature.getLong(0) == 0x89504E470D0A1A0AL) {
+                readPng(channel, metadata);
+            } else if (signature.remaining() >= 6 && signature.get(0) == 'G' && signature.get(1) == 'I' && signature.get(2) == 'F') {
+                ByteBuffer screen = readAt(channel, 6, 4).order(ByteOrder.LITTLE_ENDIAN);
+                if (screen.remaining() == 4) {
+                    metadata.width = screen.getShort(0) & 0xFFFF;
+                    metadata.height = screen.getShort(2) & 0xFFFF;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // A damaged header leaves the remaining fields empty; the file is still usable
+        }
+        synchronized (cache) {
+            cache.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Walks the segments of a JPEG file up to the first frame header, reading the EXIF block and the
+     * image dimensions.
+     * @param channel the open file
+     * @param metadata receives what was found
+     * @throws IOException if the file could not be read
+     */
+    private static void readJpeg(FileChannel channel, Metadata metadata) throws IOException {
+        long position = 2;
+        long fileSize = channel.size();
+        while (position + 4 <= fileSize) {
+            ByteBuffer header = readAt(channel, position, 4);
+            if (header.remaining() < 4 || (header.get(0) & 0xFF) != 0xFF) {
+                return;
+            }
+            int marker = header.get(1) & 0xFF;
+            if (marker == 0xFF) {
+                // Fill byte before the marker
+                position++;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // End of image or start of scan: no more metadata segments
+                return;
+            }
+            int length = header.getShort(2) & 0xFFFF;
+            if (length < 2) {
+                return;
+            }
+            if (marker == 0xE1 && metadata.dateTaken == null && metadata.orientation == 0) {
+                ByteBuffer segment = readAt(channel, position + 4, length - 2);
+                if (segment.remaining() > 6 && segment.getInt(0) == 0x45786966 && segment.getShort(4) == 0) {
+                    segment.position(6);
+                    readTiff(segment.slice(), metadata);
+                }
+            } else if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                ByteBuffer frame = readAt(channel, position + 4, 5);
+                if (frame.remaining() == 5) {
+                    metadata.height = frame.getShort(1) & 0xFFFF;
+                    metadata.width = frame.getShort(3) & 0xFFFF;
+                }
+                return;
+            }
+            position += 2 + length;
+        }
+    }
+
+    /**
+     * Reads the IHDR chunk of a PNG file and any eXIf chunk that comes before the image data.
+     * @param channel the open file
+     * @param metadata receives what was found
+     * @throws IOException if the file could not be read
+     */
+    private static void readPng(FileChannel channel, Metadata metadata) throws IOException {
+        long position = 8;
+        long fileSize = channel.size();
+        while (position + 8 <= fileSize) {
+            ByteBuffer header = readAt(channel, position, 8);
+            if (header.remaining() < 8) {
+                return;
+            }
+            long length = header.getInt(0) & 0xFFFFFFFFL;
+            String type = new String(new byte[] {header.get(4), header.get(5), header.get(6), header.get(7)}, StandardCharsets.US_ASCII);
+            if (type.equals("IHDR")) {
+                ByteBuffer data = readAt(channel, position + 8, 8);
+                if (data.remaining() == 8) {
+                    metadata.width = data.getInt(0);
+                    metadata.height = data.getInt(4);
+                }
+            } else if (type.equals("eXIf") && length <= 1 << 20) {
+                readTiff(readAt(channel, position + 8, (int) length), metadata);
+            } else if (type.equals("IDAT") || type.equals("IEND")) {
+                return;
+            }
+            // Chunk: length, type, data, CRC
+            position += 12 + length;
+        }
+    }
+
+    /**
+     * Reads the orientation and capture date from a TIFF structure (the body of an EXIF block).
+     * Offsets in the structure are relative to the start of the buffer.
+     * @param tiff the TIFF structure
+     * @param metadata receives what was found
+     */
+    private static void readTiff(ByteBuffer tiff, Metadata metadata) {
+        if (tiff.remaining() < 8) {
+            return;
+        }
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return;
+        }
+        LocalDateTime modified = null;
+        int exifOffset = -1;
+        int ifd = tiff.getInt(4);
+        int count = entryCount(tiff, ifd);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            if (tag == TAG_ORIENTATION) {
+                metadata.orientation = tiff.getShort(entry + 8) & 0xFFFF;
+            } else if (tag == TAG_DATE_TIME) {
+                modified = dateAt(tiff, entry);
+            } else if (tag == TAG_EXIF_IFD) {
+                exifOffset = tiff.getInt(entry + 8);
+            }
+        }
+        if (exifOffset > 0) {
+            count = entryCount(tiff, exifOffset);
+            for (int i = 0; i < count; i++) {
+                int entry = exifOffset + 2 + i * 12;
+                if ((tiff.getShort(entry) & 0xFFFF) == TAG_DATE_TIME_ORIGINAL) {
+                    metadata.dateTaken = dateAt(tiff, entry);
+                }
+            }
+        }
+        if (metadata.dateTaken == null) {
+            metadata.dateTaken = modified;
+        }
+    }
+
+    /**
+     * Returns the number of entries of an IFD, limited to the entries that fit in the buffer.
+     * @param tiff the TIFF structure
+     * @param offset the offset of the IFD
+     * @return the number of complete entries, or 0 if the offset is out of range
+     */
+    private static int entryCount(ByteBuffer tiff, int offset) {
+        if (offset < 0 || offset + 2 > tiff.limit()) {
+            return 0;
+        }
+        int count = tiff.getShort(offset) & 0xFFFF;
+        return Math.max(0, Math.min(count, (tiff.limit() - offset - 2) / 12));
+    }
+
+    /**
+     * Parses the ASCII date value of an IFD entry.
+     * @param tiff the TIFF structure
+     * @param entry the offset of the entry
+     * @return the date, or null if the value is missing or malformed
+     */
+    private static LocalDateTime dateAt(ByteBuffer tiff, int entry) {
+        int length = tiff.getInt(entry + 4);
+        int offset = tiff.getInt(entry + 8);
+        if (length < 19 || offset < 0 || offset + 19 > tiff.limit()) {
+            return null;
+        }
+        byte[] text = new byte[19];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = tiff.get(offset + i);
+        }
+        try {
+            return LocalDateTime.parse(new String(text, StandardCharsets.US_ASCII), EXIF_DATE);
+        } catch (DateTimeParseException e) {
+            // Cameras without a clock write blanks or zeros here
+            return null;
+        }
+    }
+
+    /**
+     * Reads up to a number of bytes at a position of a file.
+     * @param channel the open file
+     * @param position the position to read from
+     * @param length the number of bytes to read
+     * @return a big-endian buffer holding the bytes read, fewer at the end of the file
+     * @throws IOException if the file could not be read
+     */
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
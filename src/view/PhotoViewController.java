@@ -5,8 +5,8 @@ import javafx.scene.control.Label;
 import javafx.scene.control.Button;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import java.io.File;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
 /**
  * Controller for the photo viewer window.
@@ -31,6 +31,9 @@ public class PhotoViewController {
     /** The index of the currently displayed photo in the album. */
     private int index;
 
+    /** Times from asking for a photo until it is on screen, published as viewer.show. */
+    private static final Metrics.Timer showTimer = Metrics.timer("viewer.show");
+
     /**
      * Initializes the photo viewer for a given album and photo index.
      * Displays the photo and its details, and sets navigation button states.
@@ -70,13 +73,21 @@ public class PhotoViewController {
      */
     private void updatePhoto() {
         Photo photo = album.getPhotos().get(index);
-        File file = new File(photo.getFilePath());
-        if (file.exists()) {
-            Image image = new Image(file.toURI().toString());
-            photoImageView.setImage(image);
-        } else {
-            photoImageView.setImage(null);
+        Metrics.Sample shown = showTimer.start();
+        Image image = ImagePipeline.request(photo, loaded -> {
+            // Ignore a decode that lands after the user has moved to another photo, or after the
+            // album has shrunk so that index no longer exists
+            List<Photo> photos = album.getPhotos();
+            if (index < photos.size() && photos.get(index) == photo) {
+                photoImageView.setImage(loaded);
+                shown.stop();
+            }
+        });
+        if (image != null) {
+            shown.stop();
         }
+        photoImageView.setImage(image);
+        ImagePipeline.prefetch(album.getPhotos(), index);
         // Set caption, date, and tags
         String captionText = photo.getDescription().isEmpty() ? "(No Caption)" : photo.getDescription();
         captionLabel.setText("Caption: " + captionText);
@@ -6,11 +6,10 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 import java.io.File;
-import view.Album;
+import java.util.ArrayList;
+import java.util.List;
 import view.Photo;
-import view.AlbumList;
-import view.AlbumListHelper;
-import view.UserList;
+import view.AlbumSession;
 import view.UserListHelper;
 
 /**
@@ -28,31 +27,35 @@ public class Photos extends Application {
 
     @Override
     public void start(Stage primaryStage) throws Exception {
+        Metrics.install();
         // Initialize user list and stock user/album if not present
-        UserList users = UserListHelper.load();
-        // Ensure stock user exists in user list
-        if (!users.userExists("stock")) {
-            users.addUser("stock");
-        }
+        // Ensure stock user exists in user list, and save any updates to it
+        UserListHelper.update(users -> {
+            if (!users.userExists("stock")) {
+                users.addUser("stock");
+            }
+        });
         // Always ensure the special admin user exists conceptually (admin is not stored in file)
-        // Save any updates to user list
-        UserListHelper.save(users);
-        // Ensure stock user's album and photos are pre-loaded
-        AlbumList stockAlbumList = AlbumListHelper.load("stock");
-        if (stockAlbumList.getAlbums().isEmpty() || !stockAlbumList.albumExists("stock")) {
-            Album stockAlbum = new Album("stock");
-            // Example stock photos filenames (actual images should be placed in the project data/stock directory)
-            String stockDir = "data/stock/";
-            String[] stockPhotos = { "stock1.jpg", "stock2.jpg", "stock3.jpg", "stock4.jpg", "stock5.jpg" };
-            for (String filename : stockPhotos) {
-                File photoFile = new File(stockDir + filename);
-                if (photoFile.exists()) {
-                    Photo photo = new Photo(photoFile.getAbsolutePath());
-                    stockAlbum.addPhoto(photo);
+        // Ensure stock user's album and photos are pre-loaded, unless another instance has the stock user open
+        try {
+            AlbumSession stockSession = AlbumSession.open("stock");
+            if (!stockSession.getAlbumList().albumExists("stock")) {
+                // Example stock photos filenames (actual images should be placed in the project data/stock directory)
+                String stockDir = "data/stock/";
+                String[] stockPhotos = { "stock1.jpg", "stock2.jpg", "stock3.jpg", "stock4.jpg", "stock5.jpg" };
+                List<Photo> photos = new ArrayList<>();
+                for (String filename : stockPhotos) {
+                    File photoFile = new File(stockDir + filename);
+                    Photo photo = photoFile.exists() ? PhotoImporter.readPhoto(photoFile.toPath()) : null;
+                    if (photo != null) {
+                        photos.add(photo);
+                    }
                 }
+                stockSession.addPhotos(stockSession.createAlbum("stock"), photos);
             }
-            stockAlbumList.addAlbum(stockAlbum);
-            AlbumListHelper.save("stock", stockAlbumList);
+            AlbumSession.close("stock");
+        } catch (IllegalStateException e) {
+            Metrics.error("startup", e);
         }
 
         // Load login UI
@@ -65,8 +68,14 @@ public class Photos extends Application {
     @Override
     public void stop() throws Exception {
         // Auto-save all data on program exit to prevent data loss
-        UserList users = UserListHelper.load();
-        UserListHelper.save(users);
-        // Note: Individual album data is saved on each operation throughout the program
+        UserListHelper.update(users -> { });
+        // Write out any album changes still pending in open sessions
+        try {
+            AlbumSession.closeAll();
+        } catch (IllegalStateException e) {
+            Metrics.error("shutdown", e);
+        }
+        // Wait for the background writer so nothing queued is lost on exit
+        PersistenceQueue.flush();
     }
 }
@@ -1,25 +1,123 @@
 package view;
 
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a tag on a photo, consisting of a tag name and a tag value.
+ * Tags are immutable and interned: Tag.of returns one shared instance per distinct name and value,
+ * and each tag carries the TagDictionary ids of its lower-cased name and value so that
+ * case-insensitive comparisons are integer comparisons. The pool only holds tags weakly: once no
+ * photo has a tag any more, the tag is dropped and its dictionary entries are released.
  */
 public class Tag implements Serializable {
     private static final long serialVersionUID = 1L;
+    /** Shared instances keyed by exact name and value. */
+    private static final Map<String, PooledTag> pool = new ConcurrentHashMap<>();
+    /** Receives the pool entries of tags that are no longer used. */
+    private static final ReferenceQueue<Tag> unused = new ReferenceQueue<>();
+
     /** The tag name (type). */
     private String name;
     /** The tag value. */
     private String value;
+    /** Dictionary id of the lower-cased name. */
+    private transient int nameId;
+    /** Dictionary id of the lower-cased value. */
+    private transient int valueId;
+    /** The lower-cased name, shared through the dictionary. */
+    private transient String nameKey;
+    /** The lower-cased value, shared through the dictionary. */
+    private transient String valueKey;
+
+    /**
+     * A pool entry, which remembers the dictionary ids of its tag so they can be released after
+     * the tag has been collected.
+     */
+    private static class PooledTag extends WeakReference<Tag> {
+        /** The pool key of the tag. */
+        final String key;
+        /** Dictionary id of the tag's lower-cased name. */
+        final int nameId;
+        /** Dictionary id of the tag's lower-cased value. */
+        final int valueId;
+
+        /**
+         * Creates a pool entry.
+         * @param tag the pooled tag
+         * @param key the pool key of the tag
+         */
+        PooledTag(Tag tag, String key) {
+            super(tag, unused);
+            this.key = key;
+            this.nameId = tag.nameId;
+            this.valueId = tag.valueId;
+        }
+    }
 
     /**
      * Constructs a Tag with the given name and value.
      * @param name the tag name (type)
      * @param value the tag value
      */
-    public Tag(String name, String value) {
+    private Tag(String name, String value) {
         this.name = name;
         this.value = value;
+        this.nameId = TagDictionary.idOf(name);
+        this.valueId = TagDictionary.idOf(value);
+        this.nameKey = TagDictionary.keyOf(nameId);
+        this.valueKey = TagDictionary.keyOf(valueId);
+    }
+
+    /**
+     * Returns the shared Tag for a name and value.
+     * @param name the tag name (type)
+     * @param value the tag value
+     * @return the interned tag
+     */
+    public static Tag of(String name, String value) {
+        prune();
+        String key = name + '\u0000' + value;
+        PooledTag pooled = pool.get(key);
+        Tag tag = pooled == null ? null : pooled.get();
+        if (tag != null) {
+            return tag;
+        }
+        synchronized (pool) {
+            pooled = pool.get(key);
+            tag = pooled == null ? null : pooled.get();
+            if (tag == null) {
+                tag = new Tag(name, value);
+                pool.put(key, new PooledTag(tag, key));
+            }
+            return tag;
+        }
+    }
+
+    /**
+     * Drops the pool entries of tags that have been collected and releases their dictionary entries.
+     */
+    private static void prune() {
+        PooledTag pooled;
+        while ((pooled = (PooledTag) unused.poll()) != null) {
+            synchronized (pool) {
+                pool.remove(pooled.key, pooled);
+            }
+            TagDictionary.release(pooled.nameId);
+            TagDictionary.release(pooled.valueId);
+        }
+    }
+
+    /**
+     * Returns the number of tags in the pool, including any collected but not pruned yet.
+     * @return the pool size
+     */
+    public static int poolSize() {
+        prune();
+        return pool.size();
     }
 
     /**
@@ -38,6 +136,46 @@ public class Tag implements Serializable {
         return value;
     }
 
+    /**
+     * Returns the dictionary id of the tag's lower-cased name.
+     * @return the name id
+     */
+    public int getNameId() {
+        return nameId;
+    }
+
+    /**
+     * Returns the dictionary id of the tag's lower-cased value.
+     * @return the value id
+     */
+    public int getValueId() {
+        return valueId;
+    }
+
+    /**
+     * Returns the tag name in lower case, shared with every other tag of that name.
+     * @return the normalized name
+     */
+    public String getNormalizedName() {
+        return nameKey;
+    }
+
+    /**
+     * Returns the tag value in lower case, shared with every other tag of that value.
+     * @return the normalized value
+     */
+    public String getNormalizedValue() {
+        return valueKey;
+    }
+
+    /**
+     * Replaces a deserialized tag with the shared instance, restoring its dictionary ids.
+     * @return the interned tag
+     */
+    private Object readResolve() {
+        return of(name, value);
+    }
+
     @Override
     public String toString() {
         return name + "=" + value;
@@ -49,11 +187,11 @@ public class Tag implements Serializable {
             return false;
         }
         Tag other = (Tag) obj;
-        return this.name.equalsIgnoreCase(other.name) && this.value.equalsIgnoreCase(other.value);
+        return this.nameId == other.nameId && this.valueId == other.valueId;
     }
 
     @Override
     public int hashCode() {
-        return name.toLowerCase().hashCode() * 31 + value.toLowerCase().hashCode();
+        return nameId * 31 + valueId;
     }
 }
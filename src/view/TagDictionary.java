@@ -0,0 +1,219 @@
+package view;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dictionary assigning compact integer ids to lower-cased tag names and values.
+ * Each distinct normalized string is stored once and gets an id that stays the same for as long as a
+ * tag uses it, so tags can be compared by id instead of by case-insensitive string comparison.
+ * Entries are counted by the tags using them and removed when the last such tag is dropped from
+ * the Tag pool; their ids are then given to new entries. Ids are not persisted; they are
+ * reassigned when tags are loaded.
+ * The dictionary also keeps an index of the three-character substrings (trigrams) of every entry,
+ * so the names and values containing some text can be found without looking at every photo.
+ */
+public class TagDictionary {
+    /** Ids keyed by normalized (lower-case) text. */
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    /** Normalized text by id, or null for an id that is free. */
+    private static final List<String> keys = new ArrayList<>();
+    /** The number of tags using each id; guarded by keys. */
+    private static int[] references = new int[64];
+    /** Ids whose entries were removed, to be given to new entries; guarded by keys. */
+    private static final Deque<Integer> freeIds = new ArrayDeque<>();
+    /** Ids of the entries containing each trigram, in ascending order; guarded by keys. */
+    private static final Map<Long, Postings> trigrams = new HashMap<>();
+
+    /**
+     * Returns the normalized form of tag text used for matching.
+     * @param text a tag name or value
+     * @return the lower-case text
+     */
+    public static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the id of a tag name or value for a new tag using it, assigning a new id if no tag
+     * uses it yet. Each call must be matched by a call to release once the tag is no longer used.
+     * @param text a tag name or value, in any case
+     * @return the id of its normalized form
+     */
+    public static int idOf(String text) {
+        String key = normalize(text);
+        synchronized (keys) {
+            Integer id = ids.get(key);
+            if (id == null) {
+                if (freeIds.isEmpty()) {
+                    id = keys.size();
+                    keys.add(key);
+                    if (id == references.length) {
+                        references = Arrays.copyOf(references, id * 2);
+                    }
+                } else {
+                    id = freeIds.pop();
+                    keys.set(id, key);
+                }
+                for (int i = 0; i + 3 <= key.length(); i++) {
+                    trigrams.computeIfAbsent(trigram(key, i), k -> new Postings()).add(id);
+                }
+                ids.put(key, id);
+            }
+            references[id]++;
+            return id;
+        }
+    }
+
+    /**
+     * Releases an id obtained from idOf, removing its entry when no tag uses it any more.
+     * @param id the id to release
+     */
+    static void release(int id) {
+        synchronized (keys) {
+            if (--references[id] > 0) {
+                return;
+            }
+            String key = keys.get(id);
+            for (int i = 0; i + 3 <= key.length(); i++) {
+                long trigram = trigram(key, i);
+                Postings postings = trigrams.get(trigram);
+                postings.remove(id);
+                if (postings.size == 0) {
+                    trigrams.remove(trigram);
+                }
+            }
+            ids.remove(key);
+            keys.set(id, null);
+            freeIds.push(id);
+        }
+    }
+
+    /**
+     * Returns the id of a tag name or value without assigning one.
+     * @param text a tag name or value, in any case
+     * @return the id of its normalized form, or -1 if no tag has used it
+     */
+    public static int find(String text) {
+        Integer id = ids.get(normalize(text));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the shared normalized text for an id.
+     * @param id an id returned by idOf
+     * @return the normalized text
+     */
+    public static String keyOf(int id) {
+        synchronized (keys) {
+            return keys.get(id);
+        }
+    }
+
+    /**
+     * Finds the names and values that contain some text, ignoring case. Text of three or more
+     * characters is looked up through the trigram index: only the entries holding its rarest
+     * trigram are checked. Shorter text is checked against every entry, of which there are far
+     * fewer than tags on photos.
+     * @param text the text to look for
+     * @return the ids of the matching entries
+     */
+    public static BitSet idsContaining(String text) {
+        String query = normalize(text);
+        BitSet result = new BitSet();
+        synchronized (keys) {
+            if (query.length() < 3) {
+                for (int id = 0; id < keys.size(); id++) {
+                    String key = keys.get(id);
+                    if (key != null && key.contains(query)) {
+                        result.set(id);
+                    }
+                }
+                return result;
+            }
+            Postings rarest = null;
+            for (int i = 0; i + 3 <= query.length(); i++) {
+                Postings postings = trigrams.get(trigram(query, i));
+                if (postings == null) {
+                    return result;
+                }
+                if (rarest == null || postings.size < rarest.size) {
+                    rarest = postings;
+                }
+            }
+            for (int i = 0; i < rarest.size; i++) {
+                int id = rarest.ids[i];
+                if (keys.get(id).contains(query)) {
+                    result.set(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Packs the three characters starting at a position into a trigram key.
+     * @param text the text
+     * @param start the position of the first character
+     * @return the trigram key
+     */
+    private static long trigram(String text, int start) {
+        return (long) text.charAt(start) << 32 | (long) text.charAt(start + 1) << 16 | text.charAt(start + 2);
+    }
+
+    /**
+     * Growable list of the dictionary ids containing one trigram.
+     */
+    private static class Postings {
+        /** The ids, in ascending order; only the first size are used. */
+        private int[] ids = new int[2];
+        /** The number of ids. */
+        private int size;
+
+        /**
+         * Adds an id. An entry holding the trigram more than once is added once.
+         * @param id the id to add
+         */
+        void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        /**
+         * Removes an id if it is present.
+         * @param id the id to remove
+         */
+        void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of distinct names and values in the dictionary.
+     * @return the dictionary size
+     */
+    public static int size() {
+        return ids.size();
+    }
+}
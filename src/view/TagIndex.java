@@ -0,0 +1,170 @@
+package view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index from tag (name, value) pairs to the photos carrying them.
+ * Names and values are matched case-insensitively, like Photo.hasTag. The index is kept up to date
+ * by AlbumSession as photos are added, removed and tagged, so a tag query is a posting set lookup
+ * (plus an intersection or union for AND / OR) instead of a scan over every photo.
+ */
+public class TagIndex {
+    /** Posting sets keyed by the tags' shared normalized name, then normalized value. */
+    private final Map<String, TreeMap<String, Set<Photo>>> postings = new HashMap<>();
+
+    /**
+     * Indexes all tags of a photo.
+     * @param photo the photo to index
+     */
+    public void addPhoto(Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            addTag(photo, tag);
+        }
+    }
+
+    /**
+     * Removes all tags of a photo from the index.
+     * @param photo the photo to remove
+     */
+    public void removePhoto(Photo photo) {
+        for (Tag tag : photo.getTags()) {
+            removeTag(photo, tag);
+        }
+    }
+
+    /**
+     * Records that a photo carries a tag.
+     * @param photo the tagged photo
+     * @param tag the tag
+     */
+    public void addTag(Photo photo, Tag tag) {
+        postings.computeIfAbsent(tag.getNormalizedName(), k -> new TreeMap<>())
+                .computeIfAbsent(tag.getNormalizedValue(), k -> new HashSet<>())
+                .add(photo);
+    }
+
+    /**
+     * Records that a photo no longer carries a tag.
+     * @param photo the photo the tag was removed from
+     * @param tag the tag
+     */
+    public void removeTag(Photo photo, Tag tag) {
+        String nameKey = tag.getNormalizedName();
+        TreeMap<String, Set<Photo>> values = postings.get(nameKey);
+        if (values == null) {
+            return;
+        }
+        String valueKey = tag.getNormalizedValue();
+        Set<Photo> photos = values.get(valueKey);
+        if (photos != null && photos.remove(photo) && photos.isEmpty()) {
+            values.remove(valueKey);
+            if (values.isEmpty()) {
+                postings.remove(nameKey);
+            }
+        }
+    }
+
+    /**
+     * Returns the photos carrying a tag.
+     * @param name the tag name
+     * @param value the tag value
+     * @return an unmodifiable view of the matching photos, empty if there are none
+     */
+    public Set<Photo> lookup(String name, String value) {
+        TreeMap<String, Set<Photo>> values = postings.get(TagDictionary.normalize(name));
+        if (values == null) {
+            return Collections.emptySet();
+        }
+        Set<Photo> photos = values.get(TagDictionary.normalize(value));
+        return photos == null ? Collections.<Photo>emptySet() : Collections.unmodifiableSet(photos);
+    }
+
+    /**
+     * Returns the posting sets of every value of a tag name that matches a pattern. The pattern is
+     * compared case-insensitively and may contain '*' wildcards; a single trailing '*' is answered
+     * with a range lookup over the sorted values, other wildcards by testing each distinct value.
+     * @param name the tag name
+     * @param pattern the value pattern
+     * @return the matching posting sets
+     */
+    public List<Set<Photo>> postingsFor(String name, String pattern) {
+        TreeMap<String, Set<Photo>> values = postings.get(TagDictionary.normalize(name));
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        String key = TagDictionary.normalize(pattern);
+        int star = key.indexOf('*');
+        if (star < 0) {
+            Set<Photo> photos = values.get(key);
+            return photos == null ? Collections.<Set<Photo>>emptyList() : Collections.singletonList(photos);
+        }
+        if (star == key.length() - 1) {
+            String prefix = key.substring(0, star);
+            Map<String, Set<Photo>> range = prefix.isEmpty() ? values : values.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+            return new ArrayList<>(range.values());
+        }
+        Pattern regex = globToRegex(key);
+        List<Set<Photo>> result = new ArrayList<>();
+        for (Map.Entry<String, Set<Photo>> entry : values.entrySet()) {
+            if (regex.matcher(entry.getKey()).matches()) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts a lower-case value pattern with '*' wildcards into a regular expression.
+     * @param pattern the value pattern
+     * @return the compiled expression
+     */
+    public static Pattern globToRegex(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        String[] parts = pattern.split("\\*", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(parts[i]));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Returns the photos in both sets, probing the larger set with the members of the smaller one.
+     * @param a the first set
+     * @param b the second set
+     * @return a new set holding the intersection
+     */
+    public static Set<Photo> intersect(Set<Photo> a, Set<Photo> b) {
+        Set<Photo> small = a.size() <= b.size() ? a : b;
+        Set<Photo> large = small == a ? b : a;
+        Set<Photo> result = new HashSet<>();
+        for (Photo photo : small) {
+            if (large.contains(photo)) {
+                result.add(photo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the photos in either set.
+     * @param a the first set
+     * @param b the second set
+     * @return a new set holding the union
+     */
+    public static Set<Photo> union(Set<Photo> a, Set<Photo> b) {
+        Set<Photo> result = new HashSet<>(a);
+        result.addAll(b);
+        return result;
+    }
+}
@@ -0,0 +1,703 @@
+package view;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed photo search query, evaluated against the indexes of an AlbumSession.
+ * <p>
+ * Queries combine predicates with AND, OR, NOT and parentheses (keywords are case-insensitive;
+ * AND binds tighter than OR). Supported predicates are:
+ * <ul>
+ * <li>{@code name=value} - a tag; the value may contain '*' wildcards, e.g. {@code person=al*}</li>
+ * <li>{@code date=MM/dd/yyyy}, and {@code <}, {@code <=}, {@code >}, {@code >=} - the date taken</li>
+ * <li>{@code caption~word} - a word in the caption; several words must all appear, and a word
+ *     may end in '*' to match a prefix</li>
+ * </ul>
+ * Unquoted values run until the next keyword or parenthesis, so {@code location=new york} works;
+ * values may also be double-quoted.
+ * <p>
+ * Evaluation is planned by selectivity: the operands of an AND are ordered by their estimated
+ * result size, the smallest is fetched from its index, and each further operand is either
+ * intersected with it (when its own postings are smaller) or checked photo by photo against the
+ * shrinking candidate set. NOT operands are always applied as filters.
+ */
+public class TagQuery {
+    /** The format used for dates in queries. */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+    /** The root of the parsed query. */
+    private final Node root;
+
+    /**
+     * Constructs a query around a parsed expression.
+     * @param root the root node
+     */
+    private TagQuery(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Parses a query string.
+     * @param text the query text
+     * @return the parsed query
+     * @throws IllegalArgumentException if the query is malformed; the message describes the problem
+     */
+    public static TagQuery parse(String text) {
+        Parser parser = new Parser(tokenize(text));
+        Node root = parser.parseOr();
+        if (parser.pos < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected \"" + parser.tokens.get(parser.pos).text + "\" in query.");
+        }
+        return new TagQuery(root);
+    }
+
+    /**
+     * Runs the query against a user's indexes.
+     * @param session the session whose photos to search
+     * @return the matching photos, sorted by date taken
+     */
+    public List<Photo> execute(AlbumSession session) {
+        List<Photo> result;
+        // Keep the indexes from changing while they are read
+        synchronized (session) {
+            result = new ArrayList<>(root.evaluate(session));
+        }
+        result.sort(Comparator.comparing(Photo::getDate));
+        return result;
+    }
+
+    /**
+     * Checks whether a single photo matches the query, without using any index.
+     * @param photo the photo to test
+     * @return true if the photo matches
+     */
+    public boolean matches(Photo photo) {
+        return root.matches(photo);
+    }
+
+    /**
+     * A node of the query expression.
+     */
+    private interface Node {
+        /**
+         * Estimates how many photos this node matches, cheaply.
+         * @param session the session being searched
+         * @return the estimated result size
+         */
+        int estimate(AlbumSession session);
+
+        /**
+         * Computes the photos matching this node using the session's indexes.
+         * @param session the session being searched
+         * @return a new, modifiable set of matching photos
+         */
+        Set<Photo> evaluate(AlbumSession session);
+
+        /**
+         * Checks a single photo against this node.
+         * @param photo the photo to test
+         * @return true if the photo matches
+         */
+        boolean matches(Photo photo);
+    }
+
+    /**
+     * Matches photos carrying a tag whose value fits a pattern.
+     */
+    private static class TagTerm implements Node {
+        /** The tag name, normalized. */
+        private final String name;
+        /** The value pattern, normalized; '*' matches any run of characters. */
+        private final String pattern;
+        /** The compiled pattern when the value contains wildcards, otherwise null. */
+        private final Pattern regex;
+
+        /**
+         * Constructs a tag term.
+         * @param name the tag name
+         * @param value the value, which may contain '*' wildcards
+         */
+        TagTerm(String name, String value) {
+            this.name = TagDictionary.normalize(name);
+            this.pattern = TagDictionary.normalize(value);
+            this.regex = pattern.indexOf('*') >= 0 ? TagIndex.globToRegex(pattern) : null;
+        }
+
+        @Override
+        public int estimate(AlbumSession session) {
+            return totalSize(session.getTagIndex().postingsFor(name, pattern));
+        }
+
+        @Override
+        public Set<Photo> evaluate(AlbumSession session) {
+            return unionOf(session.getTagIndex().postingsFor(name, pattern));
+        }
+
+        @Override
+        public boolean matches(Photo photo) {
+            for (Tag tag : photo.getTags()) {
+                if (tag.getNormalizedName().equals(name)) {
+                    String value = tag.getNormalizedValue();
+                    if (regex == null ? value.equals(pattern) : regex.matcher(value).matches()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Matches photos taken within a half-open date interval.
+     */
+    private static class DateTerm implements Node {
+        /** The start of the interval, inclusive, or null if it is open. */
+        private final LocalDateTime from;
+        /** The end of the interval, exclusive, or null if it is open. */
+        private final LocalDateTime to;
+
+        /**
+         * Constructs a date term.
+         * @param from the start of the interval, inclusive, or null for no lower bound
+         * @param to the end of the interval, exclusive, or null for no upper bound
+         */
+        DateTerm(LocalDateTime from, LocalDateTime to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int estimate(AlbumSession session) {
+            // Counting a date range means walking it, so assume the worst and let cheaper terms lead
+            return session.getAllPhotos().size();
+        }
+
+        @Override
+        public Set<Photo> evaluate(AlbumSession session) {
+            return new HashSet<>(session.getDateIndex().between(from, to));
+        }
+
+        @Override
+        public boolean matches(Photo photo) {
+            LocalDateTime date = photo.getDate();
+            return (from == null || !date.isBefore(from)) && (to == null || date.isBefore(to));
+        }
+    }
+
+    /**
+     * Matches photos whose caption contains all of a set of words or word prefixes.
+     */
+    private static class CaptionTerm implements Node {
+        /** The lower-cased words to find; a word ending in '*' is a prefix. */
+        private final List<String> words;
+
+        /**
+         * Constructs a caption term.
+         * @param words the lower-cased words, each of which must appear in the caption
+         */
+        CaptionTerm(List<String> words) {
+            this.words = words;
+        }
+
+        @Override
+        public int estimate(AlbumSession session) {
+            int best = Integer.MAX_VALUE;
+            for (String word : words) {
+                best = Math.min(best, totalSize(session.getCaptionIndex().postingsFor(word)));
+            }
+            return best;
+        }
+
+        @Override
+        public Set<Photo> evaluate(AlbumSession session) {
+            Set<Photo> result = null;
+            for (String word : words) {
+                Set<Photo> photos = unionOf(session.getCaptionIndex().postingsFor(word));
+                result = result == null ? photos : TagIndex.intersect(result, photos);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean matches(Photo photo) {
+            Set<String> captionWords = CaptionIndex.words(photo.getDescription());
+            for (String word : words) {
+                boolean found = false;
+                if (word.endsWith("*")) {
+                    String prefix = word.substring(0, word.length() - 1);
+                    for (String captionWord : captionWords) {
+                        if (captionWord.startsWith(prefix)) {
+                            found = true;
+                            break;
+                        }
+                    }
+                } else {
+                    found = captionWords.contains(word);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Matches photos matching every operand, planned by selectivity.
+     */
+    private static class AndNode implements Node {
+        /** The operands, in query order. */
+        private final List<Node> operands;
+
+        /**
+         * Constructs an AND of several operands.
+         * @param operands the operands
+         */
+        AndNode(List<Node> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        public int estimate(AlbumSession session) {
+            int best = session.getAllPhotos().size();
+            for (Node operand : operands) {
+                if (!(operand instanceof NotNode)) {
+                    best = Math.min(best, operand.estimate(session));
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public Set<Photo> evaluate(AlbumSession session) {
+            List<Node> positive = new ArrayList<>();
+            List<Node> negative = new ArrayList<>();
+            for (Node operand : operands) {
+                if (operand instanceof NotNode) {
+                    negative.add(((NotNode) operand).operand);
+                } else {
+                    positive.add(operand);
+                }
+            }
+            // Order operands by estimated result size so the most selective one drives the plan
+            List<int[]> order = new ArrayList<>();
+            for (int i = 0; i < positive.size(); i++) {
+                order.add(new int[] { positive.get(i).estimate(session), i });
+            }
+            order.sort(Comparator.comparingInt(entry -> entry[0]));
+            Set<Photo> result = null;
+            for (int[] entry : order) {
+                Node operand = positive.get(entry[1]);
+                if (result == null) {
+                    result = operand.evaluate(session);
+                } else if (result.isEmpty()) {
+                    break;
+                } else if (entry[0] < result.size()) {
+                    result = TagIndex.intersect(result, operand.evaluate(session));
+                } else {
+                    result.removeIf(photo -> !operand.matches(photo));
+                }
+            }
+            if (result == null) {
+                result = new HashSet<>(session.getAllPhotos());
+            }
+            for (Node operand : negative) {
+                result.removeIf(operand::matches);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean matches(Photo photo) {
+            for (Node operand : operands) {
+                if (!operand.matches(photo)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Matches photos matching any operand.
+     */
+    private static class OrNode implements Node {
+        /** The operands, in query order. */
+        private final List<Node> operands;
+
+        /**
+         * Constructs an OR of several operands.
+         * @param operands the operands
+         */
+        OrNode(List<Node> operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        public int estimate(AlbumSession session) {
+            long total = 0;
+            for (Node operand : operands) {
+                total += operand.estimate(session);
+            }
+            return (int) Math.min(total, session.getAllPhotos().size());
+        }
+
+        @Override
+        public Set<Photo> evaluate(AlbumSession session) {
+            Set<Photo> result = new HashSet<>();
+            for (Node operand : operands) {
+                result.addAll(operand.evaluate(session));
+            }
+            return result;
+        }
+
+        @Override
+        public boolean matches(Photo photo) {
+            for (Node operand : operands) {
+                if (operand.matches(photo)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Matches photos not matching its operand. Inside an AND it is applied as a filter.
+     */
+    private static class NotNode implements Node {
+        /** The negated operand. */
+        private final Node operand;
+
+        /**
+         * Constructs the negation of an operand.
+         * @param operand the operand
+         */
+        NotNode(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public int estimate(AlbumSession session) {
+            return session.getAllPhotos().size();
+        }
+
+        @Override
+        public Set<Photo> evaluate(AlbumSession session) {
+            Set<Photo> result = new HashSet<>(session.getAllPhotos());
+            result.removeIf(operand::matches);
+            return result;
+        }
+
+        @Override
+        public boolean matches(Photo photo) {
+            return !operand.matches(photo);
+        }
+    }
+
+    /**
+     * Returns the combined size of a group of posting sets.
+     * @param postings the posting sets
+     * @return the sum of their sizes
+     */
+    private static int totalSize(Collection<Set<Photo>> postings) {
+        int total = 0;
+        for (Set<Photo> photos : postings) {
+            total += photos.size();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the union of a group of posting sets.
+     * @param postings the posting sets
+     * @return a new set holding every photo in any of them
+     */
+    private static Set<Photo> unionOf(Collection<Set<Photo>> postings) {
+        Set<Photo> result = new HashSet<>();
+        for (Set<Photo> photos : postings) {
+            result.addAll(photos);
+        }
+        return result;
+    }
+
+    /** Token kinds produced by the tokenizer. */
+    private enum Kind { WORD, QUOTED, OPERATOR, LPAREN, RPAREN }
+
+    /**
+     * A token of query text.
+     */
+    private static class Token {
+        /** The kind of token. */
+        final Kind kind;
+        /** The token's text; for a quoted string, without the quotes. */
+        final String text;
+
+        /**
+         * Constructs a token.
+         * @param kind the kind of token
+         * @param text the token's text
+         */
+        Token(Kind kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+
+        /**
+         * Checks whether this token is an unquoted keyword, ignoring case.
+         * @param keyword the keyword, in lower case
+         * @return true if the token is that keyword
+         */
+        boolean isKeyword(String keyword) {
+            return kind == Kind.WORD && text.equalsIgnoreCase(keyword);
+        }
+    }
+
+    /**
+     * Splits query text into words, quoted strings, comparison operators and parentheses.
+     * @param text the query text
+     * @return the tokens
+     */
+    private static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(Kind.LPAREN, "("));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(Kind.RPAREN, ")"));
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated quote in query.");
+                }
+                tokens.add(new Token(Kind.QUOTED, text.substring(i + 1, end)));
+                i = end + 1;
+            } else if (c == '=' || c == '~' || c == '<' || c == '>') {
+                if ((c == '<' || c == '>') && i + 1 < text.length() && text.charAt(i + 1) == '=') {
+                    tokens.add(new Token(Kind.OPERATOR, text.substring(i, i + 2)));
+                    i += 2;
+                } else {
+                    tokens.add(new Token(Kind.OPERATOR, String.valueOf(c)));
+                    i++;
+                }
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i)) && "()\"=~<>".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(new Token(Kind.WORD, text.substring(start, i)));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Recursive-descent parser over a token list.
+     */
+    private static class Parser {
+        /** The tokens being parsed. */
+        final List<Token> tokens;
+        /** The position of the next token to read. */
+        int pos;
+
+        /**
+         * Constructs a parser.
+         * @param tokens the tokens to parse
+         */
+        Parser(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        /**
+         * Returns the next token without consuming it.
+         * @return the next token, or null at the end of the query
+         */
+        Token peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        /**
+         * Checks whether the next token is a keyword.
+         * @param keyword the keyword, in lower case
+         * @return true if the next token is that keyword
+         */
+        boolean atKeyword(String keyword) {
+            Token token = peek();
+            return token != null && token.isKeyword(keyword);
+        }
+
+        /**
+         * Parses one or more AND expressions separated by OR.
+         * @return the parsed expression
+         * @throws IllegalArgumentException if the query is malformed
+         */
+        Node parseOr() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseAnd());
+            while (atKeyword("or")) {
+                pos++;
+                operands.add(parseAnd());
+            }
+            return operands.size() == 1 ? operands.get(0) : new OrNode(operands);
+        }
+
+        /**
+         * Parses one or more unary expressions separated by AND.
+         * @return the parsed expression
+         * @throws IllegalArgumentException if the query is malformed
+         */
+        Node parseAnd() {
+            List<Node> operands = new ArrayList<>();
+            operands.add(parseUnary());
+            while (atKeyword("and")) {
+                pos++;
+                operands.add(parseUnary());
+            }
+            return operands.size() == 1 ? operands.get(0) : new AndNode(operands);
+        }
+
+        /**
+         * Parses a predicate, a parenthesized expression, or either preceded by NOT.
+         * @return the parsed expression
+         * @throws IllegalArgumentException if the query is malformed
+         */
+        Node parseUnary() {
+            Token token = peek();
+            if (token == null) {
+                throw new IllegalArgumentException("Query ended unexpectedly.");
+            }
+            if (token.isKeyword("not")) {
+                pos++;
+                return new NotNode(parseUnary());
+            }
+            if (token.kind == Kind.LPAREN) {
+                pos++;
+                Node inner = parseOr();
+                Token close = peek();
+                if (close == null || close.kind != Kind.RPAREN) {
+                    throw new IllegalArgumentException("Missing closing parenthesis.");
+                }
+                pos++;
+                return inner;
+            }
+            return parsePredicate();
+        }
+
+        /**
+         * Parses a tag, date or caption predicate: a name, an operator and a value.
+         * @return the parsed predicate
+         * @throws IllegalArgumentException if the predicate is malformed
+         */
+        Node parsePredicate() {
+            Token nameToken = peek();
+            if (nameToken.kind != Kind.WORD && nameToken.kind != Kind.QUOTED) {
+                throw new IllegalArgumentException("Expected a tag name but found \"" + nameToken.text + "\".");
+            }
+            pos++;
+            Token op = peek();
+            if (op == null || op.kind != Kind.OPERATOR) {
+                throw new IllegalArgumentException("Tag query must be in name=value format.");
+            }
+            pos++;
+            String value = parseValue();
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException("Tag name and value cannot be empty.");
+            }
+            String name = nameToken.text;
+            if (name.equalsIgnoreCase("date") && nameToken.kind == Kind.WORD && !op.text.equals("~")) {
+                return dateTerm(op.text, value);
+            }
+            if (name.equalsIgnoreCase("caption") && nameToken.kind == Kind.WORD && op.text.equals("~")) {
+                List<String> words = new ArrayList<>();
+                for (String word : value.toLowerCase(Locale.ROOT).split("\\s+")) {
+                    String stripped = word.replaceAll("[^\\p{L}\\p{N}*]", "");
+                    if (!stripped.isEmpty()) {
+                        words.add(stripped);
+                    }
+                }
+                if (words.isEmpty()) {
+                    throw new IllegalArgumentException("Caption search needs at least one word.");
+                }
+                return new CaptionTerm(words);
+            }
+            if (!op.text.equals("=")) {
+                throw new IllegalArgumentException("Operator \"" + op.text + "\" is only supported for date and caption.");
+            }
+            return new TagTerm(name, value);
+        }
+
+        /**
+         * Parses the value of a predicate: a quoted string, or the unquoted words up to the next
+         * keyword, operator or parenthesis, joined by single spaces.
+         * @return the value, which is empty if there is none
+         */
+        String parseValue() {
+            Token token = peek();
+            if (token != null && token.kind == Kind.QUOTED) {
+                pos++;
+                return token.text;
+            }
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                token = peek();
+                if (token == null || token.kind != Kind.WORD
+                        || token.isKeyword("and") || token.isKeyword("or") || token.isKeyword("not")) {
+                    break;
+                }
+                if (value.length() > 0) {
+                    value.append(' ');
+                }
+                value.append(token.text);
+                pos++;
+            }
+            return value.toString();
+        }
+
+        /**
+         * Builds the date term of a date predicate.
+         * @param op the comparison operator
+         * @param value the date, in MM/dd/yyyy format
+         * @return the date term
+         * @throws IllegalArgumentException if the date is invalid
+         */
+        Node dateTerm(String op, String value) {
+            LocalDate date;
+            try {
+                date = LocalDate.parse(value, DATE_FORMAT);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid date \"" + value + "\". Please use MM/DD/YYYY.");
+            }
+            LocalDateTime dayStart = date.atStartOfDay();
+            LocalDateTime nextDay = date.plusDays(1).atStartOfDay();
+            switch (op) {
+                case "=":
+                    return new DateTerm(dayStart, nextDay);
+                case "<":
+                    return new DateTerm(null, dayStart);
+                case "<=":
+                    return new DateTerm(null, nextDay);
+                case ">":
+                    return new DateTerm(nextDay, null);
+                default:
+                    return new DateTerm(dayStart, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package view;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Cache of scaled photo thumbnails used by the photo list.
+ * Thumbnails are loaded on a small pool of background threads (from the on-disk ThumbnailStore when
+ * possible) and kept in a size-bounded LRU map so scrolling never waits on a decode. Like store
+ * entries, each thumbnail is valid for the size and last modified time its file had when it was
+ * loaded. Those are read on the background threads, so no file is touched on the JavaFX thread; a
+ * thumbnail older than a few seconds is still shown, and the file is checked again in the
+ * background, loading it anew if it has changed. Photos whose file is missing or cannot be decoded
+ * are remembered the same way, so they are not tried again every time their row is drawn but are
+ * once the file appears or changes.
+ * Cache hits and misses, load times and the memory the cached thumbnails take are published
+ * through Metrics under thumbnail.*.
+ * All public methods must be called on the JavaFX application thread.
+ */
+public class ThumbnailCache {
+    /** The width and height (in pixels) thumbnails are scaled to fit. */
+    public static final int THUMBNAIL_SIZE = 80;
+    /** The maximum number of decoded thumbnails kept in memory. */
+    private static final int MAX_ENTRIES = 500;
+    /** The number of background threads decoding thumbnails. */
+    private static final int DECODER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    /** How long a thumbnail, or a failure to load one, is used before its file is checked again. */
+    private static final long RECHECK_MILLIS = 10_000;
+
+    /**
+     * A loaded thumbnail, or the failure to load one, together with the file details it is valid for.
+     */
+    private static class Entry {
+        /** The size of the file when it was loaded. */
+        final long size;
+        /** The last modified time of the file when it was loaded. */
+        final long modified;
+        /** The thumbnail, or null if the file is missing or could not be decoded. */
+        final Image image;
+        /** When the file details were last read; updated on the JavaFX thread. */
+        long checked;
+
+        /**
+         * Creates an entry.
+         * @param size the size of the file
+         * @param modified the last modified time of the file
+         * @param image the thumbnail, or null if it could not be loaded
+         * @param checked when the file details were read
+         */
+        Entry(long size, long modified, Image image, long checked) {
+            this.size = size;
+            this.modified = modified;
+            this.image = image;
+            this.checked = checked;
+        }
+    }
+
+    /** Loaded thumbnails and failures in least-recently-used order, keyed by path. */
+    private static final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > MAX_ENTRIES) {
+                cachedBytes -= sizeOf(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    /** The total size in bytes of the thumbnails in the cache; written on the JavaFX thread only. */
+    private static volatile long cachedBytes;
+    /** The number of thumbnails in the cache, for reading from other threads. */
+    private static volatile int cachedCount;
+    /** Counts requests answered from the cache. */
+    private static final Metrics.Counter hits = Metrics.counter("thumbnail.cache.hits");
+    /** Counts requests that had to wait for a load. */
+    private static final Metrics.Counter misses = Metrics.counter("thumbnail.cache.misses");
+    /** Times loading a thumbnail from the store or the original, published as thumbnail.load. */
+    private static final Metrics.Timer loadTimer = Metrics.timer("thumbnail.load");
+    /** Callbacks waiting on a load or check that is already in progress, keyed like the cache. */
+    private static final Map<String, List<Consumer<Image>>> pending = new HashMap<>();
+    /** The worker pool that decodes thumbnails off the JavaFX thread. */
+    private static final ExecutorService decoder = Executors.newFixedThreadPool(DECODER_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "thumbnail-decoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** Graphic shown while a thumbnail is still being decoded. */
+    private static Image placeholder;
+
+    static {
+        Metrics.gauge("thumbnail.cache.bytes", () -> cachedBytes);
+        Metrics.gauge("thumbnail.cache.entries", () -> cachedCount);
+    }
+
+    /**
+     * Returns the thumbnail for a photo if it is already cached, otherwise schedules a background
+     * load and returns null. The callback is invoked on the JavaFX thread once the load finishes,
+     * or right away with null if the photo is known not to load. When a cached photo's file is
+     * checked again, the callback is also invoked once the check finishes, with the thumbnail loaded
+     * anew if the file has changed.
+     * @param photo the photo to thumbnail
+     * @param callback receives the loaded thumbnail, or null if the file is missing or could not be decoded
+     * @return the cached thumbnail, or null if it is not yet available
+     */
+    public static Image request(Photo photo, Consumer<Image> callback) {
+        String path = photo.getFilePath();
+        Entry entry = cache.get(path);
+        if (entry == null) {
+            misses.increment();
+            schedule(path, null).add(callback);
+            return null;
+        }
+        hits.increment();
+        long now = System.currentTimeMillis();
+        if (now - entry.checked >= RECHECK_MILLIS || pending.containsKey(path)) {
+            entry.checked = now;
+            schedule(path, entry).add(callback);
+        }
+        if (entry.image == null) {
+            callback.accept(null);
+        }
+        return entry.image;
+    }
+
+    /**
+     * Returns a neutral placeholder graphic to display while a thumbnail is loading.
+     * @return the placeholder image
+     */
+    public static Image getPlaceholder() {
+        if (placeholder == null) {
+            WritableImage image = new WritableImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+            PixelWriter writer = image.getPixelWriter();
+            for (int y = 0; y < THUMBNAIL_SIZE; y++) {
+                for (int x = 0; x < THUMBNAIL_SIZE; x++) {
+                    writer.setArgb(x, y, 0xFFDDDDDD);
+                }
+            }
+            placeholder = image;
+        }
+        return placeholder;
+    }
+
+    /**
+     * Returns the list of callbacks for a path, queuing a load if none is in progress. The load
+     * first reads the file's size and last modified time, and keeps the cached entry if they are
+     * still those it was loaded for.
+     * @param path the path of the photo file
+     * @param cached the entry cached for the path, or null if there is none
+     * @return the callbacks waiting on the load
+     */
+    private static List<Consumer<Image>> schedule(String path, Entry cached) {
+        List<Consumer<Image>> waiting = pending.get(path);
+        if (waiting != null) {
+            return waiting;
+        }
+        waiting = new ArrayList<>();
+        pending.put(path, waiting);
+        decoder.execute(() -> {
+            File file = new File(path);
+            long checked = System.currentTimeMillis();
+            long size = file.length();
+            long modified = file.lastModified();
+            if (cached != null && cached.size == size && cached.modified == modified) {
+                Platform.runLater(() -> complete(path, cached));
+                return;
+            }
+            Metrics.Sample sample = loadTimer.start();
+            Image result = ThumbnailStore.load(file, THUMBNAIL_SIZE);
+            sample.stop();
+            Entry loaded = new Entry(size, modified, result, checked);
+            Platform.runLater(() -> complete(path, loaded));
+        });
+        return waiting;
+    }
+
+    /**
+     * Stores a finished load in the cache and notifies everyone waiting on it.
+     * @param path the path of the loaded file
+     * @param entry the loaded thumbnail or failure
+     */
+    private static void complete(String path, Entry entry) {
+        Entry previous = cache.put(path, entry);
+        cachedBytes += sizeOf(entry) - sizeOf(previous);
+        cachedCount = cache.size();
+        List<Consumer<Image>> waiting = pending.remove(path);
+        if (waiting != null) {
+            for (Consumer<Image> callback : waiting) {
+                callback.accept(entry.image);
+            }
+        }
+    }
+
+    /**
+     * Returns the memory the thumbnail of an entry takes.
+     * @param entry the entry, or null
+     * @return the size of its pixels in bytes, or 0 if it has no thumbnail
+     */
+    private static long sizeOf(Entry entry) {
+        return entry == null || entry.image == null ? 0 : ImagePipeline.sizeOf(entry.image);
+    }
+}
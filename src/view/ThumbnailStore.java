@@ -0,0 +1,216 @@
+package view;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Persistent, content-addressed store of pre-scaled photo thumbnails.
+ * Each thumbnail is kept in the "thumbnails" directory under a name derived from the source file's
+ * path, size and last modified time, so a changed source file simply misses and is decoded again.
+ * The least recently used entries are evicted once the directory grows past its size budget.
+ * Methods may be called from any thread.
+ */
+public class ThumbnailStore {
+    /** The directory holding stored thumbnails. */
+    private static final File STORE_DIR = new File("thumbnails");
+    /** Marker written at the start of every thumbnail file. */
+    private static final int MAGIC = 0x54484D42;
+    /** The maximum total size of the store, in bytes, before old entries are evicted. */
+    private static final long MAX_STORE_BYTES = 64L * 1024 * 1024;
+    /** The most a deflated entry can expand to when inflated, per byte of the file. */
+    private static final int MAX_INFLATION = 1032;
+    /** How many thumbnails are written between eviction passes. */
+    private static final int WRITES_PER_COMPACTION = 200;
+
+    /** The number of thumbnails written since the last eviction pass. */
+    private static int writesSinceCompaction;
+    /** Times decoding original images into thumbnails, published as thumbnail.decode. */
+    private static final Metrics.Timer decodeTimer = Metrics.timer("thumbnail.decode");
+    /** Counts thumbnails found in the store. */
+    private static final Metrics.Counter storeHits = Metrics.counter("thumbnail.store.hits");
+
+    static {
+        compact();
+    }
+
+    /**
+     * Returns a thumbnail for the given file, reading it from the store if present and otherwise
+     * decoding the original and storing the result. This performs blocking I/O and must not be
+     * called on the JavaFX thread.
+     * @param file the source image file
+     * @param size the width and height the thumbnail is scaled to fit
+     * @return the thumbnail, or null if the file is missing or could not be decoded
+     */
+    public static Image load(File file, int size) {
+        if (!file.exists()) {
+            return null;
+        }
+        File entry = entryFor(file, size);
+        Image stored = read(entry, size);
+        if (stored != null) {
+            storeHits.increment();
+            return stored;
+        }
+        LibraryEvents.Decode event = new LibraryEvents.Decode();
+        event.path = file.getPath();
+        event.size = size;
+        Metrics.Sample sample = decodeTimer.start(event);
+        Image decoded = new Image(file.toURI().toString(), size, size, true, true);
+        event.succeeded = !decoded.isError();
+        sample.stop();
+        if (decoded.isError()) {
+            return null;
+        }
+        write(entry, decoded, size);
+        return decoded;
+    }
+
+    /**
+     * Removes the least recently used thumbnails until the store fits within its size budget.
+     */
+    public static synchronized void compact() {
+        writesSinceCompaction = 0;
+        File[] files = STORE_DIR.listFiles((dir, name) -> name.endsWith(".thumb"));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        if (total <= MAX_STORE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (total <= MAX_STORE_BYTES) {
+                break;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * Returns the store entry for a source file. The name is a hash of the file's path, size,
+     * last modified time and the thumbnail size, so any change to the source yields a new entry.
+     * @param file the source image file
+     * @param size the thumbnail size
+     * @return the store file for that thumbnail
+     */
+    private static File entryFor(File file, int size) {
+        String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" + size;
+        String name = UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+        return new File(STORE_DIR, name + ".thumb");
+    }
+
+    /**
+     * Reads a stored thumbnail and marks it as recently used. An entry whose dimensions are larger
+     * than the thumbnail size, or than the file could hold, is damaged and treated as missing.
+     * @param entry the store file
+     * @param size the thumbnail size
+     * @return the stored thumbnail, or null if it is missing or unreadable
+     */
+    private static Image read(File entry, int size) {
+        if (!entry.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new FileInputStream(entry))))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            if (!fits(width, height, size) || (long) width * height * Integer.BYTES > entry.length() * MAX_INFLATION) {
+                entry.delete();
+                return null;
+            }
+            int[] pixels = new int[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = in.readInt();
+            }
+            WritableImage image = new WritableImage(width, height);
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+            entry.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException | RuntimeException e) {
+            entry.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes a decoded thumbnail to the store. The data is written to a temporary file first and
+     * then renamed into place so readers never see a partial entry.
+     * @param entry the store file
+     * @param image the decoded thumbnail
+     * @param size the thumbnail size
+     */
+    private static void write(File entry, Image image, int size) {
+        PixelReader reader = image.getPixelReader();
+        if (reader == null) {
+            return;
+        }
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        if (!fits(width, height, size)) {
+            return;
+        }
+        int[] pixels = new int[width * height];
+        reader.getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        STORE_DIR.mkdirs();
+        File temp = new File(STORE_DIR, entry.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(new FileOutputStream(temp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(width);
+                out.writeInt(height);
+                for (int pixel : pixels) {
+                    out.writeInt(pixel);
+                }
+            }
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        synchronized (ThumbnailStore.class) {
+            if (++writesSinceCompaction >= WRITES_PER_COMPACTION) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Checks the dimensions of a thumbnail against the size it was scaled to fit.
+     * @param width the width in pixels
+     * @param height the height in pixels
+     * @param size the thumbnail size
+     * @return true if both are between 1 and the size
+     */
+    private static boolean fits(int width, int height, int size) {
+        return width > 0 && height > 0 && width <= size && height <= size;
+    }
+}
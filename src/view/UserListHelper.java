@@ -2,25 +2,66 @@ package view;
 
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
 
 /**
  * Utility class for saving and loading the UserList to and from disk.
- * The user list is stored in a file "users.dat".
+ * The user list is stored in a file "users.dat", written in the background by the PersistenceQueue.
+ * Changes go through update, which holds a lock on the file across reading, changing and writing
+ * it, so instances changing the user list at the same time do not undo each other's changes.
  */
 public class UserListHelper {
+    /** The file holding the serialized user list. */
+    private static final File USERS_FILE = new File("users.dat");
+    /** The name of the lock file guarding the user list, as used by UserLocks. */
+    private static final String LOCK_NAME = "users";
+    /** Serializes updates within the process, since a process cannot lock the same file twice. */
+    private static final Object updateLock = new Object();
 
     /**
-     * Saves the given UserList to disk.
+     * Saves the given UserList to disk. The list is serialized immediately and written in the background.
      * @param userList the UserList to save
      */
     public static void save(UserList userList) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("users.dat"))) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
             oos.writeObject(userList);
         } catch (IOException e) {
-            e.printStackTrace();
+            Metrics.error("users.save", e);
+            return;
+        }
+        PersistenceQueue.replace(USERS_FILE, bytes.toByteArray());
+    }
+
+    /**
+     * Changes the user list on disk: the latest list is read, changed and written back while the
+     * user list is locked against other threads and processes. The change is on disk when this returns.
+     * @param change the change to make to the list
+     * @return the changed UserList
+     */
+    public static UserList update(Consumer<UserList> change) {
+        synchronized (updateLock) {
+            FileChannel lock = null;
+            try {
+                lock = UserLocks.lockFile(LOCK_NAME);
+            } catch (IOException e) {
+                // Still make the change; it is only unprotected against other processes
+                Metrics.error("users.lock", e);
+            }
+            try {
+                UserList userList = load();
+                change.accept(userList);
+                save(userList);
+                PersistenceQueue.flush();
+                return userList;
+            } finally {
+                UserLocks.release(lock);
+            }
         }
     }
 
@@ -29,7 +70,8 @@ public class UserListHelper {
      * @return the loaded UserList, or a new UserList if none exists
      */
     public static UserList load() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream("users.dat"))) {
+        PersistenceQueue.flush();
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(USERS_FILE))) {
             return (UserList) ois.readObject();
         } catch (IOException | ClassNotFoundException e) {
             return new UserList();
@@ -0,0 +1,113 @@
+package view;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks that keep concurrent users of the same data files from losing each other's updates.
+ * Within the process, each username maps to one of a fixed set of striped locks, so operations on
+ * the same user are serialized while different users rarely contend and no lock per user has to be
+ * created or cleaned up. Across processes, a lock file next to the data files is locked with
+ * FileChannel.lock; the lock is released when the returned channel is closed, or by the operating
+ * system if the process exits.
+ */
+public class UserLocks {
+    /** The number of striped locks; a power of two. */
+    private static final int STRIPES = 64;
+
+    /** The striped locks, indexed by a hash of the username. */
+    private static final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the in-process lock guarding a user's data. Users sharing a lock only delay each other.
+     * @param username the user whose lock to return
+     * @return the lock for that user
+     */
+    public static ReentrantLock lockFor(String username) {
+        int hash = username.hashCode();
+        // Spread the high bits so names differing only at the end use different stripes
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Locks a lock file exclusively, waiting for any other process holding it.
+     * @param name the name the lock file is derived from, such as a username
+     * @return the open channel holding the lock; closing it releases the lock
+     * @throws IOException if the lock file could not be opened or locked
+     */
+    public static FileChannel lockFile(String name) throws IOException {
+        FileChannel channel = open(name);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Locks a lock file exclusively if no other process holds it.
+     * @param name the name the lock file is derived from, such as a username
+     * @return the open channel holding the lock, or null if another process holds it or the file
+     *         could not be locked; closing the channel releases the lock
+     */
+    public static FileChannel tryLockFile(String name) {
+        FileChannel channel = null;
+        try {
+            channel = open(name);
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return channel;
+            }
+        } catch (IOException e) {
+            Metrics.error("locks", e);
+        }
+        release(channel);
+        return null;
+    }
+
+    /**
+     * Releases a lock returned by lockFile or tryLockFile.
+     * @param channel the channel holding the lock, or null
+     */
+    public static void release(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Metrics.error("locks", e);
+        }
+    }
+
+    /**
+     * Returns the lock file for a name.
+     * @param name the name the lock file is derived from
+     * @return the lock file
+     */
+    public static File lockFileFor(String name) {
+        return new File(name + ".lock");
+    }
+
+    /**
+     * Opens a lock file, creating it if needed.
+     * @param name the name the lock file is derived from
+     * @return the open channel
+     * @throws IOException if the file could not be opened
+     */
+    private static FileChannel open(String name) throws IOException {
+        return FileChannel.open(lockFileFor(name).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+}
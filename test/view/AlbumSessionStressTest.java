@@ -0,0 +1,219 @@
+package view;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of concurrent sessions. Many threads add tagged photos to the albums of a few users
+ * at once, flushing and closing sessions at random while other threads still use them; afterwards
+ * every user's library is read back from disk and must hold exactly the photos added. It also
+ * checks that a second process cannot open a user whose session is open here, and can once it has
+ * been closed.
+ * <p>
+ * Run it from a scratch directory with the application classes on the class path; it creates and
+ * deletes the data of users named stress0, stress1 and so on:
+ * <pre>
+ * java -cp classes:test-classes view.AlbumSessionStressTest [-users N] [-threads N] [-operations N]
+ * </pre>
+ * The exit status is 0 if every check passed and 1 otherwise.
+ */
+public class AlbumSessionStressTest {
+    /** Prefix of the usernames the test works on. */
+    private static final String USER_PREFIX = "stress";
+    /** Argument that makes the process try to open a user's session and report the outcome. */
+    private static final String CHILD = "-child";
+
+    /** The number of users. */
+    private int users = 8;
+    /** The number of threads editing at once. */
+    private int threads = 32;
+    /** The number of photos each thread adds. */
+    private int operations = 2000;
+    /** The number of checks that failed. */
+    private int failures;
+
+    /**
+     * Runs the test.
+     * @param args the options
+     * @throws Exception if the test could not run
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(CHILD)) {
+            System.exit(tryOpen(args[1]) ? 0 : 2);
+        }
+        AlbumSessionStressTest test = new AlbumSessionStressTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-users":
+                    test.users = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-threads":
+                    test.threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-operations":
+                    test.operations = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        try {
+            test.run();
+        } finally {
+            test.deleteUsers();
+        }
+        System.out.println(test.failures == 0 ? "PASSED" : "FAILED: " + test.failures + " checks");
+        System.exit(test.failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs the concurrent edits, then the checks.
+     * @throws Exception if the test could not run
+     */
+    private void run() throws Exception {
+        deleteUsers();
+        ConcurrentHashMap<String, AtomicInteger> added = new ConcurrentHashMap<>();
+        AtomicLong photoNumbers = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < operations; i++) {
+                    String username = USER_PREFIX + random.nextInt(users);
+                    Photo photo = new Photo("/stress/" + photoNumbers.incrementAndGet() + ".jpg",
+                            LocalDateTime.of(2020, 1, 1, 0, 0).plusMinutes(i));
+                    addPhoto(username, photo, "v" + i % 5);
+                    added.computeIfAbsent(username, k -> new AtomicInteger()).incrementAndGet();
+                    if (random.nextInt(50) == 0) {
+                        AlbumSession.open(username).flush();
+                    }
+                    if (random.nextInt(200) == 0) {
+                        AlbumSession.close(username);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+        System.out.printf("%d photos added in %d ms%n", photoNumbers.get(), (System.nanoTime() - start) / 1_000_000);
+
+        String first = USER_PREFIX + 0;
+        AlbumSession.open(first);
+        check(!openInChild(first), "another process opened " + first + " while its session was open");
+        AlbumSession.closeAll();
+        check(openInChild(first), "another process could not open " + first + " after its session was closed");
+
+        for (int u = 0; u < users; u++) {
+            String username = USER_PREFIX + u;
+            AlbumList albumList = AlbumListHelper.load(username);
+            int photos = 0;
+            int tagged = 0;
+            for (Album album : albumList.getAlbums()) {
+                for (Photo photo : album.getPhotos()) {
+                    photos++;
+                    if (photo.getTags("k").size() == 1) {
+                        tagged++;
+                    }
+                }
+            }
+            int expected = added.containsKey(username) ? added.get(username).get() : 0;
+            check(photos == expected, username + " has " + photos + " photos instead of " + expected);
+            check(tagged == photos, username + " has " + (photos - tagged) + " photos without their tag");
+            check(albumList.getAlbums().size() == (expected > 0 ? 1 : 0), username + " has " + albumList.getAlbums().size() + " albums");
+        }
+    }
+
+    /**
+     * Adds a tagged photo to a user's album, creating the album if needed. The session is opened
+     * again if another thread closed it in the meantime.
+     * @param username the user
+     * @param photo the photo to add
+     * @param tagValue the value of the photo's tag
+     */
+    private static void addPhoto(String username, Photo photo, String tagValue) {
+        while (true) {
+            AlbumSession session = AlbumSession.open(username);
+            synchronized (session) {
+                if (session.isClosed()) {
+                    continue;
+                }
+                Album album = session.getAlbumList().getAlbum("stress");
+                if (album == null) {
+                    album = session.createAlbum("stress");
+                }
+                session.addPhoto(album, photo);
+                session.addTag(photo, "k", tagValue);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tries to open a user's session in another process.
+     * @param username the user
+     * @return true if the other process opened it
+     * @throws IOException if the process could not be started
+     * @throws InterruptedException if interrupted while waiting for it
+     */
+    private static boolean openInChild(String username) throws IOException, InterruptedException {
+        Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), AlbumSessionStressTest.class.getName(), CHILD, username)
+                .inheritIO().start();
+        return child.waitFor() == 0;
+    }
+
+    /**
+     * Opens and closes a user's session, in the child process.
+     * @param username the user
+     * @return true if the session could be opened
+     */
+    private static boolean tryOpen(String username) {
+        try {
+            AlbumSession.open(username);
+            AlbumSession.close(username);
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records the outcome of a check, printing it if it failed.
+     * @param passed whether the check passed
+     * @param message what went wrong otherwise
+     */
+    private void check(boolean passed, String message) {
+        if (!passed) {
+            failures++;
+            System.out.println("FAIL: " + message);
+        }
+    }
+
+    /**
+     * Deletes the data of the test's users.
+     */
+    private void deleteUsers() {
+        AlbumSession.closeAll();
+        for (int u = 0; u < users; u++) {
+            String username = USER_PREFIX + u;
+            AlbumSession.delete(username);
+            String dataFile = AlbumListHelper.dataFileFor(username).getName();
+            UserLocks.lockFileFor(dataFile.substring(0, dataFile.lastIndexOf('.'))).delete();
+        }
+    }
+}
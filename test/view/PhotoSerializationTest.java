@@ -0,0 +1,157 @@
+package view;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Checks that album lists serialized by the first release, which stored each photo's tags as a list,
+ * are still read with the current Photo class, whose serialVersionUID is unchanged, and that tags
+ * keep the order they were added in through serialization and the binary snapshot format.
+ * <p>
+ * Run it with the application classes on the class path:
+ * <pre>
+ * java -cp classes:test-classes view.PhotoSerializationTest
+ * </pre>
+ * The exit status is 0 if every check passed and 1 otherwise.
+ */
+public class PhotoSerializationTest {
+    /**
+     * An album list written by the first release: album "Trip" holding paris.jpg and rome.jpg and
+     * album "Best" holding the same paris.jpg, captioned "Eiffel tower" and tagged location=Paris,
+     * person=Ann and person=Bob in that order.
+     */
+    private static final String FIRST_RELEASE_ALBUMS =
+            "rO0ABXNyAA52aWV3LkFsYnVtTGlzdAAAAAAAAAABAgABTAAGYWxidW1zdAAQTGphdmEvdXRpbC9MaXN0O3hwc3IAE2phdmEudXRp" +
+            "bC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAJ3BAAAAAJzcgAKdmlldy5BbGJ1bQAAAAAAAAABAgACTAAEbmFtZXQA" +
+            "EkxqYXZhL2xhbmcvU3RyaW5nO0wABnBob3Rvc3EAfgABeHB0AARUcmlwc3EAfgADAAAAAncEAAAAAnNyAAp2aWV3LlBob3RvAAAA" +
+            "AAAAAAICAARMAARkYXRldAAZTGphdmEvdGltZS9Mb2NhbERhdGVUaW1lO0wAC2Rlc2NyaXB0aW9ucQB+AAZMAAhmaWxlUGF0aHEA" +
+            "fgAGTAAEdGFnc3EAfgABeHBzcgANamF2YS50aW1lLlNlcpVdhLobIkiyDAAAeHB3CAUAAAeyAQH/eHQADEVpZmZlbCB0b3dlcnQA" +
+            "ES9waG90b3MvcGFyaXMuanBnc3EAfgADAAAAA3cEAAAAA3NyAAh2aWV3LlRhZwAAAAAAAAABAgACTAAEbmFtZXEAfgAGTAAFdmFs" +
+            "dWVxAH4ABnhwdAAIbG9jYXRpb250AAVQYXJpc3NxAH4AEnQABnBlcnNvbnQAA0FubnNxAH4AEnEAfgAXdAADQm9ieHNxAH4ACnNx" +
+            "AH4ADXcIBQAAB7IBAf94dAAAdAAQL3Bob3Rvcy9yb21lLmpwZ3NxAH4AAwAAAAB3BAAAAAB4eHNxAH4ABXQABEJlc3RzcQB+AAMA" +
+            "AAABdwQAAAABcQB+AAx4eA==";
+
+    /** The number of checks that failed. */
+    private int failures;
+
+    /**
+     * Runs the test.
+     * @param args not used
+     * @throws Exception if the test could not run
+     */
+    public static void main(String[] args) throws Exception {
+        PhotoSerializationTest test = new PhotoSerializationTest();
+        test.readFirstRelease();
+        test.keepTagOrder();
+        System.out.println(test.failures == 0 ? "PASSED" : "FAILED: " + test.failures + " checks");
+        System.exit(test.failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Reads the album list of the first release and checks it survives being serialized again.
+     * @throws Exception if the data could not be read
+     */
+    private void readFirstRelease() throws Exception {
+        AlbumList albumList = (AlbumList) deserialize(Base64.getDecoder().decode(FIRST_RELEASE_ALBUMS));
+        checkFirstRelease(albumList, "first release");
+        checkFirstRelease((AlbumList) deserialize(serialize(albumList)), "serialized again");
+    }
+
+    /**
+     * Checks the contents of the first release's album list.
+     * @param albumList the album list read
+     * @param stage what was done to the album list, for the failure messages
+     */
+    private void checkFirstRelease(AlbumList albumList, String stage) {
+        List<Album> albums = albumList.getAlbums();
+        check(albums.size() == 2, stage + ": " + albums.size() + " albums");
+        if (albums.size() != 2) {
+            return;
+        }
+        Album trip = albums.get(0);
+        Album best = albums.get(1);
+        check(trip.getName().equals("Trip") && trip.getPhotos().size() == 2, stage + ": album " + trip);
+        check(best.getName().equals("Best") && best.getPhotos().size() == 1, stage + ": album " + best);
+        Photo paris = trip.getPhotos().get(0);
+        check(best.getPhotos().get(0) == paris, stage + ": the albums do not share paris.jpg");
+        check(paris.getFilePath().equals("/photos/paris.jpg"), stage + ": path " + paris.getFilePath());
+        check(paris.getDescription().equals("Eiffel tower"), stage + ": caption " + paris.getDescription());
+        check(paris.getDate().equals(LocalDateTime.of(1970, 1, 1, 0, 0)), stage + ": date " + paris.getDate());
+        check(paris.getTags().toString().equals("[location=Paris, person=Ann, person=Bob]"), stage + ": tags " + paris.getTags());
+        check(paris.hasTag("person", "ann") && !paris.hasTag("person", "Carl"), stage + ": hasTag");
+        check(paris.getTags("person").toString().equals("[person=Ann, person=Bob]"), stage + ": person tags " + paris.getTags("person"));
+        check(paris.getTags("location").size() == 1 && !paris.addTag("location", "Rome"), stage + ": second location added");
+        check(trip.getPhotos().get(1).getTags().isEmpty(), stage + ": rome.jpg has tags " + trip.getPhotos().get(1).getTags());
+    }
+
+    /**
+     * Checks that tags are shown in the order they were added, after removing one and after a
+     * round trip through the binary snapshot format.
+     * @throws IOException if the snapshot could not be encoded or decoded
+     */
+    private void keepTagOrder() throws IOException {
+        Photo photo = new Photo("/photos/order.jpg", LocalDateTime.of(2024, 5, 1, 12, 0));
+        photo.addTag("zeta", "last name");
+        photo.addTag("location", "paris");
+        photo.addTag("person", "ann");
+        photo.addTag("alpha", "first name");
+        check(photo.toString().equals("order.jpg (zeta=last name, location=paris, person=ann, alpha=first name)"), "added order: " + photo);
+        photo.removeTag("location", "PARIS");
+        check(photo.getTags().toString().equals("[zeta=last name, person=ann, alpha=first name]"), "after removing: " + photo.getTags());
+
+        AlbumList albumList = new AlbumList();
+        Album album = new Album("Order");
+        album.addPhoto(photo);
+        albumList.addAlbum(album);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AlbumListCodec.write(albumList, bytes);
+        Photo read = AlbumListCodec.read(new ByteArrayInputStream(bytes.toByteArray())).getAlbums().get(0).getPhotos().get(0);
+        check(read.getTags().equals(photo.getTags()), "binary snapshot: " + read.getTags());
+        check(read.hasTag("alpha", "first name") && !read.hasTag("location", "paris"), "binary snapshot: hasTag");
+    }
+
+    /**
+     * Serializes an object.
+     * @param object the object
+     * @return the serialized bytes
+     * @throws IOException if it could not be serialized
+     */
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes an object.
+     * @param bytes the serialized bytes
+     * @return the object
+     * @throws IOException if it could not be read
+     * @throws ClassNotFoundException if a class of the stream is missing
+     */
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * Records the outcome of a check, printing it if it failed.
+     * @param passed whether the check passed
+     * @param message what went wrong otherwise
+     */
+    private void check(boolean passed, String message) {
+        if (!passed) {
+            failures++;
+            System.out.println("FAIL: " + message);
+        }
+    }
+}